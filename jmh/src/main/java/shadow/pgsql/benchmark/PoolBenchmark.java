@@ -0,0 +1,57 @@
+package shadow.pgsql.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import shadow.pgsql.Connection;
+import shadow.pgsql.Database;
+import shadow.pgsql.DatabasePool;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * borrow plus return on a DatabasePool, no query is sent
+ * <p/>
+ * contended runs 64 threads against the default maxTotal of 25, so most borrows
+ * wait for a hand-off from a returning thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PoolBenchmark {
+
+    private Database db;
+    private DatabasePool pool;
+
+    @Setup
+    public void setup() throws Exception {
+        this.db = Database.setup("localhost", 5432, "zilence", "shadow_bench");
+        this.pool = new DatabasePool(db);
+        this.pool.setMinIdle(pool.getMaxTotal());
+        // connecting is not what is measured
+        if (!this.pool.warmUp(10000)) {
+            throw new IllegalStateException("pool did not warm up");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.pool.close();
+    }
+
+    private Connection borrowAndReturn() throws Exception {
+        final Connection con = pool.borrowObject();
+        pool.returnObject(con);
+        return con;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Connection uncontended() throws Exception {
+        return borrowAndReturn();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Connection contended() throws Exception {
+        return borrowAndReturn();
+    }
+}
@@ -14,8 +14,7 @@
    "--release" "8"]
 
   :dependencies
-  [[org.apache.commons/commons-pool2 "2.2"]
-   [io.dropwizard.metrics/metrics-core "3.1.2"]]
+  [[io.dropwizard.metrics/metrics-core "3.1.2"]]
 
   :java-source-paths ["src/java"]
   :source-paths ["src/clj"]
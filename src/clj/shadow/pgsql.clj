@@ -390,6 +390,11 @@ keyword-type
   (when-let [params (:params args)]
     (.withParamTypes builder params))
 
+  ;; :in-params [1] turns "id IN ($1)" into "id = ANY($1)", $1 then takes a collection of any size
+  ;; the element type of $1 must be given in :params
+  (doseq [param (:in-params args)]
+    (.withInParam builder (int param)))
+
   (.withTypeRegistry builder (or (:types args)
                                  (:types db)
                                  TypeRegistry/DEFAULT)))
@@ -824,6 +829,163 @@ keyword-type
                  (.execute (into params (vals data)))
                  (.getRowsAffected)))))))))
 
+;; bulk writes, one statement per chunk with every column sent as one array param
+;; INSERT INTO t (a, b) SELECT * FROM unnest($1::integer[], $2::text[])
+
+(def ^:private column-types-sql
+  {:sql "SELECT attname, format_type(atttypid, atttypmod) AS type FROM pg_attribute WHERE attrelid = $1::regclass AND attnum > 0 AND NOT attisdropped"
+   :params [text-type]
+   :result (result->map :attname :type)})
+
+(defn- column-array
+  "values of one column for unnest, numeric columns without nulls use primitive arrays"
+  [sql-type values]
+  (if (some nil? values)
+    values
+    (case sql-type
+      "integer" (int-array values)
+      "bigint" (long-array values)
+      "smallint" (short-array values)
+      "double precision" (double-array values)
+      "real" (float-array values)
+      values)))
+
+(defn- create-unnest-sql
+  "builds the unnest statement for columns, (sql-fn table-name column-names unnest) returns the sql string"
+  [{:keys [^TypeRegistry types table-naming column-naming] :as db}
+   {:keys [table column-types] :as spec}
+   kind
+   columns
+   sql-fn]
+  (when-not (and (vector? columns)
+                 (seq columns)
+                 (not (nil? table)))
+    (throw (ex-info "need a vector of :columns and :table name" {:spec spec})))
+
+  (let [table-name (to-sql-name table-naming table)
+
+        column-names (->> columns
+                          (map #(to-sql-name column-naming %))
+                          (into []))
+
+        ;; only ask the server for types that weren't given
+        known (->> column-types
+                   (map (fn [[col type]] [(to-sql-name column-naming col) type]))
+                   (into {}))
+
+        server-types (when-not (every? #(contains? known %) column-names)
+                       (query db column-types-sql [(quoted table-name)]))
+
+        sql-types (->> column-names
+                       (mapv (fn [col]
+                               (or (get known col)
+                                   (get server-types col)
+                                   (throw (ex-info "unknown column" {:table table-name :column col}))))))
+
+        unnest (str "unnest("
+                    (->> sql-types
+                         (map-indexed (fn [idx type]
+                                        (str "$" (inc idx) "::" type "[]")))
+                         (str/join ", "))
+                    ")")]
+
+    {:sql (-> (SQL/statement (sql-fn table-name column-names unnest))
+              (.withName (or (:name spec)
+                             (str kind "." table-name)))
+              (.withTypeRegistry types)
+              (.create))
+     :columns columns
+     :sql-types sql-types}))
+
+(defn- execute-many
+  "returns the total number of rows affected"
+  [db {:keys [^SQL sql columns sql-types]} chunk-size data]
+  (with-transaction db
+    ;; must go through prepare, the server tells us the array types
+    (with-open [prep (.prepare (get-connection db) sql)]
+      (reduce
+        (fn [total chunk]
+          (let [chunk (vec chunk)
+                params (mapv (fn [col sql-type]
+                               (column-array sql-type (mapv #(get % col) chunk)))
+                             columns
+                             sql-types)]
+            (+ total (.getRowsAffected (.execute prep params)))))
+        0
+        (partition-all chunk-size data)))))
+
+(defn insert-many
+  "inserts all maps in data with one statement per :chunk-size (default 5000) rows
+
+   (sql/insert-many db {:table :things :columns [:a :b]} [{:a 1 :b \"x\"} ...])
+
+   column types are looked up on the server unless given as :column-types {:a \"integer\"}
+   returns the number of inserted rows"
+  [db {:keys [chunk-size] :or {chunk-size 5000} :as spec} data]
+  (let [many (create-unnest-sql db spec "insert-many" (:columns spec)
+               (fn [table-name column-names unnest]
+                 (str "INSERT INTO " (quoted table-name)
+                      " (" (->> column-names (map quoted) (str/join ", ")) ")"
+                      " SELECT * FROM " unnest)))]
+    (execute-many db many chunk-size data)))
+
+(defn upsert-many
+  "insert-many with ON CONFLICT (:conflict columns) DO UPDATE of the :update columns
+   (default all :columns not in :conflict), DO NOTHING if there is nothing to update
+
+   (sql/upsert-many db {:table :things :columns [:id :a :b] :conflict [:id]} data)
+
+   a chunk must not contain the same conflict key twice, postgres refuses to update a row twice in one statement"
+  [db {:keys [columns conflict chunk-size] :or {chunk-size 5000} :as spec} data]
+  (when-not (and (vector? conflict) (seq conflict))
+    (throw (ex-info "need a vector of :conflict columns" {:spec spec})))
+
+  (let [{:keys [column-naming]} db
+        update-columns (or (:update spec)
+                           (into [] (remove (set conflict)) columns))
+        many (create-unnest-sql db spec "upsert-many" columns
+               (fn [table-name column-names unnest]
+                 (str "INSERT INTO " (quoted table-name)
+                      " (" (->> column-names (map quoted) (str/join ", ")) ")"
+                      " SELECT * FROM " unnest
+                      " ON CONFLICT ("
+                      (->> conflict (map #(quoted (to-sql-name column-naming %))) (str/join ", "))
+                      ")"
+                      (if (seq update-columns)
+                        (str " DO UPDATE SET "
+                             (->> update-columns
+                                  (map #(quoted (to-sql-name column-naming %)))
+                                  (map #(str % " = EXCLUDED." %))
+                                  (str/join ", ")))
+                        " DO NOTHING"))))]
+    (execute-many db many chunk-size data)))
+
+(defn update-many
+  "updates the :columns of every row matched by the :key-columns, one statement per chunk
+
+   (sql/update-many db {:table :things :key-columns [:id] :columns [:a :b]} [{:id 1 :a 2 :b 3} ...])
+
+   returns the number of updated rows"
+  [db {:keys [key-columns columns chunk-size] :or {chunk-size 5000} :as spec} data]
+  (when-not (and (vector? key-columns) (seq key-columns) (vector? columns) (seq columns))
+    (throw (ex-info "need a vector of :key-columns and :columns" {:spec spec})))
+
+  (let [key-count (count key-columns)
+        many (create-unnest-sql db spec "update-many" (into key-columns columns)
+               (fn [table-name column-names unnest]
+                 (let [quoted-names (mapv quoted column-names)
+                       [key-names set-names] (split-at key-count quoted-names)]
+                   (str "UPDATE " (quoted table-name) " AS t SET "
+                        (->> set-names
+                             (map #(str % " = u." %))
+                             (str/join ", "))
+                        " FROM " unnest " AS u(" (str/join ", " quoted-names) ")"
+                        " WHERE "
+                        (->> key-names
+                             (map #(str "t." % " = u." %))
+                             (str/join " AND "))))))]
+    (execute-many db many chunk-size data)))
+
 (defn build-types
   ([type-map table-naming column-naming]
    (build-types TypeRegistry/DEFAULT type-map table-naming column-naming))
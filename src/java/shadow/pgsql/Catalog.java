@@ -0,0 +1,741 @@
+package shadow.pgsql;
+
+import shadow.pgsql.types.Types;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntPredicate;
+
+/**
+ * Names of types, tables and columns, looked up in the server catalog on demand
+ * <p/>
+ * Nothing is fetched up front. Lookups go through a separate connection since they usually
+ * happen while another connection is busy reading a RowDescription, it is opened on the first
+ * miss and shared by all lookups (one at a time) until close(). Callers that need several
+ * names should use the batch methods (loadTypes, loadTables, loadTypeNames, loadTablesByOid)
+ * to do it in one query.
+ * <p/>
+ * Lookups decode with TypeRegistry.BUILTIN, every other registry needs the catalog to resolve.
+ * <p/>
+ * Results (including misses) are cached in bounded concurrent maps, call refresh() or
+ * one of the invalidate methods after DDL.
+ *
+ * @author Thomas Heller
+ */
+public class Catalog {
+    // cached misses
+    private static final String UNKNOWN_NAME = "";
+    private static final Integer UNKNOWN_OID = -1;
+    private static final Table UNKNOWN_TABLE = new Table(-1, UNKNOWN_NAME, new String[0]);
+
+    private final Database db;
+    private final boolean enabled;
+    private final int maxEntries;
+
+    private final ConcurrentHashMap<Integer, String> typeNames = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Integer> typeOids = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Table> tablesByOid = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Table> tablesByName = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, TypeInfo> typeInfos = new ConcurrentHashMap<>();
+
+    private final AtomicLong modifications = new AtomicLong();
+
+    // guards lookupConnection, lookups are serialized on it
+    private final Object lookupLock = new Object();
+    private Connection lookupConnection;
+
+    /**
+     * @param enabled false disables name lookups (DatabaseConfig.noSchema), type info is always available
+     */
+    Catalog(Database db, boolean enabled, int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        this.db = db;
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+    }
+
+    public static final class Table {
+        public final int oid;
+        public final String name;
+        // by attnum, null for dropped columns
+        private final String[] columns;
+
+        Table(int oid, String name, String[] columns) {
+            this.oid = oid;
+            this.name = name;
+            this.columns = columns;
+        }
+
+        /**
+         * @return null if unknown
+         */
+        public String getColumnName(int attnum) {
+            if (attnum < 1 || attnum >= columns.length) {
+                return null;
+            }
+            return columns[attnum];
+        }
+
+        /**
+         * @return attnum of column, -1 if unknown
+         */
+        public int getColumnPosition(String columnName) {
+            for (int i = 1; i < columns.length; i++) {
+                if (columnName.equals(columns[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * column names by attnum, index 0 is unused
+         */
+        List<String> getColumns() {
+            return Collections.unmodifiableList(Arrays.asList(columns));
+        }
+
+        @Override
+        public String toString() {
+            return "Table{" +
+                    "oid=" + oid +
+                    ", name='" + name + '\'' +
+                    '}';
+        }
+    }
+
+    private static final SQL TYPES_BY_OID = SQL.query("SELECT oid, typname FROM pg_type WHERE oid = ANY($1)")
+            .withName("schema.types-by-oid")
+            .withTypeRegistry(TypeRegistry.BUILTIN)
+            .addParameterType(Types.OID_ARRAY)
+            .buildRowsWith(Helpers.ROW_AS_LIST)
+            .create();
+
+    // visible types last so they win over types of the same name in other schemas
+    private static final SQL TYPES_BY_NAME = SQL.query("SELECT oid, typname FROM pg_type WHERE typname = ANY($1) ORDER BY pg_type_is_visible(oid)")
+            .withName("schema.types-by-name")
+            .withTypeRegistry(TypeRegistry.BUILTIN)
+            .addParameterType(Types.TEXT_ARRAY)
+            .buildRowsWith(Helpers.ROW_AS_LIST)
+            .create();
+
+    private static final String TABLE_COLUMNS = "SELECT c.oid, c.relname, a.attnum, a.attname" +
+            " FROM pg_class c" +
+            " JOIN pg_attribute a" +
+            " ON a.attrelid = c.oid" +
+            " WHERE a.attnum > 0" +
+            " AND NOT a.attisdropped";
+
+    private static final SQL TABLES_BY_OID = SQL.query(TABLE_COLUMNS +
+            " AND c.oid = ANY($1)" +
+            " ORDER BY c.oid, a.attnum")
+            .withName("schema.tables-by-oid")
+            .withTypeRegistry(TypeRegistry.BUILTIN)
+            .addParameterType(Types.OID_ARRAY)
+            .buildRowsWith(Helpers.ROW_AS_LIST)
+            .create();
+
+    private static final SQL TABLES_BY_NAME = SQL.query(TABLE_COLUMNS +
+            " AND c.relname = ANY($1)" +
+            " AND c.relkind IN ('r', 'p')" +
+            " ORDER BY pg_table_is_visible(c.oid), c.oid, a.attnum")
+            .withName("schema.tables-by-name")
+            .withTypeRegistry(TypeRegistry.BUILTIN)
+            .addParameterType(Types.TEXT_ARRAY)
+            .buildRowsWith(Helpers.ROW_AS_LIST)
+            .create();
+
+    private <K, V> void cache(ConcurrentHashMap<K, V> map, K key, V value) {
+        if (map.size() >= maxEntries) {
+            // no LRU, just drop a quarter. lookups after eviction are cheap compared to unbounded growth
+            final Iterator<K> it = map.keySet().iterator();
+            for (int i = Math.max(1, maxEntries / 4); i > 0 && it.hasNext(); i--) {
+                it.next();
+                it.remove();
+            }
+        }
+        map.put(key, value);
+        modifications.incrementAndGet();
+    }
+
+    /**
+     * changes whenever something is added or removed
+     */
+    long getModificationCount() {
+        return modifications.get();
+    }
+
+    private static UncheckedIOException failed(String what, IOException e) {
+        return new UncheckedIOException(String.format("catalog lookup failed: %s", what), e);
+    }
+
+    interface Lookup<T> {
+        T query(Connection con) throws IOException;
+    }
+
+    /**
+     * runs the lookup on the shared connection, opens it if needed
+     */
+    private <T> T lookup(String what, Lookup<T> lookup) {
+        synchronized (lookupLock) {
+            while (true) {
+                final boolean reused = lookupConnection != null;
+                try {
+                    if (lookupConnection == null) {
+                        lookupConnection = db.connect();
+                    }
+                    return lookup.query(lookupConnection);
+                } catch (IOException e) {
+                    closeLookupConnection();
+                    // the server may have dropped it while it was idle, try once more on a new one
+                    if (!reused) {
+                        throw failed(what, e);
+                    }
+                } catch (RuntimeException e) {
+                    if (lookupConnection != null && !lookupConnection.isReady()) {
+                        closeLookupConnection();
+                    }
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private void closeLookupConnection() {
+        final Connection con = lookupConnection;
+        lookupConnection = null;
+        if (con != null) {
+            try {
+                con.close();
+            } catch (IOException e) {
+                // nothing left to do with it
+            }
+        }
+    }
+
+    /**
+     * closes the connection used for lookups, the next miss opens a new one
+     */
+    public void close() {
+        synchronized (lookupLock) {
+            closeLookupConnection();
+        }
+    }
+
+    /**
+     * @return name of the type, null if unknown
+     */
+    public String getTypeName(int oid) {
+        if (!enabled) {
+            return null;
+        }
+
+        String name = typeNames.get(oid);
+        if (name == null) {
+            loadTypeNames(Collections.singleton(oid));
+            name = typeNames.get(oid);
+        }
+        return name == null || name == UNKNOWN_NAME ? null : name;
+    }
+
+    /**
+     * fetch the names of all type oids that aren't cached yet in one query
+     */
+    public void loadTypeNames(Collection<Integer> oids) {
+        if (!enabled) {
+            return;
+        }
+
+        final List<Integer> missing = new ArrayList<>();
+        for (int oid : oids) {
+            if (!typeNames.containsKey(oid)) {
+                missing.add(oid);
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        final List<List> rows = lookup("types " + missing, con -> (List<List>) con.queryWith(TYPES_BY_OID, missing));
+
+        for (List row : rows) {
+            final int oid = (int) row.get(0);
+            final String name = (String) row.get(1);
+            cache(typeOids, name, oid);
+            cache(typeNames, oid, name);
+        }
+
+        for (int oid : missing) {
+            if (!typeNames.containsKey(oid)) {
+                cache(typeNames, oid, UNKNOWN_NAME);
+            }
+        }
+    }
+
+    /**
+     * @return oid of the type, -1 if unknown
+     */
+    public int getTypeOid(String typeName) {
+        if (!enabled) {
+            return -1;
+        }
+
+        Integer oid = typeOids.get(typeName);
+        if (oid == null) {
+            loadTypes(Collections.singleton(typeName));
+            oid = typeOids.get(typeName);
+        }
+        return oid == null ? -1 : oid;
+    }
+
+    /**
+     * fetch all types by name that aren't cached yet in one query
+     */
+    public void loadTypes(Collection<String> names) {
+        if (!enabled) {
+            return;
+        }
+
+        final List<String> missing = new ArrayList<>();
+        for (String name : names) {
+            if (!typeOids.containsKey(name)) {
+                missing.add(name);
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        final List<List> rows = lookup("types " + missing, con -> (List<List>) con.queryWith(TYPES_BY_NAME, missing));
+
+        for (List row : rows) {
+            final int oid = (int) row.get(0);
+            final String name = (String) row.get(1);
+            cache(typeOids, name, oid);
+            cache(typeNames, oid, name);
+        }
+
+        for (String name : missing) {
+            if (!typeOids.containsKey(name)) {
+                cache(typeOids, name, UNKNOWN_OID);
+            }
+        }
+    }
+
+    /**
+     * @return null if unknown
+     */
+    public Table getTable(int oid) {
+        if (!enabled || oid <= 0) {
+            return null;
+        }
+
+        Table table = tablesByOid.get(oid);
+        if (table == null) {
+            loadTablesByOid(Collections.singleton(oid));
+            table = tablesByOid.get(oid);
+        }
+        return table == null || table == UNKNOWN_TABLE ? null : table;
+    }
+
+    /**
+     * fetch all tables (and their columns) by oid that aren't cached yet in one query
+     */
+    public void loadTablesByOid(Collection<Integer> oids) {
+        if (!enabled) {
+            return;
+        }
+
+        final List<Integer> missing = new ArrayList<>();
+        for (int oid : oids) {
+            if (oid > 0 && !tablesByOid.containsKey(oid)) {
+                missing.add(oid);
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        final List<List> rows = lookup("tables " + missing, con -> (List<List>) con.queryWith(TABLES_BY_OID, missing));
+
+        addTables(rows);
+
+        for (int oid : missing) {
+            if (!tablesByOid.containsKey(oid)) {
+                cache(tablesByOid, oid, UNKNOWN_TABLE);
+            }
+        }
+    }
+
+    /**
+     * @return null if unknown
+     */
+    public Table getTable(String tableName) {
+        if (!enabled) {
+            return null;
+        }
+
+        Table table = tablesByName.get(tableName);
+        if (table == null) {
+            loadTables(Collections.singleton(tableName));
+            table = tablesByName.get(tableName);
+        }
+        return table == null || table == UNKNOWN_TABLE ? null : table;
+    }
+
+    /**
+     * fetch all tables (and their columns) by name that aren't cached yet in one query
+     */
+    public void loadTables(Collection<String> tableNames) {
+        if (!enabled) {
+            return;
+        }
+
+        final List<String> missing = new ArrayList<>();
+        for (String name : tableNames) {
+            if (!tablesByName.containsKey(name)) {
+                missing.add(name);
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        final List<List> rows = lookup("tables " + missing, con -> (List<List>) con.queryWith(TABLES_BY_NAME, missing));
+
+        addTables(rows);
+
+        for (String name : missing) {
+            if (!tablesByName.containsKey(name)) {
+                cache(tablesByName, name, UNKNOWN_TABLE);
+            }
+        }
+    }
+
+    /**
+     * rows are (oid, relname, attnum, attname) ordered by oid, attnum
+     */
+    private void addTables(List<List> rows) {
+        int start = 0;
+        while (start < rows.size()) {
+            final int oid = (int) rows.get(start).get(0);
+
+            int end = start;
+            while (end < rows.size() && (int) rows.get(end).get(0) == oid) {
+                end++;
+            }
+
+            final String name = (String) rows.get(start).get(1);
+            final String[] columns = new String[(short) rows.get(end - 1).get(2) + 1];
+            for (int i = start; i < end; i++) {
+                final List row = rows.get(i);
+                columns[(short) row.get(2)] = (String) row.get(3);
+            }
+
+            final Table table = new Table(oid, name, columns);
+            cache(tablesByOid, oid, table);
+            cache(tablesByName, name, table);
+
+            start = end;
+        }
+    }
+
+    /**
+     * type name if oid is a type, otherwise table name. null if neither
+     */
+    public String getNameForOid(int oid) {
+        final String typeName = getTypeName(oid);
+        if (typeName != null) {
+            return typeName;
+        }
+
+        final Table table = getTable(oid);
+        return table != null ? table.name : null;
+    }
+
+    /**
+     * only looks at what is already cached, never queries
+     */
+    String peekTableName(int oid) {
+        final Table table = tablesByOid.get(oid);
+        return table == null || table == UNKNOWN_TABLE ? null : table.name;
+    }
+
+    public TypeInfo getTypeInfo(int oid) throws IOException {
+        TypeInfo info = typeInfos.get(oid);
+        if (info == null) {
+            // every other oid counts as known, only this one is fetched
+            loadTypeInfos(Collections.singleton(oid), other -> other != oid);
+            info = typeInfos.get(oid);
+            if (info == null) {
+                throw new IllegalArgumentException(String.format("unknown type oid: %d", oid));
+            }
+        }
+        return info;
+    }
+
+    /**
+     * fetch the type info of oids (and of the types they are made of) that isn't cached yet,
+     * one query per level of nesting. unknown oids are left for getTypeInfo to complain about.
+     *
+     * @param known oids that don't need type info (eg. registered handlers)
+     */
+    void loadTypeInfos(Collection<Integer> oids, IntPredicate known) {
+        Collection<Integer> pending = oids;
+
+        while (true) {
+            final Set<Integer> missing = new LinkedHashSet<>();
+            for (int oid : pending) {
+                if (oid != 0 && !known.test(oid) && !typeInfos.containsKey(oid)) {
+                    missing.add(oid);
+                }
+            }
+
+            if (missing.isEmpty()) {
+                return;
+            }
+
+            final List<TypeInfo> infos = lookup("types " + missing, con -> fetchTypeInfos(con, missing));
+
+            final List<Integer> next = new ArrayList<>();
+            for (TypeInfo info : infos) {
+                cache(typeInfos, info.oid, info);
+                if (enabled) {
+                    cache(typeNames, info.oid, info.name);
+                }
+
+                next.add(info.elementOid);
+                next.add(info.baseTypeOid);
+                if (info.attributes != null) {
+                    for (ColumnInfo attr : info.attributes) {
+                        next.add(attr.typeOid);
+                    }
+                }
+            }
+
+            pending = next;
+        }
+    }
+
+    private static final SQL TYPE_INFOS = SQL.query("SELECT t.oid, t.typname, t.typtype, t.typcategory, t.typrelid, t.typelem, t.typbasetype FROM pg_type t WHERE t.oid = ANY($1)")
+            .withName("schema.type-infos")
+            .withTypeRegistry(TypeRegistry.BUILTIN)
+            .addParameterType(Types.OID_ARRAY)
+            .buildRowsWith(Helpers.ROW_AS_LIST)
+            .create();
+
+    private static final SQL ENUM_LABELS = SQL.query("SELECT enumtypid, enumlabel FROM pg_enum WHERE enumtypid = ANY($1) ORDER BY enumtypid, enumsortorder")
+            .withName("schema.enum-labels")
+            .withTypeRegistry(TypeRegistry.BUILTIN)
+            .addParameterType(Types.OID_ARRAY)
+            .buildRowsWith(Helpers.ROW_AS_LIST)
+            .create();
+
+    private static final SQL COMPOSITE_ATTRIBUTES = SQL.query("SELECT a.attrelid, a.attname, a.attnum, a.atttypid, a.attlen, a.atttypmod" +
+            " FROM pg_attribute a" +
+            " WHERE a.attrelid = ANY($1)" +
+            " AND a.attnum > 0" +
+            " AND NOT a.attisdropped" +
+            " ORDER BY a.attrelid, a.attnum")
+            .withName("schema.composite-attributes")
+            .withTypeRegistry(TypeRegistry.BUILTIN)
+            .addParameterType(Types.OID_ARRAY)
+            .buildRowsWith(Helpers.ROW_AS_LIST)
+            .create();
+
+    /**
+     * at most three queries however many oids, oids that don't exist are not in the result
+     */
+    static List<TypeInfo> fetchTypeInfos(Connection con, Collection<Integer> oids) throws IOException {
+        final List<List> rows = (List<List>) con.queryWith(TYPE_INFOS, new ArrayList<>(oids));
+
+        final List<Integer> enums = new ArrayList<>();
+        final List<Integer> relations = new ArrayList<>();
+        for (List row : rows) {
+            final char type = (char) row.get(2);
+            if (type == TypeInfo.TYPE_ENUM) {
+                enums.add((int) row.get(0));
+            } else if (type == TypeInfo.TYPE_COMPOSITE) {
+                relations.add((int) row.get(4));
+            }
+        }
+
+        final Map<Integer, List<String>> labels = new HashMap<>();
+        if (!enums.isEmpty()) {
+            for (List row : (List<List>) con.queryWith(ENUM_LABELS, enums)) {
+                labels.computeIfAbsent((int) row.get(0), k -> new ArrayList<>()).add((String) row.get(1));
+            }
+        }
+
+        final Map<Integer, List<ColumnInfo>> attributes = new HashMap<>();
+        if (!relations.isEmpty()) {
+            for (List row : (List<List>) con.queryWith(COMPOSITE_ATTRIBUTES, relations)) {
+                final int relationOid = (int) row.get(0);
+                attributes.computeIfAbsent(relationOid, k -> new ArrayList<>()).add(new ColumnInfo(
+                        (String) row.get(1),
+                        relationOid,
+                        (short) row.get(2),
+                        (int) row.get(3),
+                        (short) row.get(4),
+                        (int) row.get(5)));
+            }
+        }
+
+        final List<TypeInfo> infos = new ArrayList<>(rows.size());
+        for (List row : rows) {
+            final int oid = (int) row.get(0);
+            final String name = (String) row.get(1);
+            final char type = (char) row.get(2);
+            final char category = (char) row.get(3);
+            final int relationOid = (int) row.get(4);
+            final int elementOid = (int) row.get(5);
+            final int baseTypeOid = (int) row.get(6);
+
+            String[] enumLabels = null;
+            ColumnInfo[] attrs = null;
+
+            if (type == TypeInfo.TYPE_ENUM) {
+                final List<String> l = labels.getOrDefault(oid, Collections.emptyList());
+                enumLabels = l.toArray(new String[l.size()]);
+            } else if (type == TypeInfo.TYPE_COMPOSITE) {
+                final List<ColumnInfo> a = attributes.getOrDefault(relationOid, Collections.emptyList());
+                attrs = a.toArray(new ColumnInfo[a.size()]);
+            }
+
+            infos.add(new TypeInfo(oid, name, type, category, relationOid, elementOid, baseTypeOid, enumLabels, attrs));
+        }
+        return infos;
+    }
+
+    /**
+     * the known type names and tables, misses and type info are not included
+     */
+    SchemaSnapshot snapshot(String fingerprint) {
+        final List<Map.Entry<Integer, String>> types = new ArrayList<>();
+        for (Map.Entry<Integer, String> e : typeNames.entrySet()) {
+            if (e.getValue() != UNKNOWN_NAME) {
+                types.add(e);
+            }
+        }
+
+        final int[] oids = new int[types.size()];
+        final String[] names = new String[types.size()];
+        for (int i = 0; i < oids.length; i++) {
+            oids[i] = types.get(i).getKey();
+            names[i] = types.get(i).getValue();
+        }
+
+        final List<Table> tables = new ArrayList<>();
+        for (Table table : tablesByOid.values()) {
+            if (table != UNKNOWN_TABLE) {
+                tables.add(table);
+            }
+        }
+
+        return new SchemaSnapshot(fingerprint, oids, names, tables.toArray(new Table[tables.size()]));
+    }
+
+    void restore(SchemaSnapshot snapshot) {
+        if (!enabled) {
+            return;
+        }
+
+        for (int i = 0; i < snapshot.typeOids.length; i++) {
+            cache(typeNames, snapshot.typeOids[i], snapshot.typeNames[i]);
+            cache(typeOids, snapshot.typeNames[i], snapshot.typeOids[i]);
+        }
+
+        for (Table table : snapshot.tables) {
+            cache(tablesByOid, table.oid, table);
+            cache(tablesByName, table.name, table);
+        }
+    }
+
+    /**
+     * statements that install an event trigger which sends a NOTIFY on channel after every DDL command,
+     * use with DatabaseConfig.useSchemaNotifications. requires superuser.
+     * <p/>
+     * the trigger also bumps a counter in public.shadow_pgsql_ddl_version, which DatabaseConfig.useSchemaSnapshot
+     * uses to tell if the schema changed. it runs as its owner (SECURITY DEFINER) so the role doing the DDL
+     * needs no access to the table, DDL that only touches temp objects is skipped and a failed update only
+     * raises a WARNING, it never fails the DDL.
+     */
+    public static List<String> eventTriggerSQL(String channel) {
+        checkChannel(channel);
+
+        return Arrays.asList(
+                "CREATE TABLE IF NOT EXISTS " + SchemaSnapshot.DDL_VERSION_TABLE + " (version bigint NOT NULL)",
+                "INSERT INTO " + SchemaSnapshot.DDL_VERSION_TABLE + " (version)" +
+                        " SELECT 0 WHERE NOT EXISTS (SELECT 1 FROM " + SchemaSnapshot.DDL_VERSION_TABLE + ")",
+                "GRANT SELECT ON " + SchemaSnapshot.DDL_VERSION_TABLE + " TO PUBLIC",
+                "CREATE OR REPLACE FUNCTION public.shadow_pgsql_notify_ddl() RETURNS event_trigger LANGUAGE plpgsql" +
+                        " SECURITY DEFINER SET search_path = pg_catalog, pg_temp AS $$" +
+                        " BEGIN" +
+                        // DROP has no rows here, only skip if every command was on a temp object
+                        " IF NOT EXISTS (SELECT 1 FROM pg_event_trigger_ddl_commands())" +
+                        " OR EXISTS (SELECT 1 FROM pg_event_trigger_ddl_commands() WHERE schema_name IS DISTINCT FROM 'pg_temp') THEN" +
+                        " BEGIN" +
+                        " UPDATE " + SchemaSnapshot.DDL_VERSION_TABLE + " SET version = version + 1;" +
+                        " EXCEPTION WHEN OTHERS THEN" +
+                        " RAISE WARNING 'shadow-pgsql: DDL version not updated: %', SQLERRM;" +
+                        " END;" +
+                        " PERFORM pg_notify('" + channel + "', tg_tag);" +
+                        " END IF;" +
+                        " END $$",
+                "DROP EVENT TRIGGER IF EXISTS shadow_pgsql_notify_ddl",
+                "CREATE EVENT TRIGGER shadow_pgsql_notify_ddl ON ddl_command_end EXECUTE PROCEDURE public.shadow_pgsql_notify_ddl()");
+    }
+
+    static void checkChannel(String channel) {
+        if (channel == null || !channel.matches("[a-z_][a-z0-9_]*")) {
+            throw new IllegalArgumentException(String.format("invalid channel name: %s", channel));
+        }
+    }
+
+    /**
+     * forget what is known about type oid, eg. after ALTER TYPE
+     */
+    public void invalidateType(int oid) {
+        final String name = typeNames.remove(oid);
+        if (name != null) {
+            typeOids.remove(name);
+        }
+        typeInfos.remove(oid);
+        modifications.incrementAndGet();
+        db.dropResolvedTypes();
+    }
+
+    /**
+     * forget what is known about table oid, eg. after ALTER TABLE
+     */
+    public void invalidateTable(int oid) {
+        final Table table = tablesByOid.remove(oid);
+        if (table != null) {
+            tablesByName.remove(table.name, table);
+        }
+        modifications.incrementAndGet();
+        db.dropResolvedTypes();
+    }
+
+    /**
+     * forget everything, lookups start over
+     */
+    public void refresh() {
+        typeNames.clear();
+        typeOids.clear();
+        tablesByOid.clear();
+        tablesByName.clear();
+        typeInfos.clear();
+        modifications.incrementAndGet();
+        db.dropResolvedTypes();
+    }
+}
@@ -0,0 +1,115 @@
+package shadow.pgsql;
+
+import com.codahale.metrics.Counter;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * LISTENs on a channel on its own connection and passes every payload sent there to onNotify.
+ * <p/>
+ * Runs on a daemon thread, reconnects with backoff and calls onReconnect after reconnecting since
+ * notifications may have been missed meanwhile.
+ */
+final class ChannelListener implements Runnable {
+    private static final long MIN_BACKOFF = 1000;
+    private static final long MAX_BACKOFF = 30000;
+
+    private final Database db;
+    private final String channel;
+    private final String threadName;
+    private final Consumer<String> onNotify;
+    private final Runnable onReconnect;
+    private final Counter errors;
+
+    private volatile boolean stopped = false;
+    private volatile Thread thread;
+    private volatile Connection con;
+    private final CountDownLatch listening = new CountDownLatch(1);
+
+    ChannelListener(Database db, String channel, String threadName, Consumer<String> onNotify, Runnable onReconnect, Counter errors) {
+        Catalog.checkChannel(channel);
+
+        this.db = db;
+        this.channel = channel;
+        this.threadName = threadName;
+        this.onNotify = onNotify;
+        this.onReconnect = onReconnect;
+        this.errors = errors;
+    }
+
+    void start() {
+        final Thread thread = new Thread(this, threadName);
+        thread.setDaemon(true);
+        this.thread = thread;
+        thread.start();
+    }
+
+    void stop() {
+        stopped = true;
+
+        final Connection con = this.con;
+        if (con != null) {
+            con.abort();
+        }
+
+        final Thread thread = this.thread;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * @return false if the first LISTEN did not complete in time
+     */
+    boolean awaitListening(long timeoutMillis) throws InterruptedException {
+        return listening.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void run() {
+        long backoff = MIN_BACKOFF;
+        boolean reconnect = false;
+
+        while (!stopped) {
+            try (Connection con = db.connect()) {
+                this.con = con;
+                if (stopped) {
+                    return;
+                }
+
+                con.setNotificationHandler((processId, notifyChannel, payload) -> {
+                    if (channel.equals(notifyChannel)) {
+                        onNotify.accept(payload);
+                    }
+                });
+                con.simpleStatement("LISTEN " + channel);
+
+                if (reconnect) {
+                    onReconnect.run();
+                }
+                listening.countDown();
+
+                reconnect = true;
+                backoff = MIN_BACKOFF;
+
+                con.awaitNotifications();
+            } catch (Exception e) {
+                if (stopped) {
+                    return;
+                }
+                errors.inc();
+            } finally {
+                this.con = null;
+            }
+
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                return;
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF);
+        }
+    }
+}
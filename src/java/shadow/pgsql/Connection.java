@@ -21,6 +21,12 @@ public class Connection implements AutoCloseable {
 
     int openStatements = 0;
 
+    private final static PreparedSQL[] NO_PINNED = new PreparedSQL[0];
+
+    // statements prepared for PreparedHandles, indexed by handle
+    private PreparedSQL[] pinned = NO_PINNED;
+    int pinnedStatements = 0;
+
     final Database db;
     private final IO io;
 
@@ -32,6 +38,21 @@ public class Connection implements AutoCloseable {
     ConnectionState state;
     TransactionStatus txState;
 
+    private NotificationHandler notificationHandler;
+
+    // BackendKeyData, needed to cancel
+    private int processId;
+    private int secretKey;
+
+    // set when owned by a DatabasePool
+    PoolEntry poolEntry;
+
+    // P/B/E of commands not sent yet, they go out in front of the next command that needs a roundtrip
+    private ProtocolOutput deferred;
+    private final List<String> deferredCommands = new ArrayList<>();
+    // BEGIN is deferred, the backend is not in a transaction yet
+    private boolean beginDeferred = false;
+
     Connection(Database db, IO io) throws IOException {
         this.db = db;
         this.io = io;
@@ -51,9 +72,47 @@ public class Connection implements AutoCloseable {
         System.out.format("NOTICE: %s", notice.toString());
     }
 
+    public void setNotificationHandler(NotificationHandler notificationHandler) {
+        this.notificationHandler = notificationHandler;
+    }
+
     void handleNotify(int processId, String channel, String payload) {
-        // FIXME: delegate to database or some interface
-        System.out.format("NOTIFY: %d %s -> %s", processId, channel, payload);
+        if (notificationHandler != null) {
+            notificationHandler.handleNotification(processId, channel, payload);
+        } else {
+            // FIXME: delegate to database
+            System.out.format("NOTIFY: %d %s -> %s", processId, channel, payload);
+        }
+    }
+
+    /**
+     * blocks reading the connection so NOTIFY messages are delivered to the NotificationHandler
+     * <p/>
+     * only useful on an otherwise idle connection that did LISTEN, never returns normally.
+     * throws once the connection fails or is closed.
+     */
+    void awaitNotifications() throws IOException {
+        checkReady();
+
+        while (true) {
+            final char type = input.readNextCommand();
+            switch (type) {
+                case 'S': // ParameterStatus
+                {
+                    final String parameterName = input.readString();
+                    final String parameterValue = input.readString();
+                    this.parameters.put(parameterName, parameterValue);
+                    break;
+                }
+                case 'E': {
+                    final Map<String, String> errorData = input.readMessages();
+                    this.state = ConnectionState.ERROR;
+                    throw new CommandException("Error while waiting for notifications", errorData);
+                }
+                default:
+                    throw new IllegalStateException(String.format("illegal protocol message while waiting for notifications: %s", type));
+            }
+        }
     }
 
     void checkReady() {
@@ -102,10 +161,8 @@ public class Connection implements AutoCloseable {
                 }
                 case 'K': // BackendKeyData
                 {
-                    final int processId = input.getInt();
-                    final int secretKey = input.getInt();
-
-                    // FIXME: store this somewhere, needed for query cancel
+                    this.processId = input.getInt();
+                    this.secretKey = input.getInt();
                     break;
                 }
                 case 'E': {
@@ -131,8 +188,29 @@ public class Connection implements AutoCloseable {
         // startup complete, ready for query
     }
 
+    public int getProcessId() {
+        return processId;
+    }
+
+    public Database getDatabase() {
+        return db;
+    }
+
+    /**
+     * asks the server to cancel whatever this connection is doing, safe to call from another thread
+     * <p/>
+     * the cancelled query fails with a CommandException (57014), the connection stays usable.
+     * the server may still complete the query, a cancel arriving while the connection is idle is ignored.
+     */
+    public void cancel() throws IOException {
+        if (processId == 0) {
+            throw new IllegalStateException("no BackendKeyData, can't cancel");
+        }
+        db.cancel(processId, secretKey);
+    }
+
     public boolean isInTransaction() {
-        return this.txState == TransactionStatus.TRANSACTION;
+        return this.txState == TransactionStatus.TRANSACTION || beginDeferred;
     }
 
     // FIXME: make public? should only be used for simple commands
@@ -140,6 +218,11 @@ public class Connection implements AutoCloseable {
     StatementResult simpleStatement(String query) throws IOException {
         checkReady();
 
+        // can't mix the simple protocol into an extended batch, an error would skip it
+        if (!deferredCommands.isEmpty()) {
+            syncDeferred();
+        }
+
         output.checkReset();
         output.writeSimpleQuery(query);
         output.flushAndReset();
@@ -147,14 +230,167 @@ public class Connection implements AutoCloseable {
         return input.readStatementResult(query);
     }
 
+    /**
+     * queues command to be sent in front of the next command that needs a roundtrip
+     * <p/>
+     * if it fails the commands after it are skipped and the next command throws its error
+     */
+    void defer(String command) {
+        defer(command, SQL.statement(command).create(), EMPTY_LIST);
+    }
+
+    private void defer(String description, SQL sql, List params) {
+        checkReady();
+
+        if (deferred == null) {
+            deferred = new ProtocolOutput(this, io);
+        }
+
+        final int size = deferred.size();
+        final List<TypeHandler> paramEncoders = sql.getParameterTypes();
+
+        try {
+            deferred.writeParse(sql.getSQLString(), paramEncoders, null);
+            deferred.writeBind(paramEncoders.toArray(new TypeHandler[paramEncoders.size()]), params, sql, null, null, new short[0]);
+            deferred.writeExecute(null, 0);
+        } catch (Exception e) {
+            deferred.truncate(size);
+            throw e;
+        }
+
+        deferredCommands.add(description);
+    }
+
+    // call after output.checkReset, before writing the command
+    void writeDeferred() {
+        if (!deferredCommands.isEmpty()) {
+            deferred.copyTo(output);
+        }
+    }
+
+    // call after the flush, before reading the command results
+    void readDeferred() throws IOException {
+        if (deferredCommands.isEmpty()) {
+            return;
+        }
+
+        final String[] commands = deferredCommands.toArray(new String[deferredCommands.size()]);
+        deferredCommands.clear();
+        deferred.reset();
+        beginDeferred = false;
+
+        int completed = 0;
+        Map<String, String> errorData = null;
+
+        DEFERRED_LOOP:
+        while (completed < commands.length) {
+            final char type = input.readNextCommand();
+
+            switch (type) {
+                case '1': // ParseComplete
+                {
+                    input.checkSize("ParseComplete", 0);
+                    break;
+                }
+                case '2': // BindComplete
+                {
+                    input.checkSize("BindComplete", 0);
+                    break;
+                }
+                case 'D': {
+                    // discard
+                    input.skipFrame();
+                    break;
+                }
+                case 'C': { // CommandComplete
+                    input.readString();
+                    completed++;
+                    break;
+                }
+                case 'E': {
+                    // everything up to the Sync is skipped
+                    errorData = input.readMessages();
+                    break DEFERRED_LOOP;
+                }
+                default: {
+                    throw new IllegalStateException(String.format("invalid protocol action while reading deferred results: '%s'", type));
+                }
+            }
+        }
+
+        if (errorData != null) {
+            while (true) {
+                final char type = input.readNextCommand();
+                if (type == 'Z') {
+                    input.readReadyForQuery();
+                    break;
+                }
+                input.skipFrame();
+            }
+
+            throw new CommandException(String.format("Failed to execute deferred command\n[sql]: %s", commands[completed]), errorData);
+        }
+    }
+
+    // sends the deferred commands on their own
+    void syncDeferred() throws IOException {
+        checkReady();
+        output.checkReset();
+
+        writeDeferred();
+        output.writeSync();
+        output.flushAndReset();
+
+        readDeferred();
+
+        final char type = input.readNextCommand();
+        if (type != 'Z') {
+            throw new IllegalStateException(String.format("protocol violation, expected ReadyForQuery got '%s'", type));
+        }
+        input.readReadyForQuery();
+    }
+
+    /**
+     * executes a statement in front of the next command that needs a roundtrip (query, execute, commit)
+     * <p/>
+     * for statements whose result is not needed, an error is thrown by that next command.
+     * only allowed in a transaction, where a deferred error fails the transaction anyways.
+     */
+    public void executeDeferredWith(SQL sql, Object... params) {
+        executeDeferred(sql, Arrays.asList(params));
+    }
+
+    public void executeDeferred(SQL sql, List params) {
+        if (sql.expectsData()) {
+            throw new IllegalArgumentException("use .query instead of .executeDeferred for queries");
+        }
+        if (sql.getParameterTypes().size() != sql.getParamCount()) {
+            throw new IllegalArgumentException(String.format("SQL expects %d parameters, must specify their types. Only got %d types", sql.getParamCount(), sql.getParameterTypes().size()));
+        }
+        if (!isInTransaction()) {
+            throw new IllegalStateException("deferred statements are only allowed in a transaction");
+        }
+
+        defer(sql.getSQLString(), sql, params);
+    }
+
     // FIXME: transaction mode
     // http://www.postgresql.org/docs/9.3/static/sql-begin.html
+
+    /**
+     * BEGIN is deferred and sent with the first command of the transaction
+     */
     public void begin() throws IOException {
         checkReady();
 
+        if (beginDeferred) {
+            return;
+        }
+
         switch (txState) {
             case IDLE:
-                this.simpleStatement("BEGIN");
+                defer("BEGIN");
+                beginDeferred = true;
                 break;
             case TRANSACTION:
                 break;
@@ -163,25 +399,59 @@ public class Connection implements AutoCloseable {
         }
     }
 
+    /**
+     * SAVEPOINT is deferred like BEGIN, so are release and rollback of the Savepoint
+     */
     public Savepoint savepoint() throws IOException {
+        if (!isInTransaction()) {
+            throw new IllegalStateException("savepoints are only allowed in a transaction");
+        }
+
         final String name = String.format("P%d", savepointId++);
-        simpleStatement(String.format("SAVEPOINT %s", name));
+        defer(String.format("SAVEPOINT %s", name));
         return new Savepoint(this, name);
     }
 
+    /**
+     * sends COMMIT together with everything deferred, a transaction of deferred statements is one roundtrip
+     */
     public void commit() throws IOException {
         checkReady();
 
-        if (txState != TransactionStatus.TRANSACTION) {
+        if (!isInTransaction()) {
             throw new IllegalStateException(String.format("not in a transaction, in %s", txState));
         }
 
-        this.simpleStatement("COMMIT");
         this.savepointId = 0;
+
+        if (beginDeferred && deferredCommands.size() == 1) {
+            // nothing happened, nothing to commit
+            dropDeferred();
+            return;
+        }
+
+        defer("COMMIT");
+        syncDeferred();
     }
 
     public void rollback() throws IOException {
-        this.simpleStatement("ROLLBACK");
+        this.savepointId = 0;
+
+        // deferred commands belong to the transaction
+        final boolean sent = !beginDeferred;
+        dropDeferred();
+
+        if (sent) {
+            this.simpleStatement("ROLLBACK");
+        }
+    }
+
+    private void dropDeferred() {
+        deferredCommands.clear();
+        beginDeferred = false;
+        if (deferred != null) {
+            deferred.reset();
+        }
     }
 
     public Object queryWith(SQL sql, Object... params) throws IOException {
@@ -219,6 +489,7 @@ public class Connection implements AutoCloseable {
         output.checkReset();
 
         try {
+            writeDeferred();
             output.writeParse(sql.getSQLString(), paramEncoders, null);
             output.writeBind(paramEncoders.toArray(new TypeHandler[paramEncoders.size()]), params, sql, null, null, new short[]{1}); // all binary
             output.writeDescribePortal(null);
@@ -230,6 +501,7 @@ public class Connection implements AutoCloseable {
         }
 
         output.flushAndReset();
+        readDeferred();
 
         Exception invalidRow = null; // set if a row fails parsing
 
@@ -269,11 +541,7 @@ public class Connection implements AutoCloseable {
                 {
                     columnInfos = input.readRowDescription();
 
-                    columnDecoders = new TypeHandler[columnInfos.length];
-                    for (int i = 0; i < columnInfos.length; i++) {
-                        ColumnInfo f = columnInfos[i];
-                        columnDecoders[i] = sql.getTypeRegistry().getTypeHandlerForField(db, f);
-                    }
+                    columnDecoders = sql.getTypeRegistry().getTypeHandlersForFields(db, columnInfos);
 
                     resultBuilder = sql.getResultBuilder().create(columnInfos);
                     rowBuilder = sql.getRowBuilder().create(columnInfos);
@@ -372,6 +640,7 @@ public class Connection implements AutoCloseable {
         output.checkReset();
 
         try {
+            writeDeferred();
             output.writeParse(sql.getSQLString(), paramEncoders, null);
             output.writeBind(paramEncoders.toArray(new TypeHandler[paramEncoders.size()]), params, sql, null, null, new short[]{1}); // all binary
             // output.writeDescribePortal(null); // would only get a NoData 'n' or some data which is discarded so just skip it
@@ -383,6 +652,7 @@ public class Connection implements AutoCloseable {
         }
         
         output.flushAndReset();
+        readDeferred();
 
         StatementResult result = null;
 
@@ -442,6 +712,220 @@ public class Connection implements AutoCloseable {
         return result;
     }
 
+    /**
+     * executes every statement in its own Sync group, all of them sent in one flush
+     * <p/>
+     * a failing statement only fails itself. before and after are simple commands run in the same group
+     * around every statement, if one of them fails the statement counts as failed.
+     * anything deferred is sent with the first group, if it fails the first statement fails with its error.
+     *
+     * @return StatementResult, CommandException or IllegalArgumentException (params failed encoding) for every statement
+     */
+    Object[] executePipelined(List<SQL> sqls, List<List> params, String[] before, String[] after) throws IOException {
+        for (SQL sql : sqls) {
+            if (sql.expectsData()) {
+                throw new IllegalArgumentException("can only pipeline statements, not queries");
+            }
+            if (sql.getParameterTypes().size() != sql.getParamCount()) {
+                throw new IllegalArgumentException(String.format("SQL expects %d parameters, must specify their types. Only got %d types", sql.getParamCount(), sql.getParameterTypes().size()));
+            }
+        }
+
+        checkReady();
+        output.checkReset();
+
+        final Object[] results = new Object[sqls.size()];
+        final boolean[] sent = new boolean[sqls.size()];
+        int groups = 0;
+
+        writeDeferred();
+
+        for (int i = 0; i < sqls.size(); i++) {
+            final SQL sql = sqls.get(i);
+            final List<TypeHandler> paramEncoders = sql.getParameterTypes();
+            final int size = output.size();
+
+            try {
+                if (params.get(i).size() != paramEncoders.size()) {
+                    throw new IllegalArgumentException(String.format("Incorrect params provided to Statement, expected %d got %d", paramEncoders.size(), params.get(i).size()));
+                }
+
+                for (String command : before) {
+                    output.writeParse(command, EMPTY_LIST, null);
+                    output.writeBind(new TypeHandler[0], EMPTY_LIST, sql, null, null, new short[0]);
+                    output.writeExecute(null, 0);
+                }
+
+                output.writeParse(sql.getSQLString(), paramEncoders, null);
+                output.writeBind(paramEncoders.toArray(new TypeHandler[paramEncoders.size()]), params.get(i), sql, null, null, new short[0]);
+                output.writeExecute(null, 0);
+
+                for (String command : after) {
+                    output.writeParse(command, EMPTY_LIST, null);
+                    output.writeBind(new TypeHandler[0], EMPTY_LIST, sql, null, null, new short[0]);
+                    output.writeExecute(null, 0);
+                }
+
+                output.writeSync();
+                sent[i] = true;
+                groups++;
+            } catch (IllegalArgumentException e) {
+                // only this one is not sent
+                output.truncate(size);
+                results[i] = e;
+            } catch (Exception e) {
+                output.reset();
+                throw e;
+            }
+        }
+
+        if (groups == 0) {
+            // keep the deferred commands for later
+            output.reset();
+            return results;
+        }
+
+        output.flushAndReset();
+
+        CommandException deferredError = null;
+        try {
+            readDeferred();
+        } catch (CommandException e) {
+            deferredError = e;
+        }
+
+        for (int i = 0; i < sqls.size(); i++) {
+            if (!sent[i]) {
+                continue;
+            }
+            if (deferredError != null) {
+                // the first group was skipped and read by readDeferred, the others still have to be read
+                results[i] = deferredError;
+                deferredError = null;
+                continue;
+            }
+
+            int completed = 0;
+            StatementResult result = null;
+            Map<String, String> errorData = null;
+
+            GROUP_LOOP:
+            while (true) {
+                final char type = input.readNextCommand();
+
+                switch (type) {
+                    case '1': // ParseComplete
+                    {
+                        input.checkSize("ParseComplete", 0);
+                        break;
+                    }
+                    case '2': // BindComplete
+                    {
+                        input.checkSize("BindComplete", 0);
+                        break;
+                    }
+                    case 'D': {
+                        // discard
+                        input.skipFrame();
+                        break;
+                    }
+                    case 'C': { // CommandComplete
+                        final String tag = input.readString();
+                        if (completed == before.length) {
+                            result = new StatementResult(tag);
+                        }
+                        completed++;
+                        break;
+                    }
+                    case 'E': {
+                        errorData = input.readMessages();
+                        break;
+                    }
+                    case 'Z': {
+                        input.readReadyForQuery();
+                        break GROUP_LOOP;
+                    }
+                    default: {
+                        throw new IllegalStateException(String.format("invalid protocol action while reading pipelined results: '%s'", type));
+                    }
+                }
+            }
+
+            if (errorData != null) {
+                results[i] = new CommandException(String.format("Failed to execute Statement\n[sql]: %s", sqls.get(i)), errorData);
+            } else {
+                results[i] = result;
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * starts a binary COPY ... FROM STDIN, the connection can't be used for anything else until the CopyIn
+     * is finished or aborted
+     *
+     * @param sql         COPY table (columns) FROM STDIN (FORMAT binary)
+     * @param columnTypes one per column, must support binary
+     */
+    public CopyIn copyIn(String sql, List<TypeHandler> columnTypes) throws IOException {
+        for (TypeHandler type : columnTypes) {
+            if (type == null || !type.supportsBinary()) {
+                throw new IllegalArgumentException(String.format("COPY needs binary types for every column, got: %s", columnTypes));
+            }
+        }
+
+        checkReady();
+
+        if (!deferredCommands.isEmpty()) {
+            syncDeferred();
+        }
+
+        output.checkReset();
+        output.writeSimpleQuery(sql);
+        output.flushAndReset();
+
+        Map<String, String> errorData = null;
+
+        while (true) {
+            final char type = input.readNextCommand();
+
+            switch (type) {
+                case 'G': // CopyInResponse
+                {
+                    final int columns = input.readCopyInResponse();
+                    this.state = ConnectionState.COPY_IN;
+
+                    // the server is in COPY mode now, CopyFail gets the connection back
+                    if (columns == -1) {
+                        final CopyIn copy = new CopyIn(this, columnTypes.toArray(new TypeHandler[columnTypes.size()]));
+                        copy.abort("COPY must use FORMAT binary");
+                        throw new IllegalArgumentException("COPY must use FORMAT binary");
+                    }
+
+                    if (columns != columnTypes.size()) {
+                        final CopyIn copy = new CopyIn(this, columnTypes.toArray(new TypeHandler[columnTypes.size()]));
+                        copy.abort(String.format("expected %d columns", columnTypes.size()));
+                        throw new IllegalArgumentException(String.format("COPY has %d columns, got %d types", columns, columnTypes.size()));
+                    }
+
+                    return new CopyIn(this, columnTypes.toArray(new TypeHandler[columnTypes.size()]));
+                }
+                case 'E': {
+                    errorData = input.readMessages();
+                    break;
+                }
+                case 'Z': {
+                    input.readReadyForQuery();
+                    throw new CommandException(String.format("Failed to start COPY\n[sql]: %s", sql), errorData);
+                }
+                default: {
+                    throw new IllegalStateException(String.format("invalid protocol action while starting COPY: '%s'", type));
+                }
+            }
+        }
+    }
+
     public PreparedSQL prepare(SQL sql) throws IOException {
         Timer.Context timerContext = startPrepareTimer(sql.getName());
 
@@ -512,49 +996,178 @@ public class Connection implements AutoCloseable {
 
 
         try {
-            final TypeHandler[] encoders = getParamTypes(paramInfo, typeHints, sql.getTypeRegistry());
+            final PreparedSQL prepared = createPreparedSQL(sql, statementId, parsed, paramInfo, columnInfos, noData);
 
             db.metricCollector.collectPrepareTime(sql.getName(), sql.getSQLString(), timerContext.stop());
 
-            if (noData) {
-                if (!parsed || paramInfo == null) {
-                    throw new IllegalStateException("backend did not send ParseComplete, ParameterDescription");
-                }
+            return prepared;
+        } catch (Exception e) {
+            // FIXME: this might also throw and e will be lost
+            closeStatement(statementId);
+            throw e;
+        }
+    }
 
-                if (sql.expectsData()) {
-                    throw new IllegalStateException("backend will not send data, use statement instead of query when defining your SQL");
-                }
+    /**
+     * prepares all sql in one roundtrip (P/D for each, one S) and pins them at their index
+     * <p/>
+     * pinned statements belong to the connection until it is closed, they don't count as open statements.
+     * if one fails nothing is pinned.
+     */
+    void prepareAndPin(SQL[] sqls) throws IOException {
+        checkReady();
+        output.checkReset();
 
-                return new PreparedSQL(this, statementId, encoders, sql);
-            } else {
-                if (!parsed || paramInfo == null || columnInfos == null) {
-                    throw new IllegalStateException("backend did not send ParseComplete, ParameterDescription and RowDescription");
-                }
+        final String[] statementIds = new String[sqls.length];
 
-                if (!sql.expectsData()) {
-                    throw new IllegalStateException("backend will send data, use query instead of statement when defining your SQL");
-                }
+        try {
+            for (int i = 0; i < sqls.length; i++) {
+                statementIds[i] = String.format("s%d", queryId++);
+                output.writeParse(sqls[i].getSQLString(), sqls[i].getParameterTypes(), statementIds[i]);
+                output.writeDescribeStatement(statementIds[i]);
+            }
 
-                TypeHandler[] decoders = new TypeHandler[columnInfos.length];
+            output.writeSync();
+            output.flushAndReset();
 
-                for (int i = 0; i < columnInfos.length; i++) {
-                    ColumnInfo f = columnInfos[i];
-                    decoders[i] = sql.getTypeRegistry().getTypeHandlerForField(db, f);
+            this.state = ConnectionState.QUERY_OPEN;
+        } catch (Exception e) {
+            output.reset();
+            throw e;
+        }
+
+        final int[][] paramInfos = new int[sqls.length][];
+        final ColumnInfo[][] columnInfos = new ColumnInfo[sqls.length][];
+        final boolean[] noData = new boolean[sqls.length];
+
+        // ParseComplete starts the next statement, after an Error the backend skips everything until Sync
+        int parsed = 0;
+        Map<String, String> errorData = null;
+
+        PREPARE_LOOP:
+        while (true) {
+            final char type = input.readNextCommand();
+
+            switch (type) {
+                case '1': // ParseComplete
+                {
+                    input.checkSize("ParseComplete", 0);
+                    parsed += 1;
+                    break;
                 }
+                case 't': // ParameterDescription
+                {
+                    paramInfos[parsed - 1] = input.readParameterDescription();
+                    break;
+                }
+                case 'T': // RowDescription
+                {
+                    columnInfos[parsed - 1] = input.readRowDescription();
+                    break;
+                }
+                case 'n': // NoData
+                {
+                    noData[parsed - 1] = true;
+                    break;
+                }
+                case 'Z': // ReadyForQuery
+                {
+                    input.readReadyForQuery();
+                    break PREPARE_LOOP;
+                }
+                case 'E': // Error
+                {
+                    errorData = input.readMessages();
+                    break;
+                }
+                default:
+                    throw new IllegalStateException(String.format("protocol violation, received '%s' after Parse", type));
+            }
+        }
+
+        openStatements += parsed;
 
-                ResultBuilder resultBuilder = sql.getResultBuilder().create(columnInfos);
-                RowBuilder rowBuilder = sql.getRowBuilder().create(columnInfos);
+        final PreparedSQL[] prepared = new PreparedSQL[sqls.length];
+        int created = 0;
+        try {
+            if (errorData != null) {
+                throw new CommandException(String.format("Failed to prepare Statement\nsql: %s", sqls[Math.min(parsed, sqls.length - 1)].getSQLString()), errorData);
+            }
 
-                return new PreparedSQL(this, statementId, encoders, sql, columnInfos, decoders, resultBuilder, rowBuilder);
+            for (; created < sqls.length; created++) {
+                prepared[created] = createPreparedSQL(sqls[created], statementIds[created], true, paramInfos[created], columnInfos[created], noData[created]);
             }
         } catch (Exception e) {
-            // FIXME: this might also throw and e will be lost
-            closeStatement(statementId);
+            for (int i = 0; i < parsed; i++) {
+                if (i < created) {
+                    prepared[i].close();
+                } else {
+                    closeStatement(statementIds[i]);
+                }
+            }
             throw e;
         }
+
+        for (int i = 0; i < prepared.length; i++) {
+            pin(i, prepared[i]);
+        }
+    }
+
+    PreparedSQL getPinned(int index) {
+        final PreparedSQL[] pinned = this.pinned;
+        return index < pinned.length ? pinned[index] : null;
+    }
+
+    void pin(int index, PreparedSQL prepared) {
+        if (index >= pinned.length) {
+            pinned = Arrays.copyOf(pinned, Math.max(index + 1, pinned.length * 2));
+        }
+        if (pinned[index] != null) {
+            throw new IllegalStateException(String.format("already pinned at %d", index));
+        }
+
+        pinned[index] = prepared;
+        pinnedStatements += 1;
+    }
+
+    private PreparedSQL createPreparedSQL(SQL sql, String statementId, boolean parsed, int[] paramInfo, ColumnInfo[] columnInfos, boolean noData) {
+        if (noData) {
+            if (!parsed || paramInfo == null) {
+                throw new IllegalStateException("backend did not send ParseComplete, ParameterDescription");
+            }
+
+            if (sql.expectsData()) {
+                throw new IllegalStateException("backend will not send data, use statement instead of query when defining your SQL");
+            }
+
+            final TypeHandler[] encoders = getParamTypes(paramInfo, sql.getParameterTypes(), sql.getTypeRegistry());
+
+            return new PreparedSQL(this, statementId, encoders, sql);
+        } else {
+            if (!parsed || paramInfo == null || columnInfos == null) {
+                throw new IllegalStateException("backend did not send ParseComplete, ParameterDescription and RowDescription");
+            }
+
+            if (!sql.expectsData()) {
+                throw new IllegalStateException("backend will send data, use query instead of statement when defining your SQL");
+            }
+
+            final TypeHandler[] decoders = sql.getTypeRegistry().getTypeHandlersForFields(db, columnInfos);
+
+            ResultBuilder resultBuilder = sql.getResultBuilder().create(columnInfos);
+            RowBuilder rowBuilder = sql.getRowBuilder().create(columnInfos);
+
+            final TypeHandler[] encoders = getParamTypes(paramInfo, sql.getParameterTypes(), sql.getTypeRegistry());
+
+            return new PreparedSQL(this, statementId, encoders, sql, columnInfos, decoders, resultBuilder, rowBuilder);
+        }
     }
 
     private TypeHandler[] getParamTypes(int[] paramInfo, List<TypeHandler> typeHints, TypeRegistry typeRegistry) {
+        if (typeHints.size() < paramInfo.length) {
+            typeRegistry.prefetchTypes(db, paramInfo);
+        }
+
         final TypeHandler[] encoders = new TypeHandler[paramInfo.length];
         for (int i = 0; i < encoders.length; i++) {
             TypeHandler encoder = null;
@@ -591,6 +1204,8 @@ public class Connection implements AutoCloseable {
         output.checkReset();
 
         try {
+            writeDeferred();
+
             // Parse
             output.writeParse(query, typeHints, statementId);
 
@@ -606,9 +1221,40 @@ public class Connection implements AutoCloseable {
             output.reset();
             throw e;
         }
+
+        readDeferred();
+    }
+
+    /**
+     * empty query roundtrip, the cheapest way to check that the server is still there
+     */
+    void ping() throws IOException {
+        simpleStatement("");
+    }
+
+    /**
+     * closes the socket without telling the server, unblocks a thread stuck waiting for a dead server
+     */
+    void abort() {
+        this.state = ConnectionState.CLOSED;
+        unpinAll();
+        dropDeferred();
+
+        try {
+            io.close();
+        } catch (IOException e) {
+            // closing anyways
+        }
     }
 
     public void close() throws IOException {
+        if (state == ConnectionState.CLOSED) {
+            return;
+        }
+
+        unpinAll();
+        dropDeferred();
+
         output.checkReset();
         output.writeCloseConnection();
         output.flushAndReset();
@@ -618,6 +1264,14 @@ public class Connection implements AutoCloseable {
         io.close();
     }
 
+    // pinned statements go away with the session
+    private void unpinAll() {
+        db.preparedCounter.dec(pinnedStatements);
+        openStatements -= pinnedStatements;
+        pinnedStatements = 0;
+        pinned = NO_PINNED;
+    }
+
     void closeStatement(String statementId) throws IOException {
         output.checkReset();
 
@@ -671,6 +1325,6 @@ public class Connection implements AutoCloseable {
     }
 
     public boolean isReady() {
-        return state == ConnectionState.READY && txState == TransactionStatus.IDLE && openStatements == 0;
+        return state == ConnectionState.READY && txState == TransactionStatus.IDLE && openStatements == pinnedStatements && deferredCommands.isEmpty();
     }
 }
@@ -12,5 +12,6 @@ public enum ConnectionState {
     QUERY_CLOSE,
     QUERY_RESULT,
     FUNCTION_CALL,
+    COPY_IN,
     CLOSED, ERROR
 }
@@ -0,0 +1,207 @@
+package shadow.pgsql;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A running binary COPY FROM STDIN, see Connection.copyIn
+ * <p/>
+ * Rows are encoded with the column TypeHandlers straight into the output buffer and sent as CopyData
+ * whenever FLUSH_SIZE is reached. A row that fails encoding throws right away and is not sent. The server
+ * only answers a COPY early if it failed, that is checked after every flush so a failed COPY stops sending.
+ * <p/>
+ * NOT THREAD-SAFE!
+ */
+public class CopyIn implements AutoCloseable {
+    static final int FLUSH_SIZE = 65536;
+
+    private static final byte[] HEADER = new byte[]{'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+
+    private final Connection con;
+    private final TypeHandler[] columnTypes;
+
+    // open CopyData message, null after a flush
+    private ProtocolMarker data;
+    private boolean headerSent = false;
+    private boolean done = false;
+    private long rows = 0;
+
+    CopyIn(Connection con, TypeHandler[] columnTypes) {
+        this.con = con;
+        this.columnTypes = columnTypes;
+    }
+
+    public long getRowsWritten() {
+        return rows;
+    }
+
+    public void writeRowWith(Object... values) throws IOException {
+        writeRow(Arrays.asList(values));
+    }
+
+    public void writeRow(List values) throws IOException {
+        if (done) {
+            throw new IllegalStateException("COPY already finished");
+        }
+        if (values.size() != columnTypes.length) {
+            throw new IllegalArgumentException(String.format("expected %d values, got %d", columnTypes.length, values.size()));
+        }
+
+        final ProtocolOutput output = con.output;
+
+        if (data == null) {
+            data = output.beginCopyData();
+            if (!headerSent) {
+                output.write(HEADER);
+                output.int32(0); // flags
+                output.int32(0); // header extension
+                headerSent = true;
+            }
+        }
+
+        final int size = output.size();
+
+        try {
+            output.int16((short) columnTypes.length);
+            for (int i = 0; i < columnTypes.length; i++) {
+                final Object value = values.get(i);
+                if (value == null) {
+                    output.int32(-1);
+                } else {
+                    final ProtocolMarker mark = output.beginExclusive();
+                    columnTypes[i].encodeBinary(con, output, value);
+                    mark.complete();
+                }
+            }
+        } catch (Exception e) {
+            output.truncate(size);
+            throw new IllegalArgumentException(String.format("Failed to encode COPY row: %s", values), e);
+        }
+
+        rows++;
+
+        if (output.size() >= FLUSH_SIZE) {
+            data.complete();
+            data = null;
+            output.flushAndReset();
+
+            checkFailed();
+        }
+    }
+
+    /**
+     * after an error the server ignores all CopyData, don't keep sending it
+     */
+    private void checkFailed() throws IOException {
+        final char type = con.input.pollNextCommand();
+        if (type != 0) {
+            done = true;
+            readResult(type);
+            throw new IllegalStateException(String.format("COPY ended unexpectedly: '%s'", type));
+        }
+    }
+
+    /**
+     * @return number of rows copied, as reported by the server
+     */
+    public long finish() throws IOException {
+        if (done) {
+            throw new IllegalStateException("COPY already finished");
+        }
+        done = true;
+
+        final ProtocolOutput output = con.output;
+
+        if (data == null) {
+            data = output.beginCopyData();
+        }
+        if (!headerSent) {
+            output.write(HEADER);
+            output.int32(0);
+            output.int32(0);
+        }
+        output.int16((short) -1); // trailer
+        data.complete();
+        data = null;
+
+        output.writeCopyDone();
+        output.flushAndReset();
+
+        final StatementResult result = readResult((char) 0);
+        // "COPY n"
+        return Long.parseLong(result.getTag().substring(result.getTag().indexOf(' ') + 1));
+    }
+
+    /**
+     * nothing is copied, the connection can be used again
+     */
+    public void abort(String reason) throws IOException {
+        if (done) {
+            return;
+        }
+        done = true;
+
+        final ProtocolOutput output = con.output;
+        if (data != null) {
+            data.complete();
+            data = null;
+        }
+        output.writeCopyFail(reason);
+        output.flushAndReset();
+
+        try {
+            readResult((char) 0);
+        } catch (CommandException e) {
+            // expected, the server confirms the CopyFail with an error
+        }
+    }
+
+    /**
+     * @param type first command if already read, 0 otherwise
+     */
+    private StatementResult readResult(char type) throws IOException {
+        StatementResult result = null;
+        Map<String, String> errorData = null;
+
+        RESULT_LOOP:
+        for (; ; type = 0) {
+            if (type == 0) {
+                type = con.input.readNextCommand();
+            }
+
+            switch (type) {
+                case 'C': { // CommandComplete
+                    result = new StatementResult(con.input.readString());
+                    break;
+                }
+                case 'E': {
+                    errorData = con.input.readMessages();
+                    break;
+                }
+                case 'Z': {
+                    con.input.readReadyForQuery();
+                    break RESULT_LOOP;
+                }
+                default: {
+                    throw new IllegalStateException(String.format("invalid protocol action while finishing COPY: '%s'", type));
+                }
+            }
+        }
+
+        if (errorData != null) {
+            throw new CommandException("COPY failed", errorData);
+        }
+
+        return result;
+    }
+
+    /**
+     * aborts unless finished
+     */
+    @Override
+    public void close() throws IOException {
+        abort("COPY closed without finish");
+    }
+}
@@ -3,17 +3,20 @@ package shadow.pgsql;
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
-import shadow.pgsql.utils.RowProcessor;
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Describes a remote Postgresql Database backend which you can
@@ -24,13 +27,20 @@ import java.util.Map;
  * @author Thomas Heller
  */
 public class Database {
-    final Map<Integer, String> oid2name = new HashMap<>();
-    private final Map<String, Integer> name2oid = new HashMap<>();
+    final Catalog catalog;
 
-    private final Map<ColumnByTableIndex, String> columnNames = new HashMap<>();
+    // registries compiled against the oids of this database
+    private final Map<TypeRegistry, TypeRegistry.Resolved> resolvedTypes = new ConcurrentHashMap<>();
 
     private final DatabaseConfig config;
 
+    // only used with DatabaseConfig.useSchemaSnapshot
+    private ScheduledExecutorService schemaExecutor;
+    // server state the catalog content was validated against
+    private String schemaFingerprint;
+    private long savedModifications = -1;
+    private final Counter schemaSnapshotErrors;
+
     final MetricRegistry metricRegistry;
     final Timer connectTimer;
     final Counter preparedCounter;
@@ -50,11 +60,13 @@ public class Database {
         this.config = config;
         this.metricRegistry = config.getMetricRegistry();
         this.metricCollector = config.metricCollector;
+        this.catalog = new Catalog(this, config.fetchSchema, config.catalogCacheSize);
 
         this.connectTimer = metricRegistry.timer(MetricRegistry.name("shadow-pgsql", "connect"));
         this.preparedCounter = metricRegistry.counter(MetricRegistry.name("shadow-pgsql", "prepared"));
         this.unnamedPrepareTimer = metricRegistry.timer(MetricRegistry.name("shadow-pgsql", "query", "unnamed", "prepare"));
         this.unnamedExecuteTimer = metricRegistry.timer(MetricRegistry.name("shadow-pgsql", "query", "unnamed", "execute"));
+        this.schemaSnapshotErrors = metricRegistry.counter(MetricRegistry.name("shadow-pgsql", "schema", "snapshot", "errors"));
     }
 
     public static Database setup(String host, int port, String user, String databaseName) throws IOException {
@@ -79,6 +91,7 @@ public class Database {
         if (config.ssl) {
             SocketChannel channel = SocketChannel.open(new InetSocketAddress(config.host, config.port));
             channel.configureBlocking(true);
+            channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
 
             // http://www.postgresql.org/docs/9.0/static/protocol-flow.html#AEN84692
 
@@ -106,6 +119,7 @@ public class Database {
         } else {
             SocketChannel channel = SocketChannel.open(new InetSocketAddress(config.host, config.port));
             channel.configureBlocking(true);
+            channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
             io = new SocketIO(channel);
 
             //io = new StreamIO(new Socket(config.host, config.port));
@@ -119,119 +133,218 @@ public class Database {
         return pg;
     }
 
-    void fetchSchemaInfo() throws IOException {
-        // fetch schema related things
-        try (Connection con = connect()) {
+    /**
+     * sends a CancelRequest on a new connection, returns once the server has handled it (closed the connection)
+     */
+    void cancel(int processId, int secretKey) throws IOException {
+        // http://www.postgresql.org/docs/9.3/static/protocol-flow.html#AEN99872
+        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(config.host, config.port))) {
+            channel.configureBlocking(true);
 
-            SQL pg_types = SQL.query("SELECT oid, typname FROM pg_type")
-                    .withName("schema.types")
-                    .buildRowsWith(Helpers.ROW_AS_LIST)
-                    .buildResultsWith(
-                            new RowProcessor<List>() {
-                                @Override
-                                public void process(List row) {
-                                    int oid = (int) row.get(0);
-                                    String name = (String) row.get(1);
-                                    oid2name.put(oid, name);
-                                    name2oid.put(name, oid);
-                                }
-                            })
-                    .create();
-
-            int results = (int) con.queryWith(pg_types);
-
-            if (results == 0) {
-                throw new IllegalStateException("no types?");
+            final ByteBuffer buf = ByteBuffer.allocate(16);
+            buf.putInt(16);
+            buf.putInt(80877102);
+            buf.putInt(processId);
+            buf.putInt(secretKey);
+            buf.flip();
+
+            while (buf.hasRemaining()) {
+                channel.write(buf);
             }
 
-            SQL schema = SQL.query("SELECT" +
-                    "  a.attname," + // column name
-                    "  a.attnum," + // column index
-                    "  b.oid," + // table oid
-                    "  b.relname" + // table name
-                    " FROM pg_class b" +
-                    " JOIN pg_attribute a" +
-                    " ON a.attrelid = b.oid" +
-                    " WHERE b.relkind = 'r'" +
-                    " AND a.attnum > 0" +
-                    " AND b.relname NOT LIKE 'pg_%'" +
-                    " AND b.relname NOT LIKE 'sql_%'")
-                    .withName("schema.names")
-                    .buildRowsWith(Helpers.ROW_AS_LIST)
-                    .buildResultsWith(
-                            new RowProcessor<List>() {
-                                @Override
-                                public void process(List row) {
-                                    String colName = (String) row.get(0);
-                                    short colIndex = (short) row.get(1);
-                                    int tableOid = (int) row.get(2);
-                                    String tableName = (String) row.get(3);
-
-                                    columnNames.put(new ColumnByTableIndex(tableName, colIndex), colName);
-
-                                    if (!oid2name.containsKey(tableOid)) {
-                                        oid2name.put(tableOid, tableName);
-                                    }
-                                }
-                            })
-                    .create();
-
-            con.queryWith(schema);
+            // server sends nothing and closes when done
+            buf.clear();
+            while (channel.read(buf) != -1) {
+                buf.clear();
+            }
         }
     }
 
-    public String getNameForColumn(String tableName, int positionInTable) {
-        return this.columnNames.get(new ColumnByTableIndex(tableName, positionInTable));
+    public Catalog getCatalog() {
+        return catalog;
     }
 
-    public String getNameForOid(int oid) {
-        return this.oid2name.get(oid);
+    /**
+     * forget everything known about the schema, call after DDL (eg. new types or extensions).
+     * <p/>
+     * safe to call while queries are running, names are looked up again when needed.
+     * DatabaseConfig.useSchemaNotifications does this automatically.
+     */
+    public void refreshSchema() {
+        catalog.refresh();
     }
 
-    public int getOidForName(String typeName) {
-        Integer i = this.name2oid.get(typeName);
-        if (i == null) {
-            throw new IllegalArgumentException(String.format("unknown type: %s", typeName));
+    // refreshes after every DDL command, see Catalog.eventTriggerSQL
+    void startSchemaListener() {
+        final Counter errors = metricRegistry.counter(MetricRegistry.name("shadow-pgsql", "schema", "listener", "errors"));
+        new ChannelListener(this, config.schemaChannel, "shadow-pgsql-schema-listener", payload -> refreshSchema(), this::refreshSchema, errors).start();
+    }
+
+    /**
+     * restores the catalog from the snapshot file (if any) and starts the background thread that
+     * validates it and saves it periodically
+     */
+    void startSchemaSnapshot() {
+        SchemaSnapshot snapshot = null;
+        try {
+            snapshot = SchemaSnapshot.read(config.schemaSnapshot);
+        } catch (IOException e) {
+            // unreadable, start empty and overwrite it later
+            schemaSnapshotErrors.inc();
         }
 
-        return i;
+        if (snapshot != null) {
+            catalog.restore(snapshot);
+        }
+
+        final String loadedFingerprint = snapshot != null ? snapshot.fingerprint : null;
+        final long loadedModifications = catalog.getModificationCount();
+
+        schemaExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread t = new Thread(r, "shadow-pgsql-schema");
+            t.setDaemon(true);
+            return t;
+        });
+
+        schemaExecutor.execute(() -> {
+            try {
+                validateSchemaSnapshot(loadedFingerprint, loadedModifications);
+            } catch (Exception e) {
+                schemaSnapshotErrors.inc();
+            }
+        });
+
+        schemaExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                if (catalog.getModificationCount() != savedModifications) {
+                    writeSchemaSnapshot();
+                }
+            } catch (Exception e) {
+                schemaSnapshotErrors.inc();
+            }
+        }, config.schemaSnapshotInterval, config.schemaSnapshotInterval, TimeUnit.MILLISECONDS);
     }
 
-    private static class ColumnByTableIndex {
-        final String table;
-        final int index;
+    private synchronized void validateSchemaSnapshot(String loadedFingerprint, long loadedModifications) throws IOException {
+        final String fingerprint;
+        try (Connection con = connect()) {
+            fingerprint = SchemaSnapshot.fetchFingerprint(con);
+        }
 
-        private ColumnByTableIndex(String table, int index) {
-            this.table = table;
-            this.index = index;
+        if (loadedFingerprint == null) {
+            schemaFingerprint = fingerprint;
+        } else if (loadedFingerprint.equals(fingerprint)) {
+            schemaFingerprint = fingerprint;
+            // nothing new unless something was looked up meanwhile
+            savedModifications = loadedModifications;
+        } else {
+            // schema changed since the snapshot was written, forget it
+            catalog.refresh();
+            schemaFingerprint = fingerprint;
         }
+    }
 
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
+    private synchronized void writeSchemaSnapshot() throws IOException {
+        final long modifications = catalog.getModificationCount();
 
-            ColumnByTableIndex columnByTableIndex = (ColumnByTableIndex) o;
+        final String fingerprint;
+        try (Connection con = connect()) {
+            fingerprint = SchemaSnapshot.fetchFingerprint(con);
+        }
 
-            if (index != columnByTableIndex.index) return false;
-            if (!table.equals(columnByTableIndex.table)) return false;
+        if (!fingerprint.equals(schemaFingerprint)) {
+            schemaFingerprint = fingerprint;
 
-            return true;
+            if (SchemaSnapshot.tracksDDL(fingerprint)) {
+                // DDL since the catalog was validated, can't tell which entries are still good
+                catalog.refresh();
+                return;
+            }
+            // the catalog stats also move without DDL, not worth dropping everything over
         }
 
-        @Override
-        public int hashCode() {
-            int result = table.hashCode();
-            result = 31 * result + index;
-            return result;
+        catalog.snapshot(fingerprint).write(config.schemaSnapshot);
+        savedModifications = modifications;
+    }
+
+    /**
+     * writes what the catalog currently knows to the file configured via DatabaseConfig.useSchemaSnapshot,
+     * eg. before shutting down. skipped if the schema changed since the catalog was validated.
+     */
+    public void saveSchemaSnapshot() throws IOException {
+        if (config.schemaSnapshot == null) {
+            throw new IllegalStateException("no schema snapshot configured");
+        }
+
+        writeSchemaSnapshot();
+    }
+
+    /**
+     * catalog info for a type, fetched via a separate connection since this is usually
+     * called while reading a RowDescription and the current connection is busy
+     *
+     * @param oid
+     * @return
+     * @throws IOException
+     */
+    public TypeInfo getTypeInfo(int oid) throws IOException {
+        return catalog.getTypeInfo(oid);
+    }
+
+    /**
+     * handlers built from catalog info depend on the registry they were built for,
+     * the result is cached in the Resolved registry
+     */
+    TypeHandler getCatalogTypeHandler(TypeRegistry registry, int oid) {
+        final TypeInfo info;
+        try {
+            info = getTypeInfo(oid);
+        } catch (IOException e) {
+            throw new UncheckedIOException(String.format("failed to fetch type info for oid: %d", oid), e);
+        }
+
+        return registry.createCatalogTypeHandler(this, info);
+    }
+
+    TypeRegistry.Resolved getResolvedTypes(TypeRegistry registry) {
+        TypeRegistry.Resolved resolved = resolvedTypes.get(registry);
+        if (resolved == null) {
+            // not computeIfAbsent, resolving may query the catalog
+            resolved = new TypeRegistry.Resolved(registry, this);
+
+            final TypeRegistry.Resolved existing = resolvedTypes.putIfAbsent(registry, resolved);
+            if (existing != null) {
+                resolved = existing;
+            }
         }
+        return resolved;
+    }
 
-        @Override
-        public String toString() {
-            return "ColumnKey{" +
-                    "table='" + table + '\'' +
-                    ", index=" + index +
-                    '}';
+    /**
+     * resolved registries captured oids that may no longer be valid
+     */
+    void dropResolvedTypes() {
+        for (TypeRegistry.Resolved resolved : resolvedTypes.values()) {
+            resolved.stale = true;
         }
+        resolvedTypes.clear();
+    }
+
+    public String getNameForColumn(String tableName, int positionInTable) {
+        final Catalog.Table table = catalog.getTable(tableName);
+        return table != null ? table.getColumnName(positionInTable) : null;
+    }
+
+    public String getNameForOid(int oid) {
+        return catalog.getNameForOid(oid);
+    }
+
+    public int getOidForName(String typeName) {
+        final int oid = catalog.getTypeOid(typeName);
+        if (oid == -1) {
+            throw new IllegalArgumentException(String.format("unknown type: %s", typeName));
+        }
+
+        return oid;
     }
 }
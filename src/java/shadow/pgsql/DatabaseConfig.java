@@ -4,6 +4,7 @@ import com.codahale.metrics.MetricRegistry;
 
 import javax.net.ssl.SSLContext;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -20,6 +21,10 @@ public class DatabaseConfig {
     boolean ssl = false;
     SSLContext sslContext = null;
     boolean fetchSchema = true;
+    int catalogCacheSize = 10000;
+    Path schemaSnapshot = null;
+    long schemaSnapshotInterval = 60000;
+    String schemaChannel = null;
 
     MetricRegistry metricRegistry = new MetricRegistry();
     MetricCollector metricCollector = new VoidCollector();
@@ -94,6 +99,53 @@ public class DatabaseConfig {
         }
     }
 
+    /**
+     * max entries per catalog cache (types, tables, ...), the catalog is looked up lazily
+     */
+    public DatabaseConfig setCatalogCacheSize(int catalogCacheSize) {
+        if (catalogCacheSize < 1) {
+            throw new IllegalArgumentException("catalogCacheSize must be positive");
+        }
+        this.catalogCacheSize = catalogCacheSize;
+        return this;
+    }
+
+    /**
+     * keep what the catalog learned in file, so the next start does not have to look it up again
+     * <p/>
+     * the snapshot is used right away and checked against the server in the background,
+     * if the schema changed since it was written the catalog starts over. saved every
+     * intervalMillis if something new was looked up, or via Database.saveSchemaSnapshot.
+     * <p/>
+     * schema changes are detected via the counter of Catalog.eventTriggerSQL. without it only the
+     * catalog stats are left, those also move without DDL so the snapshot is rarely used on a busy server.
+     */
+    public DatabaseConfig useSchemaSnapshot(Path file, long intervalMillis) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("intervalMillis must be positive");
+        }
+        this.schemaSnapshot = file;
+        this.schemaSnapshotInterval = intervalMillis;
+        return this;
+    }
+
+    public DatabaseConfig useSchemaSnapshot(Path file) {
+        return useSchemaSnapshot(file, schemaSnapshotInterval);
+    }
+
+    /**
+     * LISTEN on channel and refresh the schema whenever a notification arrives there,
+     * see Catalog.eventTriggerSQL for a trigger that notifies after DDL
+     */
+    public DatabaseConfig useSchemaNotifications(String channel) {
+        Catalog.checkChannel(channel);
+        this.schemaChannel = channel;
+        return this;
+    }
+
+    /**
+     * disables catalog name lookups, named types (eg. hstore) and column handlers will not work
+     */
     public DatabaseConfig noSchema() {
         this.fetchSchema = false;
         return this;
@@ -117,8 +169,12 @@ public class DatabaseConfig {
     public Database get() throws IOException {
         Database db = new Database(this);
 
-        if (fetchSchema) {
-            db.fetchSchemaInfo();
+        if (fetchSchema && schemaSnapshot != null) {
+            db.startSchemaSnapshot();
+        }
+
+        if (fetchSchema && schemaChannel != null) {
+            db.startSchemaListener();
         }
 
         return db;
@@ -1,62 +1,137 @@
 package shadow.pgsql;
 
-import org.apache.commons.pool2.PooledObject;
-import org.apache.commons.pool2.PooledObjectFactory;
-import org.apache.commons.pool2.impl.DefaultPooledObject;
-import org.apache.commons.pool2.impl.GenericObjectPool;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 /**
- * Created by zilence on 15.08.14.
+ * Connection pool
+ * <p/>
+ * Borrowing first tries the connections this thread used last (thread local, no contention),
+ * then scans all connections and claims an idle one via CAS. If none is idle the thread waits
+ * for a connection handed over directly by a returning thread or by the background creator.
+ * <p/>
+ * New connections are opened in the background (up to maxTotal), at most maxConnecting at a time.
+ * Failed attempts back off (jittered, up to 10s) so a restarting server is not hit by every
+ * waiting thread at once. The last failure is the cause of the timeout exception.
+ * <p/>
+ * warmUp opens minIdle connections in parallel before the first request needs them,
+ * minIdle is kept up when connections are removed.
+ * <p/>
+ * A housekeeper thread checks all connections periodically (off the request path):
+ * <ul>
+ * <li>connections older than maxLifetime are retired, each one a little earlier than the last so they don't all go at once</li>
+ * <li>connections idle longer than idleTimeout are closed, as long as minIdle remain</li>
+ * <li>connections idle longer than keepalive are pinged, dead ones are closed before anyone borrows them</li>
+ * <li>connections borrowed longer than leakDetectionThreshold are reported, with the borrowing stack for a sample of them</li>
+ * </ul>
+ * Leaks and housekeeping failures are counted in the metric registry and passed to the PoolEventHandler.
+ * <p/>
+ * SQL registered via prepare is prepared on every new connection in one roundtrip,
+ * the returned PreparedHandle finds it on whichever connection is borrowed.
+ * <p/>
+ * Connections are only returned if they are idle (no transaction, no open statements),
+ * everything else is closed.
+ *
+ * @author Thomas Heller
  */
-
-public class DatabasePool extends GenericObjectPool<Connection> {
+public class DatabasePool implements AutoCloseable {
     private static final AtomicInteger poolSeq = new AtomicInteger(0);
 
+    // how many recently used connections a thread remembers
+    private static final int THREAD_LIST_SIZE = 16;
+    // waiters wake up this often to check if they need to request another connection
+    private static final long WAIT_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    // how often release tries to hand a connection to a blocked waiter before leaving it idle
+    private static final int HANDOFF_SPINS = 64;
+
+    private static final long MIN_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long MAX_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    // retirement is spread over the last 1/LIFETIME_SPREAD of maxLifetime
+    private static final int LIFETIME_SPREAD = 16;
+
     private final Database database;
     private final int poolId;
 
-    public DatabasePool(Database database) {
-        super(new PooledObjectFactory<Connection>() {
-            @Override
-            public PooledObject<Connection> makeObject() throws Exception {
-                return new DefaultPooledObject<>(database.connect());
-            }
+    private final CopyOnWriteArrayList<PoolEntry> entries = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<List<PoolEntry>> threadList = ThreadLocal.withInitial(() -> new ArrayList<>(THREAD_LIST_SIZE));
+    private final SynchronousQueue<PoolEntry> handoff = new SynchronousQueue<>(true);
+    private final AtomicInteger waiters = new AtomicInteger();
+    // waiters actually blocked in handoff.poll, not scanning or connecting
+    private final AtomicInteger blocked = new AtomicInteger();
+    // includes connections currently being opened
+    private final AtomicInteger totalCount = new AtomicInteger();
+    // connections requested from the creator but not yet open
+    private final AtomicInteger pendingCount = new AtomicInteger();
 
-            @Override
-            public void destroyObject(PooledObject<Connection> po) throws Exception {
-                po.getObject().close();
-            }
+    private final ThreadPoolExecutor creator;
+    // shared by all creator threads
+    private volatile long backoffNanos = 0;
+    private volatile long nextAttemptAt = System.nanoTime();
+    private volatile Exception lastCreateError;
 
-            @Override
-            public boolean validateObject(PooledObject<Connection> po) {
-                Connection con = po.getObject();
+    private final ScheduledThreadPoolExecutor housekeeper;
+    private ScheduledFuture<?> housekeeping;
+    private final Counter leakCounter;
+    private final Counter housekeepingErrors;
+    private volatile PoolEventHandler eventHandler = PoolEventHandler.NOOP;
+    // System.nanoTime as of the last housekeeping run, precise enough for idle and lifetime checks
+    // and cheaper than asking the clock on every return
+    private volatile long coarseNow = System.nanoTime();
 
-                // FIXME: any way to set an error message?
-                if (con.openStatements > 0) {
-                    return false;
-                } else if (con.txState != TransactionStatus.IDLE) {
-                    return false;
-                }
+    // pinned on every new connection, index is the PreparedHandle index
+    private final List<PreparedHandle> handles = new ArrayList<>();
+    private volatile SQL[] pinnedSQL = new SQL[0];
 
-                con.checkReady();
-                return true;
-            }
+    private volatile boolean closed = false;
 
-            @Override
-            public void activateObject(PooledObject<Connection> po) throws Exception {
-            }
+    private volatile int minIdle;
+    private volatile int maxIdle;
+    private volatile int maxTotal;
+    private volatile long maxWaitMillis;
+    private volatile boolean blockWhenExhausted;
+    private volatile int maxConnecting;
 
-            @Override
-            public void passivateObject(PooledObject<Connection> po) throws Exception {
-            }
-        });
+    private volatile long maxLifetimeMillis;
+    private volatile long idleTimeoutMillis;
+    private volatile long keepaliveMillis;
+    private volatile long validationTimeoutMillis;
+    private volatile long leakDetectionThresholdMillis;
+    private volatile int leakStackSampling;
+    private long housekeepingPeriodMillis;
 
+    public DatabasePool(Database database) {
         this.poolId = poolSeq.incrementAndGet();
         this.database = database;
 
+        final AtomicInteger threadSeq = new AtomicInteger();
+        this.creator = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            final Thread t = new Thread(r, String.format("shadow-pgsql-pool-%d-creator-%d", poolId, threadSeq.incrementAndGet()));
+            t.setDaemon(true);
+            return t;
+        });
+        this.creator.allowCoreThreadTimeOut(true);
+
+        // one thread sweeps, the other times out pings to dead servers
+        this.housekeeper = new ScheduledThreadPoolExecutor(2, r -> {
+            final Thread t = new Thread(r, String.format("shadow-pgsql-pool-%d-housekeeper", poolId));
+            t.setDaemon(true);
+            return t;
+        });
+        this.housekeeper.setRemoveOnCancelPolicy(true);
+
+        this.leakCounter = database.metricRegistry.counter(MetricRegistry.name("shadow-pgsql", "pool", "leaks"));
+        this.housekeepingErrors = database.metricRegistry.counter(MetricRegistry.name("shadow-pgsql", "pool", "housekeeping", "errors"));
+
         this.setDefaultOpts();
     }
 
@@ -66,6 +141,14 @@ public class DatabasePool extends GenericObjectPool<Connection> {
         this.setMaxTotal(25);
         this.setMaxWaitMillis(1000);
         this.setBlockWhenExhausted(true);
+        this.setMaxConnecting(4);
+        this.setMaxLifetimeMillis(TimeUnit.MINUTES.toMillis(30));
+        this.setIdleTimeoutMillis(TimeUnit.MINUTES.toMillis(10));
+        this.setKeepaliveMillis(TimeUnit.MINUTES.toMillis(2));
+        this.setValidationTimeoutMillis(5000);
+        this.setLeakDetectionThresholdMillis(0);
+        this.setLeakStackSampling(16);
+        this.setHousekeepingPeriodMillis(5000);
     }
 
     public int getPoolId() {
@@ -76,16 +159,693 @@ public class DatabasePool extends GenericObjectPool<Connection> {
         return database;
     }
 
-    public void doneWithConnection(Connection con) {
-        if (con.isReady()) {
-            returnObject(con);
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    public void setMinIdle(int minIdle) {
+        this.minIdle = minIdle;
+    }
+
+    public int getMaxIdle() {
+        return maxIdle;
+    }
+
+    public void setMaxIdle(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    public void setMaxTotal(int maxTotal) {
+        if (maxTotal < 1) {
+            throw new IllegalArgumentException("maxTotal must be positive");
+        }
+        this.maxTotal = maxTotal;
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    /**
+     * @param maxWaitMillis negative waits forever
+     */
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public boolean getBlockWhenExhausted() {
+        return blockWhenExhausted;
+    }
+
+    public void setBlockWhenExhausted(boolean blockWhenExhausted) {
+        this.blockWhenExhausted = blockWhenExhausted;
+    }
+
+    public int getMaxConnecting() {
+        return maxConnecting;
+    }
+
+    /**
+     * max connection attempts in flight at the same time
+     */
+    public synchronized void setMaxConnecting(int maxConnecting) {
+        if (maxConnecting < 1) {
+            throw new IllegalArgumentException("maxConnecting must be positive");
+        }
+
+        if (maxConnecting > creator.getMaximumPoolSize()) {
+            creator.setMaximumPoolSize(maxConnecting);
+            creator.setCorePoolSize(maxConnecting);
         } else {
+            creator.setCorePoolSize(maxConnecting);
+            creator.setMaximumPoolSize(maxConnecting);
+        }
+
+        this.maxConnecting = maxConnecting;
+    }
+
+    public long getMaxLifetimeMillis() {
+        return maxLifetimeMillis;
+    }
+
+    /**
+     * @param maxLifetimeMillis 0 keeps connections forever, only applies to connections opened afterwards
+     */
+    public void setMaxLifetimeMillis(long maxLifetimeMillis) {
+        if (maxLifetimeMillis < 0) {
+            throw new IllegalArgumentException("maxLifetimeMillis must not be negative");
+        }
+        this.maxLifetimeMillis = maxLifetimeMillis;
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    /**
+     * @param idleTimeoutMillis 0 never closes idle connections
+     */
+    public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+        if (idleTimeoutMillis < 0) {
+            throw new IllegalArgumentException("idleTimeoutMillis must not be negative");
+        }
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    public long getKeepaliveMillis() {
+        return keepaliveMillis;
+    }
+
+    /**
+     * @param keepaliveMillis 0 never pings idle connections
+     */
+    public void setKeepaliveMillis(long keepaliveMillis) {
+        if (keepaliveMillis < 0) {
+            throw new IllegalArgumentException("keepaliveMillis must not be negative");
+        }
+        this.keepaliveMillis = keepaliveMillis;
+    }
+
+    public long getValidationTimeoutMillis() {
+        return validationTimeoutMillis;
+    }
+
+    /**
+     * a keepalive ping taking longer than this closes the connection
+     */
+    public void setValidationTimeoutMillis(long validationTimeoutMillis) {
+        if (validationTimeoutMillis < 1) {
+            throw new IllegalArgumentException("validationTimeoutMillis must be positive");
+        }
+        this.validationTimeoutMillis = validationTimeoutMillis;
+    }
+
+    public long getLeakDetectionThresholdMillis() {
+        return leakDetectionThresholdMillis;
+    }
+
+    /**
+     * @param leakDetectionThresholdMillis 0 disables leak detection
+     */
+    public void setLeakDetectionThresholdMillis(long leakDetectionThresholdMillis) {
+        if (leakDetectionThresholdMillis < 0) {
+            throw new IllegalArgumentException("leakDetectionThresholdMillis must not be negative");
+        }
+        this.leakDetectionThresholdMillis = leakDetectionThresholdMillis;
+    }
+
+    public int getLeakStackSampling() {
+        return leakStackSampling;
+    }
+
+    /**
+     * capturing the stack is expensive, only every n-th borrow (on average) does it
+     *
+     * @param leakStackSampling 1 captures every borrow
+     */
+    public void setLeakStackSampling(int leakStackSampling) {
+        if (leakStackSampling < 1) {
+            throw new IllegalArgumentException("leakStackSampling must be positive");
+        }
+        this.leakStackSampling = leakStackSampling;
+    }
+
+    public PoolEventHandler getEventHandler() {
+        return eventHandler;
+    }
+
+    public void setEventHandler(PoolEventHandler eventHandler) {
+        if (eventHandler == null) {
+            throw new IllegalArgumentException("eventHandler cannot be null, use PoolEventHandler.NOOP");
+        }
+        this.eventHandler = eventHandler;
+    }
+
+    public synchronized long getHousekeepingPeriodMillis() {
+        return housekeepingPeriodMillis;
+    }
+
+    public synchronized void setHousekeepingPeriodMillis(long housekeepingPeriodMillis) {
+        if (housekeepingPeriodMillis < 1) {
+            throw new IllegalArgumentException("housekeepingPeriodMillis must be positive");
+        }
+
+        if (housekeeping != null) {
+            housekeeping.cancel(false);
+        }
+
+        this.housekeepingPeriodMillis = housekeepingPeriodMillis;
+
+        if (!closed) {
+            this.housekeeping = housekeeper.scheduleWithFixedDelay(this::housekeep, housekeepingPeriodMillis, housekeepingPeriodMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public int getNumActive() {
+        int active = 0;
+        for (PoolEntry entry : entries) {
+            if (entry.getState() == PoolEntry.STATE_IN_USE) {
+                active++;
+            }
+        }
+        return active;
+    }
+
+    public int getNumIdle() {
+        int idle = 0;
+        for (PoolEntry entry : entries) {
+            if (entry.getState() == PoolEntry.STATE_IDLE) {
+                idle++;
+            }
+        }
+        return idle;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Pool not open");
+        }
+    }
+
+    /**
+     * prepare sql on every connection, connections opened from now on prepare it while connecting
+     * <p/>
+     * meant for a fixed set of frequently used statements, register them before warmUp
+     */
+    public synchronized PreparedHandle prepare(SQL sql) {
+        for (PreparedHandle handle : handles) {
+            if (handle.getSQL() == sql) {
+                return handle;
+            }
+        }
+
+        final PreparedHandle handle = new PreparedHandle(this, sql, handles.size());
+        handles.add(handle);
+
+        final SQL[] sqls = Arrays.copyOf(pinnedSQL, handles.size());
+        sqls[handle.getIndex()] = sql;
+        pinnedSQL = sqls;
+
+        return handle;
+    }
+
+    private Connection connect() throws IOException {
+        final Connection con = database.connect();
+
+        final SQL[] sqls = pinnedSQL;
+        if (sqls.length > 0) {
             try {
-                invalidateObject(con);
-            } catch (Exception e) {
+                con.prepareAndPin(sqls);
+            } catch (CommandException e) {
+                // one broken statement should not keep the pool from connecting, handles prepare on first use
                 // FIXME: logger?
-                System.out.format("Exception while invalidating Pool Object: %s\n", e);
+                System.out.format("Pool %d: Failed to prepare statements on connect: %s\n", poolId, e);
+            } catch (IOException | RuntimeException e) {
+                con.abort();
+                throw e;
+            }
+        }
+
+        return con;
+    }
+
+    private boolean reserveSlot() {
+        while (true) {
+            final int total = totalCount.get();
+            if (total >= maxTotal) {
+                return false;
+            }
+            if (totalCount.compareAndSet(total, total + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * adds a connection for a reserved slot, it starts out IN_USE
+     *
+     * @return false if the pool was closed meanwhile
+     */
+    private boolean register(PoolEntry entry) {
+        final long lifetime = TimeUnit.MILLISECONDS.toNanos(maxLifetimeMillis);
+        if (lifetime > 0) {
+            entry.retireAt = entry.createdAt + lifetime - ThreadLocalRandom.current().nextLong(lifetime / LIFETIME_SPREAD + 1);
+        }
+
+        entry.con.poolEntry = entry;
+        entries.add(entry);
+
+        if (closed) {
+            remove(entry);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * opens a new connection on the calling thread if below maxTotal, only used when not blocking
+     *
+     * @return null if the pool is full
+     */
+    private PoolEntry createNow() throws IOException {
+        if (!reserveSlot()) {
+            return null;
+        }
+
+        final PoolEntry entry;
+        try {
+            entry = new PoolEntry(connect());
+        } catch (IOException | RuntimeException e) {
+            totalCount.decrementAndGet();
+            throw e;
+        }
+
+        if (!register(entry)) {
+            checkOpen();
+        }
+
+        return entry;
+    }
+
+    /**
+     * asks the creator for one more connection if below maxTotal
+     */
+    private boolean requestConnection() {
+        if (closed || !reserveSlot()) {
+            return false;
+        }
+
+        pendingCount.incrementAndGet();
+        try {
+            creator.execute(this::createInBackground);
+        } catch (RejectedExecutionException e) {
+            pendingCount.decrementAndGet();
+            totalCount.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private boolean isBelowMinIdle() {
+        return getNumIdle() < Math.min(minIdle, maxTotal);
+    }
+
+    private void fillMinIdle() {
+        int missing = Math.min(minIdle, maxTotal) - getNumIdle() - pendingCount.get();
+        while (missing-- > 0 && requestConnection()) {
+        }
+    }
+
+    private void createInBackground() {
+        boolean registered = false;
+        try {
+            while (!closed) {
+                final long wait = nextAttemptAt - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                    continue;
+                }
+
+                final Connection con;
+                try {
+                    con = connect();
+                } catch (Exception e) {
+                    lastCreateError = e;
+
+                    final long backoff = Math.min(MAX_BACKOFF_NANOS, Math.max(MIN_BACKOFF_NANOS, backoffNanos * 2));
+                    backoffNanos = backoff;
+                    nextAttemptAt = System.nanoTime() + ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1);
+
+                    if (waiters.get() == 0 && !isBelowMinIdle()) {
+                        // nobody needs it anymore
+                        return;
+                    }
+                    continue;
+                }
+
+                backoffNanos = 0;
+                lastCreateError = null;
+
+                final PoolEntry entry = new PoolEntry(con);
+                registered = true;
+                if (register(entry)) {
+                    release(entry, coarseNow);
+                }
+                return;
+            }
+        } finally {
+            pendingCount.decrementAndGet();
+            if (!registered) {
+                totalCount.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * opens minIdle connections, maxConnecting at a time, and waits until they are open
+     *
+     * @return false if they could not be opened in time
+     */
+    public boolean warmUp(long timeoutMillis) throws InterruptedException {
+        checkOpen();
+
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        final int target = Math.min(minIdle, maxTotal);
+
+        while (totalCount.get() - pendingCount.get() < target) {
+            if (pendingCount.get() == 0) {
+                fillMinIdle();
+            }
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            checkOpen();
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    public Connection borrowObject() throws Exception {
+        return borrowObject(maxWaitMillis);
+    }
+
+    public Connection borrowObject(long maxWaitMillis) throws Exception {
+        checkOpen();
+
+        // connections this thread used last, most recent first
+        final List<PoolEntry> recent = threadList.get();
+        for (int i = recent.size() - 1; i >= 0; i--) {
+            final PoolEntry entry = recent.remove(i);
+            if (entry.compareAndSet(PoolEntry.STATE_IDLE, PoolEntry.STATE_IN_USE)) {
+                return claimed(entry);
+            }
+        }
+
+        waiters.incrementAndGet();
+        try {
+            final PoolEntry idle = claimIdle();
+            if (idle != null) {
+                return claimed(idle);
+            }
+
+            if (!blockWhenExhausted) {
+                final PoolEntry created = createNow();
+                if (created == null) {
+                    throw new NoSuchElementException("Pool exhausted");
+                }
+                return claimed(created);
+            }
+
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+
+            while (true) {
+                // one pending connection per waiter, a returned connection may beat it
+                if (pendingCount.get() < waiters.get()) {
+                    requestConnection();
+                }
+
+                long wait = WAIT_SLICE_NANOS;
+                if (maxWaitMillis >= 0) {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        final NoSuchElementException ex = new NoSuchElementException("Timeout waiting for idle object");
+                        final Exception cause = lastCreateError;
+                        if (cause != null) {
+                            ex.initCause(cause);
+                        }
+                        throw ex;
+                    }
+                    wait = Math.min(remaining, WAIT_SLICE_NANOS);
+                }
+
+                final PoolEntry entry;
+                blocked.incrementAndGet();
+                try {
+                    entry = handoff.poll(wait, TimeUnit.NANOSECONDS);
+                } finally {
+                    blocked.decrementAndGet();
+                }
+
+                if (entry != null && entry.compareAndSet(PoolEntry.STATE_IDLE, PoolEntry.STATE_IN_USE)) {
+                    return claimed(entry);
+                }
+
+                // release only spins briefly, a connection it could not hand off is left idle
+                final PoolEntry released = claimIdle();
+                if (released != null) {
+                    return claimed(released);
+                }
+
+                checkOpen();
+            }
+        } finally {
+            waiters.decrementAndGet();
+        }
+    }
+
+    private PoolEntry claimIdle() {
+        for (PoolEntry entry : entries) {
+            if (entry.compareAndSet(PoolEntry.STATE_IDLE, PoolEntry.STATE_IN_USE)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private Connection claimed(PoolEntry entry) {
+        if (leakDetectionThresholdMillis > 0) {
+            final int sampling = leakStackSampling;
+            entry.borrowStack = (sampling == 1 || ThreadLocalRandom.current().nextInt(sampling) == 0) ? new Throwable("Connection borrowed here") : null;
+            entry.leakReported = false;
+            entry.borrowedAt = System.nanoTime();
+        }
+        return entry.con;
+    }
+
+    private static PoolEntry entryOf(Connection con) {
+        final PoolEntry entry = con.poolEntry;
+        if (entry == null) {
+            throw new IllegalArgumentException("Connection does not belong to a pool");
+        }
+        return entry;
+    }
+
+    public void returnObject(Connection con) {
+        final PoolEntry entry = entryOf(con);
+        if (entry.borrowedAt != 0) {
+            entry.borrowedAt = 0;
+        }
+
+        final long now = coarseNow;
+        if (closed || entry.isRetired(now) || (maxIdle < maxTotal && getNumIdle() >= maxIdle)) {
+            remove(entry);
+            return;
+        }
+
+        if (!release(entry, now)) {
+            final List<PoolEntry> recent = threadList.get();
+            if (recent.size() < THREAD_LIST_SIZE) {
+                recent.add(entry);
+            }
+        }
+    }
+
+    /**
+     * marks entry IDLE and hands it to a waiting thread if there is one
+     *
+     * @return true if another thread took it
+     */
+    private boolean release(PoolEntry entry, long now) {
+        entry.lastUsedAt = now;
+
+        if (!entry.compareAndSet(PoolEntry.STATE_IN_USE, PoolEntry.STATE_IDLE)) {
+            throw new IllegalStateException("Connection is not borrowed from this pool");
+        }
+
+        // offer only succeeds while a waiter is in poll, the spin covers a waiter just about to enter it
+        for (int i = 0; i < HANDOFF_SPINS && blocked.get() > 0; i++) {
+            if (entry.getState() != PoolEntry.STATE_IDLE || handoff.offer(entry)) {
+                return true;
             }
+            Thread.yield();
+        }
+        return false;
+    }
+
+    public void invalidateObject(Connection con) {
+        remove(entryOf(con));
+    }
+
+    private void remove(PoolEntry entry) {
+        final int state = entry.getState();
+        if (state == PoolEntry.STATE_REMOVED || !entry.compareAndSet(state, PoolEntry.STATE_REMOVED)) {
+            return;
+        }
+
+        entries.remove(entry);
+        totalCount.decrementAndGet();
+
+        try {
+            entry.con.close();
+        } catch (Exception e) {
+            // FIXME: logger?
+            System.out.format("Exception while invalidating Pool Object: %s\n", e);
+        }
+
+        if (!closed) {
+            fillMinIdle();
+        }
+    }
+
+    private void housekeep() {
+        try {
+            final long now = System.nanoTime();
+            coarseNow = now;
+
+            final long idleTimeout = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+            final long keepalive = TimeUnit.MILLISECONDS.toNanos(keepaliveMillis);
+            final long leakThreshold = TimeUnit.MILLISECONDS.toNanos(leakDetectionThresholdMillis);
+
+            int evictable = getNumIdle() - minIdle;
+
+            for (PoolEntry entry : entries) {
+                if (closed) {
+                    return;
+                }
+
+                final int state = entry.getState();
+                if (state == PoolEntry.STATE_IN_USE) {
+                    final long borrowedAt = entry.borrowedAt;
+                    if (leakThreshold > 0 && borrowedAt != 0 && !entry.leakReported && now - borrowedAt > leakThreshold) {
+                        entry.leakReported = true;
+                        reportLeak(entry, now - borrowedAt);
+                    }
+                } else if (state == PoolEntry.STATE_IDLE) {
+                    final long idle = now - entry.lastUsedAt;
+
+                    if (entry.isRetired(now) || (idleTimeout > 0 && idle > idleTimeout && evictable > 0)) {
+                        if (entry.compareAndSet(PoolEntry.STATE_IDLE, PoolEntry.STATE_IN_USE)) {
+                            evictable--;
+                            remove(entry);
+                        }
+                    } else if (keepalive > 0 && idle > keepalive) {
+                        if (entry.compareAndSet(PoolEntry.STATE_IDLE, PoolEntry.STATE_IN_USE)) {
+                            if (ping(entry)) {
+                                release(entry, coarseNow);
+                            } else {
+                                remove(entry);
+                            }
+                        }
+                    }
+                }
+            }
+
+            fillMinIdle();
+        } catch (Exception e) {
+            housekeepingErrors.inc();
+            try {
+                eventHandler.housekeepingFailed(this, e);
+            } catch (Exception ignored) {
+                // an exception escaping would cancel all further runs
+            }
+        }
+    }
+
+    private boolean ping(PoolEntry entry) {
+        final ScheduledFuture<?> timeout = housekeeper.schedule(entry.con::abort, validationTimeoutMillis, TimeUnit.MILLISECONDS);
+
+        boolean ok;
+        try {
+            entry.con.ping();
+            ok = entry.con.isReady();
+        } catch (Exception e) {
+            ok = false;
+        }
+
+        // if the timeout already fired the connection is gone
+        return timeout.cancel(false) && ok;
+    }
+
+    private void reportLeak(PoolEntry entry, long borrowedNanos) {
+        leakCounter.inc();
+
+        try {
+            eventHandler.leakDetected(this, entry.con, TimeUnit.NANOSECONDS.toMillis(borrowedNanos), entry.borrowStack);
+        } catch (Exception e) {
+            // must not stop the housekeeping run
+            housekeepingErrors.inc();
+        }
+    }
+
+    /**
+     * closes all idle connections, connections in use are closed when returned
+     */
+    @Override
+    public void close() {
+        closed = true;
+        creator.shutdownNow();
+        housekeeper.shutdownNow();
+
+        for (PoolEntry entry : entries) {
+            if (entry.compareAndSet(PoolEntry.STATE_IDLE, PoolEntry.STATE_IN_USE)) {
+                remove(entry);
+            }
+        }
+    }
+
+    public void doneWithConnection(Connection con) {
+        if (con.isReady()) {
+            returnObject(con);
+        } else {
+            invalidateObject(con);
         }
     }
 
@@ -94,28 +854,27 @@ public class DatabasePool extends GenericObjectPool<Connection> {
             throw new IllegalStateException("Still in transaction, please commit or rollback!");
         }
         // FIXME: could be less picky and close them?
-        if (con.openStatements > 0) {
+        if (con.openStatements > con.pinnedStatements) {
             throw new IllegalStateException("Open Statement/Query in connection, please .close everything you prepared.");
         }
     }
 
     public <RESULT> RESULT withConnection(DatabaseTask<RESULT> task) throws Exception {
-        Connection con = this.borrowObject();
+        final Connection con = this.borrowObject();
+        boolean broken = false;
         try {
             RESULT result = task.withConnection(con);
             checkConnection(con);
             return result;
         } catch (IOException e) {
-            try {
-                invalidateObject(con);
-            } catch (Exception e2) {
-                System.out.format("Caught IOException, cannot invalidate con: %s\n", e2);
-            }
+            broken = true;
             throw e;
         } finally {
-            doneWithConnection(con);
+            if (broken) {
+                invalidateObject(con);
+            } else {
+                doneWithConnection(con);
+            }
         }
     }
-
-
 }
@@ -0,0 +1,550 @@
+package shadow.pgsql;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Routes work to a primary pool or one of its read replicas
+ * <p/>
+ * Read-only work (withReadOnlyConnection or SQL created withReadOnly) goes to a healthy replica,
+ * picked by the lower expected latency of two random ones (monitor roundtrip * work in flight).
+ * Everything else goes to the primary. Without a usable replica read-only work goes to the primary as well.
+ * <p/>
+ * A monitor thread checks every replica periodically, measuring the roundtrip and the replayed LSN.
+ * A replica failing with an IOException is not used until it passes the next check.
+ * <p/>
+ * With readYourWrites enabled every write on the primary remembers the WAL insert position after it
+ * (one more roundtrip per write). Read-only work then only goes to replicas that have replayed at least that far,
+ * so it always sees every write done through this router. Other processes can pass getLastWriteLsn along
+ * and use withReadOnlyConnection(minLsn, task).
+ * <p/>
+ * With hedging enabled a read-only query that takes longer than usual (hedgePercentile of recent queries)
+ * is sent to a second replica as well. The first result wins, the other query is cancelled.
+ * hedgeBudget limits how many queries may be sent twice. Only for queries that are safe to run twice,
+ * which they should be if they are read-only.
+ * <p/>
+ * Requires PostgreSQL 10+ (pg_last_wal_replay_lsn).
+ */
+public class DatabaseRouter implements AutoCloseable {
+    // weight of the newest roundtrip in the latency average
+    private static final double LATENCY_ALPHA = 0.2;
+
+    // recent query latencies the hedge delay is derived from, power of 2
+    private static final int LATENCY_SAMPLES = 1024;
+    // no hedging before there is some history
+    private static final int MIN_LATENCY_SAMPLES = 64;
+
+    // budget is kept in millionths of a hedge
+    private static final long BUDGET_UNIT = 1000000;
+    private static final long MAX_BUDGET = 10 * BUDGET_UNIT;
+
+    private static final SQL WRITE_LSN = SQL.query("SELECT pg_current_wal_insert_lsn()::text")
+            .withName("router.write-lsn")
+            .buildRowsWith(Helpers.ONE_COLUMN)
+            .buildResultsWith(Helpers.ONE_ROW)
+            .create();
+
+    private static final SQL REPLAY_LSN = SQL.query("SELECT pg_last_wal_replay_lsn()::text")
+            .withName("router.replay-lsn")
+            .buildRowsWith(Helpers.ONE_COLUMN)
+            .buildResultsWith(Helpers.ONE_ROW)
+            .create();
+
+    static final class Replica {
+        final DatabasePool pool;
+        final AtomicInteger inFlight = new AtomicInteger();
+
+        volatile boolean healthy = true;
+        // -1 unknown, also on a server that is not replaying (not a replica)
+        volatile long replayLsn = -1;
+        volatile double latencyNanos = 0;
+
+        Replica(DatabasePool pool) {
+            this.pool = pool;
+        }
+
+        boolean isUsable(long minLsn) {
+            return healthy && (minLsn == 0 || replayLsn >= minLsn);
+        }
+
+        double score() {
+            return (latencyNanos + 1) * (inFlight.get() + 1);
+        }
+    }
+
+    private final DatabasePool primary;
+    private final Replica[] replicas;
+
+    private final ScheduledExecutorService monitor;
+    private ScheduledFuture<?> monitoring;
+    private long monitorPeriodMillis;
+
+    private volatile boolean readYourWrites = false;
+    private final AtomicLong lastWriteLsn = new AtomicLong(0);
+
+    private volatile boolean hedging = false;
+    private volatile double hedgePercentile = 0.95;
+    private volatile double hedgeBudget = 0.05;
+    private volatile long hedgeDelayNanos = Long.MAX_VALUE;
+    private final AtomicLongArray latencies = new AtomicLongArray(LATENCY_SAMPLES);
+    private final AtomicLong latencyCount = new AtomicLong();
+    private final AtomicLong budget = new AtomicLong(BUDGET_UNIT);
+    private final ExecutorService hedger;
+    private final Counter hedgeCounter;
+
+    public DatabaseRouter(DatabasePool primary, DatabasePool... replicas) {
+        this(primary, Arrays.asList(replicas));
+    }
+
+    public DatabaseRouter(DatabasePool primary, List<DatabasePool> replicas) {
+        this.primary = primary;
+        this.replicas = new Replica[replicas.size()];
+        for (int i = 0; i < this.replicas.length; i++) {
+            this.replicas[i] = new Replica(replicas.get(i));
+        }
+
+        this.monitor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread t = new Thread(r, String.format("shadow-pgsql-router-%d-monitor", primary.getPoolId()));
+            t.setDaemon(true);
+            return t;
+        });
+
+        final AtomicInteger threadSeq = new AtomicInteger();
+        this.hedger = Executors.newCachedThreadPool(r -> {
+            final Thread t = new Thread(r, String.format("shadow-pgsql-router-%d-hedge-%d", primary.getPoolId(), threadSeq.incrementAndGet()));
+            t.setDaemon(true);
+            return t;
+        });
+        this.hedgeCounter = primary.getDatabase().metricRegistry.counter(MetricRegistry.name("shadow-pgsql", "router", "hedges"));
+
+        this.setMonitorPeriodMillis(250);
+    }
+
+    public DatabasePool getPrimary() {
+        return primary;
+    }
+
+    public List<DatabasePool> getReplicas() {
+        final DatabasePool[] pools = new DatabasePool[replicas.length];
+        for (int i = 0; i < pools.length; i++) {
+            pools[i] = replicas[i].pool;
+        }
+        return Collections.unmodifiableList(Arrays.asList(pools));
+    }
+
+    public boolean getReadYourWrites() {
+        return readYourWrites;
+    }
+
+    public void setReadYourWrites(boolean readYourWrites) {
+        this.readYourWrites = readYourWrites;
+    }
+
+    /**
+     * WAL position after the last write through this router, only tracked with readYourWrites
+     */
+    public long getLastWriteLsn() {
+        return lastWriteLsn.get();
+    }
+
+    public boolean getHedging() {
+        return hedging;
+    }
+
+    public void setHedging(boolean hedging) {
+        this.hedging = hedging;
+    }
+
+    public double getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    /**
+     * a query slower than this percentile of recent queries is hedged
+     */
+    public void setHedgePercentile(double hedgePercentile) {
+        if (hedgePercentile <= 0 || hedgePercentile >= 1) {
+            throw new IllegalArgumentException("hedgePercentile must be between 0 and 1");
+        }
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    public double getHedgeBudget() {
+        return hedgeBudget;
+    }
+
+    /**
+     * @param hedgeBudget max fraction of queries sent twice, 0.05 is at most 5% extra load
+     */
+    public void setHedgeBudget(double hedgeBudget) {
+        if (hedgeBudget < 0 || hedgeBudget > 1) {
+            throw new IllegalArgumentException("hedgeBudget must be between 0 and 1");
+        }
+        this.hedgeBudget = hedgeBudget;
+    }
+
+    /**
+     * Long.MAX_VALUE while there are not enough samples
+     */
+    public long getHedgeDelayNanos() {
+        return hedgeDelayNanos;
+    }
+
+    public synchronized long getMonitorPeriodMillis() {
+        return monitorPeriodMillis;
+    }
+
+    /**
+     * how often replicas are checked, also bounds how long reads wait for a replica to catch up with a write
+     */
+    public synchronized void setMonitorPeriodMillis(long monitorPeriodMillis) {
+        if (monitorPeriodMillis < 1) {
+            throw new IllegalArgumentException("monitorPeriodMillis must be positive");
+        }
+
+        if (monitoring != null) {
+            monitoring.cancel(false);
+        }
+
+        this.monitorPeriodMillis = monitorPeriodMillis;
+
+        if (replicas.length > 0 && !monitor.isShutdown()) {
+            this.monitoring = monitor.scheduleWithFixedDelay(this::checkReplicas, 0, monitorPeriodMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * run on the primary
+     */
+    public <RESULT> RESULT withConnection(DatabaseTask<RESULT> task) throws Exception {
+        return primary.withConnection(con -> {
+            final RESULT result = task.withConnection(con);
+
+            if (readYourWrites && !con.isInTransaction()) {
+                final long lsn = parseLsn((String) con.queryWith(WRITE_LSN));
+                lastWriteLsn.accumulateAndGet(lsn, Math::max);
+            }
+
+            return result;
+        });
+    }
+
+    /**
+     * run on a replica, the task must not modify anything
+     */
+    public <RESULT> RESULT withReadOnlyConnection(DatabaseTask<RESULT> task) throws Exception {
+        return withReadOnlyConnection(readYourWrites ? lastWriteLsn.get() : 0, task);
+    }
+
+    /**
+     * run on a replica that replayed at least up to minLsn, on the primary if there is none
+     *
+     * @param minLsn 0 takes any healthy replica
+     */
+    public <RESULT> RESULT withReadOnlyConnection(long minLsn, DatabaseTask<RESULT> task) throws Exception {
+        final Replica replica = pickReplica(minLsn);
+        if (replica == null) {
+            return primary.withConnection(task);
+        }
+
+        replica.inFlight.incrementAndGet();
+        try {
+            return replica.pool.withConnection(task);
+        } catch (IOException e) {
+            if (!(e instanceof CommandException)) {
+                replica.healthy = false;
+            }
+            throw e;
+        } finally {
+            replica.inFlight.decrementAndGet();
+        }
+    }
+
+    public Object queryWith(SQL sql, Object... params) throws Exception {
+        if (sql.isReadOnly() && hedging && replicas.length > 1) {
+            return queryHedged(sql, Arrays.asList(params));
+        } else if (sql.isReadOnly()) {
+            return withReadOnlyConnection(con -> con.query(sql, Arrays.asList(params)));
+        } else {
+            return withConnection(con -> con.query(sql, Arrays.asList(params)));
+        }
+    }
+
+    public StatementResult executeWith(SQL sql, Object... params) throws Exception {
+        if (sql.isReadOnly()) {
+            return withReadOnlyConnection(con -> con.execute(sql, Arrays.asList(params)));
+        } else {
+            return withConnection(con -> con.execute(sql, Arrays.asList(params)));
+        }
+    }
+
+    /**
+     * power of two choices, only scans all replicas if neither choice is usable
+     */
+    private Replica pickReplica(long minLsn) {
+        final int n = replicas.length;
+        if (n == 0) {
+            return null;
+        }
+
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final Replica a = replicas[random.nextInt(n)];
+        final Replica b = replicas[random.nextInt(n)];
+        final boolean usableA = a.isUsable(minLsn);
+        final boolean usableB = b.isUsable(minLsn);
+
+        if (usableA && usableB) {
+            return a.score() <= b.score() ? a : b;
+        } else if (usableA) {
+            return a;
+        } else if (usableB) {
+            return b;
+        }
+
+        Replica best = null;
+        for (Replica replica : replicas) {
+            if (replica.isUsable(minLsn) && (best == null || replica.score() < best.score())) {
+                best = replica;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * one run of the query on a replica
+     */
+    private final class Attempt implements Runnable {
+        final Replica replica;
+        final SQL sql;
+        final List<Object> params;
+        final CompletableFuture<Object> result;
+        final AtomicInteger outstanding;
+
+        // guarded by this
+        private Connection con;
+        private boolean done = false;
+        private boolean cancelling = false;
+
+        Attempt(Replica replica, SQL sql, List<Object> params, CompletableFuture<Object> result, AtomicInteger outstanding) {
+            this.replica = replica;
+            this.sql = sql;
+            this.params = params;
+            this.result = result;
+            this.outstanding = outstanding;
+        }
+
+        @Override
+        public void run() {
+            final long start = System.nanoTime();
+
+            replica.inFlight.incrementAndGet();
+            try {
+                final Object value = replica.pool.withConnection(con -> {
+                    synchronized (this) {
+                        if (done) {
+                            return null;
+                        }
+                        this.con = con;
+                    }
+
+                    try {
+                        return con.query(sql, params);
+                    } finally {
+                        finish();
+                    }
+                });
+
+                if (result.complete(value)) {
+                    recordLatency(System.nanoTime() - start);
+                }
+            } catch (Exception e) {
+                if (e instanceof IOException && !(e instanceof CommandException)) {
+                    replica.healthy = false;
+                }
+
+                // the other attempt may still succeed
+                if (outstanding.decrementAndGet() == 0) {
+                    result.completeExceptionally(e);
+                }
+            } finally {
+                replica.inFlight.decrementAndGet();
+            }
+        }
+
+        // the connection must not go back to the pool while a cancel is in flight, it could hit the next query
+        private synchronized void finish() throws InterruptedException {
+            done = true;
+            while (cancelling) {
+                wait();
+            }
+        }
+
+        void cancel() {
+            final Connection con;
+            synchronized (this) {
+                if (done || this.con == null) {
+                    done = true;
+                    return;
+                }
+                cancelling = true;
+                con = this.con;
+            }
+
+            try {
+                con.cancel();
+            } catch (Exception e) {
+                // the query completes eventually, no harm done
+            } finally {
+                synchronized (this) {
+                    cancelling = false;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    private Object queryHedged(SQL sql, List<Object> params) throws Exception {
+        final long minLsn = readYourWrites ? lastWriteLsn.get() : 0;
+
+        final Replica first = pickReplica(minLsn);
+        if (first == null) {
+            return primary.withConnection(con -> con.query(sql, params));
+        }
+
+        earnBudget();
+
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+        final AtomicInteger outstanding = new AtomicInteger(1);
+
+        final Attempt a = new Attempt(first, sql, params, result, outstanding);
+        Attempt b = null;
+        hedger.execute(a);
+
+        try {
+            try {
+                return result.get(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                final Replica second = pickOtherReplica(first, minLsn);
+                if (second != null && spendBudget()) {
+                    hedgeCounter.inc();
+                    outstanding.incrementAndGet();
+                    b = new Attempt(second, sql, params, result, outstanding);
+                    hedger.execute(b);
+                }
+                return result.get();
+            }
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        } finally {
+            // the winner is done already, only the loser is actually cancelled
+            if (b != null) {
+                hedger.execute(a::cancel);
+                hedger.execute(b::cancel);
+            }
+        }
+    }
+
+    private Replica pickOtherReplica(Replica not, long minLsn) {
+        Replica best = null;
+        for (Replica replica : replicas) {
+            if (replica != not && replica.isUsable(minLsn) && (best == null || replica.score() < best.score())) {
+                best = replica;
+            }
+        }
+        return best;
+    }
+
+    private void earnBudget() {
+        final long earned = (long) (hedgeBudget * BUDGET_UNIT);
+        budget.accumulateAndGet(earned, (current, x) -> Math.min(MAX_BUDGET, current + x));
+    }
+
+    private boolean spendBudget() {
+        while (true) {
+            final long current = budget.get();
+            if (current < BUDGET_UNIT) {
+                return false;
+            }
+            if (budget.compareAndSet(current, current - BUDGET_UNIT)) {
+                return true;
+            }
+        }
+    }
+
+    private void recordLatency(long nanos) {
+        latencies.lazySet((int) (latencyCount.getAndIncrement() & (LATENCY_SAMPLES - 1)), nanos);
+    }
+
+    private void updateHedgeDelay() {
+        final int count = (int) Math.min(latencyCount.get(), LATENCY_SAMPLES);
+        if (count < MIN_LATENCY_SAMPLES) {
+            hedgeDelayNanos = Long.MAX_VALUE;
+            return;
+        }
+
+        final long[] sorted = new long[count];
+        for (int i = 0; i < count; i++) {
+            sorted[i] = latencies.get(i);
+        }
+        Arrays.sort(sorted);
+
+        hedgeDelayNanos = sorted[Math.min(count - 1, (int) (count * hedgePercentile))];
+    }
+
+    private void checkReplicas() {
+        for (Replica replica : replicas) {
+            if (monitor.isShutdown()) {
+                return;
+            }
+
+            try {
+                final long start = System.nanoTime();
+                final String lsn = replica.pool.withConnection(con -> (String) con.queryWith(REPLAY_LSN));
+                final long latency = System.nanoTime() - start;
+
+                replica.replayLsn = lsn == null ? -1 : parseLsn(lsn);
+                replica.latencyNanos = replica.latencyNanos == 0 ? latency : replica.latencyNanos + LATENCY_ALPHA * (latency - replica.latencyNanos);
+                replica.healthy = true;
+            } catch (Exception e) {
+                replica.healthy = false;
+            }
+        }
+
+        if (hedging) {
+            updateHedgeDelay();
+        }
+    }
+
+    /**
+     * @param lsn as the server prints it, eg. 16/B374D848
+     */
+    public static long parseLsn(String lsn) {
+        final int slash = lsn.indexOf('/');
+        if (slash == -1) {
+            throw new IllegalArgumentException(String.format("not a LSN: %s", lsn));
+        }
+        return (Long.parseLong(lsn.substring(0, slash), 16) << 32) | Long.parseLong(lsn.substring(slash + 1), 16);
+    }
+
+    /**
+     * stops monitoring, the pools are not closed
+     */
+    @Override
+    public synchronized void close() {
+        monitor.shutdownNow();
+        hedger.shutdown();
+    }
+}
@@ -10,5 +10,10 @@ import java.nio.ByteBuffer;
 public interface IO extends Closeable {
     ProtocolFrame nextFrame() throws IOException;
 
+    /**
+     * true if the server sent something that wasn't read yet, never blocks
+     */
+    boolean hasInput() throws IOException;
+
     void send(ByteBuffer buf) throws IOException;
 }
@@ -0,0 +1,11 @@
+package shadow.pgsql;
+
+/**
+ * receives NOTIFY messages for channels the connection is LISTENing on
+ * <p/>
+ * called on the thread reading from the connection, should not block or use the connection
+ */
+@FunctionalInterface
+public interface NotificationHandler {
+    public void handleNotification(int processId, String channel, String payload);
+}
@@ -0,0 +1,277 @@
+package shadow.pgsql;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads rows with several binary COPYs in parallel, each on its own pool connection
+ * <p/>
+ * Rows are collected into batches and handed to the workers through bounded queues, add blocks while
+ * the workers are behind. Either all workers copy into the same table (batches are dealt round robin)
+ * or every worker copies into its own table (per partition) and a Partitioner picks the table for each row.
+ * <p/>
+ * Every COPY runs in a transaction that is only committed once all COPYs completed, if any of them fails
+ * all are rolled back. Only a failure during the final COMMITs can leave some tables loaded.
+ * <p/>
+ * add/finish must be called from one thread.
+ */
+public class ParallelCopyLoader implements AutoCloseable {
+    @FunctionalInterface
+    public interface Partitioner {
+        /**
+         * @return index of the table the row belongs to
+         */
+        int partition(List<Object> row, int partitions);
+    }
+
+    static final int BATCH_SIZE = 1000;
+    static final int QUEUE_BATCHES = 8;
+
+    private static final List<List<Object>> END = Collections.emptyList();
+
+    private static final AtomicInteger loaderSeq = new AtomicInteger(0);
+
+    final class Worker {
+        final String sql;
+        final BlockingQueue<List<List<Object>>> queue = new ArrayBlockingQueue<>(QUEUE_BATCHES);
+        // rows reported by the server once the COPY completed
+        final CompletableFuture<Long> copied = new CompletableFuture<>();
+        // after COMMIT/ROLLBACK
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        List<List<Object>> batch = new ArrayList<>(BATCH_SIZE);
+
+        Worker(String sql) {
+            this.sql = sql;
+        }
+
+        void run() {
+            try {
+                pool.withConnection(con -> {
+                    con.begin();
+
+                    try (CopyIn copy = con.copyIn(sql, columnTypes)) {
+                        while (true) {
+                            if (failure != null) {
+                                copy.abort("load aborted");
+                                con.rollback();
+                                throw new CancellationException("load aborted");
+                            }
+
+                            final List<List<Object>> rows = queue.poll(100, TimeUnit.MILLISECONDS);
+                            if (rows == null) {
+                                continue;
+                            }
+                            if (rows == END) {
+                                break;
+                            }
+
+                            for (List<Object> row : rows) {
+                                copy.writeRow(row);
+                            }
+                        }
+
+                        copied.complete(copy.finish());
+                    }
+
+                    if (decision.get()) {
+                        con.commit();
+                    } else {
+                        con.rollback();
+                    }
+                    return null;
+                });
+
+                done.complete(null);
+            } catch (Throwable e) {
+                fail(e);
+                copied.completeExceptionally(e);
+                done.completeExceptionally(e);
+            }
+        }
+    }
+
+    private final DatabasePool pool;
+    private final List<TypeHandler> columnTypes;
+    private final Partitioner partitioner;
+    private final Worker[] workers;
+
+    // true: commit, false: roll back
+    private final CompletableFuture<Boolean> decision = new CompletableFuture<>();
+    private volatile Throwable failure;
+
+    private int nextWorker = 0;
+    private boolean finished = false;
+
+    /**
+     * parallelism COPYs into the same table
+     */
+    public ParallelCopyLoader(DatabasePool pool, String table, List<String> columns, List<TypeHandler> columnTypes, int parallelism) {
+        this(pool, Collections.nCopies(parallelism, table), columns, columnTypes, null);
+    }
+
+    /**
+     * one COPY per table, partitioner picks the table of a row
+     */
+    public ParallelCopyLoader(DatabasePool pool, List<String> tables, List<String> columns, List<TypeHandler> columnTypes, Partitioner partitioner) {
+        if (tables.isEmpty()) {
+            throw new IllegalArgumentException("need at least one table");
+        }
+
+        this.pool = pool;
+        this.columnTypes = columnTypes;
+        this.partitioner = partitioner;
+        this.workers = new Worker[tables.size()];
+
+        final int id = loaderSeq.incrementAndGet();
+        for (int i = 0; i < workers.length; i++) {
+            final Worker worker = new Worker(copySQL(tables.get(i), columns));
+            workers[i] = worker;
+
+            final Thread t = new Thread(worker::run, String.format("shadow-pgsql-copy-%d-%d", id, i + 1));
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    public static String copySQL(String table, List<String> columns) {
+        checkName(table, "table");
+        for (String column : columns) {
+            checkName(column, "column");
+        }
+
+        return String.format("COPY %s (%s) FROM STDIN (FORMAT binary)", table, String.join(", ", columns));
+    }
+
+    private static void checkName(String name, String what) {
+        if (name == null || !name.matches("([a-z_][a-z0-9_]*\\.)?[a-z_][a-z0-9_]*")) {
+            throw new IllegalArgumentException(String.format("invalid %s name: %s", what, name));
+        }
+    }
+
+    private void fail(Throwable e) {
+        if (failure == null) {
+            failure = e;
+        }
+        decision.complete(false);
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new IllegalStateException("load failed", failure);
+        }
+    }
+
+    /**
+     * blocks while the queue of the worker is full
+     */
+    public void add(List<Object> row) throws InterruptedException {
+        if (finished) {
+            throw new IllegalStateException("loader already finished");
+        }
+        if (row.size() != columnTypes.size()) {
+            throw new IllegalArgumentException(String.format("expected %d values, got %d", columnTypes.size(), row.size()));
+        }
+        checkFailure();
+
+        final Worker worker;
+        if (partitioner == null) {
+            worker = workers[nextWorker];
+        } else {
+            final int partition = partitioner.partition(row, workers.length);
+            if (partition < 0 || partition >= workers.length) {
+                throw new IllegalArgumentException(String.format("partition out of range: %d", partition));
+            }
+            worker = workers[partition];
+        }
+
+        worker.batch.add(row);
+
+        if (worker.batch.size() >= BATCH_SIZE) {
+            send(worker, worker.batch);
+            worker.batch = new ArrayList<>(BATCH_SIZE);
+
+            if (partitioner == null) {
+                nextWorker = (nextWorker + 1) % workers.length;
+            }
+        }
+    }
+
+    private void send(Worker worker, List<List<Object>> batch) throws InterruptedException {
+        while (!worker.queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+            checkFailure();
+        }
+    }
+
+    /**
+     * sends the remaining rows, waits for all COPYs and commits them if all succeeded
+     *
+     * @return number of rows loaded
+     */
+    public long finish() throws Exception {
+        if (finished) {
+            throw new IllegalStateException("loader already finished");
+        }
+        finished = true;
+
+        try {
+            for (Worker worker : workers) {
+                if (!worker.batch.isEmpty()) {
+                    send(worker, worker.batch);
+                }
+                send(worker, END);
+            }
+        } catch (IllegalStateException e) {
+            // a worker failed, the others abort on their own
+        }
+
+        long rows = 0;
+        for (Worker worker : workers) {
+            try {
+                rows += worker.copied.get();
+            } catch (ExecutionException e) {
+                // failure is set
+            }
+        }
+
+        decision.complete(failure == null);
+
+        for (Worker worker : workers) {
+            try {
+                worker.done.get();
+            } catch (ExecutionException e) {
+                // failure is set
+            }
+        }
+
+        if (failure != null) {
+            if (failure instanceof Exception) {
+                throw (Exception) failure;
+            }
+            throw new IllegalStateException("load failed", failure);
+        }
+
+        return rows;
+    }
+
+    /**
+     * rolls back everything that was not committed yet
+     */
+    public void abort() {
+        fail(new CancellationException("load aborted"));
+    }
+
+    /**
+     * aborts unless finished
+     */
+    @Override
+    public void close() {
+        if (!finished) {
+            finished = true;
+            abort();
+        }
+    }
+}
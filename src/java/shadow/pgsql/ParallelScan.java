@@ -0,0 +1,213 @@
+package shadow.pgsql;
+
+import shadow.pgsql.types.Types;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads one consistent point in time with several pool connections in parallel
+ * <p/>
+ * A REPEATABLE READ transaction exports its snapshot (pg_export_snapshot), every part then runs in its own
+ * REPEATABLE READ transaction on another connection that imports it (SET TRANSACTION SNAPSHOT), so all parts
+ * see exactly the same data. BEGIN and SET TRANSACTION SNAPSHOT are deferred, a part is one roundtrip.
+ * <p/>
+ * The SQL is run once per part with the params of the part, usually a key or block range. Rows go through
+ * the SQL RowBuilder/ResultBuilder while they are read, the part results are merged with the given ResultBuilder
+ * on the calling thread, in the order the parts complete.
+ * <p/>
+ * Uses parallelism + 1 pool connections (the exporting one is kept until all parts are done).
+ */
+public class ParallelScan implements AutoCloseable {
+    /**
+     * WHERE condition for queryBlocks, $1 and $2 are the (int8) block numbers
+     * <p/>
+     * only PostgreSQL 14+ can scan a TID range, older versions read the whole table for every part
+     */
+    public static final String CTID_RANGE = "ctid >= ('(' || $1 || ',0)')::tid AND ctid < ('(' || $2 || ',0)')::tid";
+
+    // one past the largest block number
+    private static final long MAX_BLOCK = 0xFFFFFFFFL;
+
+    private static final SQL EXPORT_SNAPSHOT = SQL.query("SELECT pg_export_snapshot()")
+            .buildRowsWith(Helpers.ONE_COLUMN)
+            .buildResultsWith(Helpers.ONE_ROW)
+            .create();
+
+    private static final SQL RELATION_BLOCKS = SQL.query("SELECT pg_relation_size($1::regclass) / current_setting('block_size')::int8")
+            .addParameterType(Types.TEXT)
+            .buildRowsWith(Helpers.ONE_COLUMN)
+            .buildResultsWith(Helpers.ONE_ROW)
+            .create();
+
+    private static final AtomicInteger scanSeq = new AtomicInteger(0);
+
+    private final DatabasePool pool;
+    private final ExecutorService executor;
+
+    public ParallelScan(DatabasePool pool, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+
+        this.pool = pool;
+
+        final int id = scanSeq.incrementAndGet();
+        final AtomicInteger threadSeq = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(parallelism, r -> {
+            final Thread t = new Thread(r, String.format("shadow-pgsql-scan-%d-%d", id, threadSeq.incrementAndGet()));
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * splits [from, to) into parts ranges of (almost) equal size, as [lower, upper) Long params
+     */
+    public static List<List<Object>> ranges(long from, long to, int parts) {
+        if (parts < 1) {
+            throw new IllegalArgumentException("parts must be positive");
+        }
+        if (to < from) {
+            throw new IllegalArgumentException("to must not be below from");
+        }
+
+        final List<List<Object>> ranges = new ArrayList<>(parts);
+        final long size = to - from;
+        for (int i = 0; i < parts; i++) {
+            final long lower = from + size * i / parts;
+            final long upper = from + size * (i + 1) / parts;
+            if (upper > lower) {
+                ranges.add(Arrays.<Object>asList(lower, upper));
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * runs sql once per entry of partParams, all parts in the same snapshot
+     */
+    public <ACC, RESULT, PART_RESULT> RESULT query(SQL sql, List<List<Object>> partParams, ResultBuilder<ACC, RESULT, PART_RESULT> merge) throws Exception {
+        return scan(sql, snapshotCon -> partParams, merge);
+    }
+
+    /**
+     * true if the server can scan TID ranges (PostgreSQL 14+), which queryBlocks needs
+     */
+    public static boolean supportsBlockRanges(Connection con) {
+        final String version = con.getParameterValue("server_version");
+        if (version == null) {
+            return false;
+        }
+
+        int major = 0;
+        for (int i = 0; i < version.length() && Character.isDigit(version.charAt(i)); i++) {
+            major = major * 10 + (version.charAt(i) - '0');
+        }
+        return major >= 14;
+    }
+
+    /**
+     * splits table by its blocks (ctid), sql must select WHERE CTID_RANGE with 2 INT8 param types
+     * <p/>
+     * the table size is taken in the snapshot, the last part is open ended anyways.
+     * requires PostgreSQL 14+, use query with key ranges on older servers.
+     */
+    public <ACC, RESULT, PART_RESULT> RESULT queryBlocks(SQL sql, String table, int parts, ResultBuilder<ACC, RESULT, PART_RESULT> merge) throws Exception {
+        return scan(sql, snapshotCon -> {
+            if (!supportsBlockRanges(snapshotCon)) {
+                // every part would read the whole table
+                throw new UnsupportedOperationException(String.format("block ranges need PostgreSQL 14+, server is %s. use query with key ranges", snapshotCon.getParameterValue("server_version")));
+            }
+
+            final long blocks = (Long) snapshotCon.queryWith(RELATION_BLOCKS, table);
+
+            final List<List<Object>> ranges = ranges(0, Math.max(blocks, 1), parts);
+            ranges.get(ranges.size() - 1).set(1, MAX_BLOCK);
+            return ranges;
+        }, merge);
+    }
+
+    @FunctionalInterface
+    private interface PartPlanner {
+        List<List<Object>> plan(Connection snapshotCon) throws Exception;
+    }
+
+    private <ACC, RESULT, PART_RESULT> RESULT scan(SQL sql, PartPlanner planner, ResultBuilder<ACC, RESULT, PART_RESULT> merge) throws Exception {
+        if (!sql.expectsData()) {
+            throw new IllegalArgumentException("can only scan with queries");
+        }
+
+        return pool.withConnection(snapshotCon -> {
+            snapshotCon.simpleStatement("BEGIN ISOLATION LEVEL REPEATABLE READ READ ONLY");
+            try {
+                final String snapshot = (String) snapshotCon.query(EXPORT_SNAPSHOT);
+                if (!snapshot.matches("[0-9A-Fa-f-]+")) {
+                    throw new IllegalStateException(String.format("unexpected snapshot id: %s", snapshot));
+                }
+
+                final List<List<Object>> parts = planner.plan(snapshotCon);
+                return runParts(sql, snapshot, parts, merge);
+            } finally {
+                snapshotCon.rollback();
+            }
+        });
+    }
+
+    private <ACC, RESULT, PART_RESULT> RESULT runParts(SQL sql, String snapshot, List<List<Object>> parts, ResultBuilder<ACC, RESULT, PART_RESULT> merge) throws Exception {
+        final CompletionService<Object> completion = new ExecutorCompletionService<>(executor);
+        final List<Future<Object>> futures = new ArrayList<>(parts.size());
+
+        for (List<Object> params : parts) {
+            futures.add(completion.submit(() -> pool.withConnection(con -> {
+                con.defer("BEGIN ISOLATION LEVEL REPEATABLE READ READ ONLY");
+                con.defer(String.format("SET TRANSACTION SNAPSHOT '%s'", snapshot));
+                try {
+                    return con.query(sql, params);
+                } finally {
+                    con.rollback();
+                }
+            })));
+        }
+
+        ACC acc = merge.init();
+        Exception failure = null;
+
+        for (int i = 0; i < parts.size(); i++) {
+            try {
+                final Object partResult = completion.take().get();
+                if (failure == null) {
+                    acc = merge.add(acc, (PART_RESULT) partResult);
+                }
+            } catch (ExecutionException e) {
+                final Exception cause = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                if (failure == null) {
+                    failure = cause;
+                    // parts not started yet are pointless now
+                    for (Future<Object> future : futures) {
+                        future.cancel(false);
+                    }
+                } else {
+                    failure.addSuppressed(cause);
+                }
+            } catch (CancellationException e) {
+                // cancelled after the first failure
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+
+        return merge.complete(acc);
+    }
+
+    /**
+     * stops the scan threads, the pool is not closed
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,46 @@
+package shadow.pgsql;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A Connection owned by a DatabasePool, state changes are CAS so borrowing never takes a lock
+ */
+final class PoolEntry {
+    static final int STATE_REMOVED = -1;
+    static final int STATE_IDLE = 0;
+    static final int STATE_IN_USE = 1;
+
+    private static final AtomicIntegerFieldUpdater<PoolEntry> STATE = AtomicIntegerFieldUpdater.newUpdater(PoolEntry.class, "state");
+
+    final Connection con;
+    final long createdAt;
+    // 0 never retires, set before the entry is published
+    long retireAt = 0;
+
+    volatile long lastUsedAt;
+
+    // only tracked with leak detection enabled
+    volatile long borrowedAt = 0;
+    volatile Throwable borrowStack;
+    volatile boolean leakReported;
+
+    private volatile int state = STATE_IN_USE;
+
+    PoolEntry(Connection con) {
+        this.con = con;
+        this.createdAt = System.nanoTime();
+        this.lastUsedAt = createdAt;
+    }
+
+    boolean isRetired(long now) {
+        return retireAt != 0 && now - retireAt >= 0;
+    }
+
+    boolean compareAndSet(int expect, int update) {
+        return STATE.compareAndSet(this, expect, update);
+    }
+
+    int getState() {
+        return state;
+    }
+}
@@ -0,0 +1,25 @@
+package shadow.pgsql;
+
+/**
+ * told about problems a DatabasePool notices in the background, does nothing by default
+ * <p/>
+ * called on the housekeeper thread, should not block or use the pool
+ */
+public interface PoolEventHandler {
+    public static final PoolEventHandler NOOP = new PoolEventHandler() {
+    };
+
+    /**
+     * con has been borrowed longer than leakDetectionThreshold, called once per borrow
+     *
+     * @param borrowStack where it was borrowed, null if the borrow was not sampled
+     */
+    public default void leakDetected(DatabasePool pool, Connection con, long borrowedMillis, Throwable borrowStack) {
+    }
+
+    /**
+     * a housekeeping run failed, the next one runs as scheduled
+     */
+    public default void housekeepingFailed(DatabasePool pool, Exception e) {
+    }
+}
@@ -0,0 +1,64 @@
+package shadow.pgsql;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SQL prepared on every connection of a DatabasePool, see DatabasePool.prepare
+ * <p/>
+ * The PreparedSQL belongs to the connection, never close it.
+ * Connections opened after the handle was created prepare it while connecting,
+ * older connections prepare it the first time it is used on them.
+ */
+public class PreparedHandle {
+    private final DatabasePool pool;
+    private final SQL sql;
+    private final int index;
+
+    PreparedHandle(DatabasePool pool, SQL sql, int index) {
+        this.pool = pool;
+        this.sql = sql;
+        this.index = index;
+    }
+
+    public SQL getSQL() {
+        return sql;
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    /**
+     * @param con borrowed from the pool that created this handle
+     */
+    public PreparedSQL on(Connection con) throws IOException {
+        PreparedSQL prepared = con.getPinned(index);
+
+        if (prepared == null) {
+            prepared = con.prepare(sql);
+            con.pin(index, prepared);
+        } else if (prepared.getSQL() != sql) {
+            throw new IllegalArgumentException("Connection does not belong to the pool of this handle");
+        }
+
+        return prepared;
+    }
+
+    public Object queryWith(Object... params) throws Exception {
+        return query(Arrays.asList(params));
+    }
+
+    public Object query(List params) throws Exception {
+        return pool.withConnection(con -> on(con).query(params));
+    }
+
+    public StatementResult executeWith(Object... params) throws Exception {
+        return execute(Arrays.asList(params));
+    }
+
+    public StatementResult execute(List params) throws Exception {
+        return pool.withConnection(con -> on(con).execute(params));
+    }
+}
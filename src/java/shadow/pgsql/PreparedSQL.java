@@ -157,6 +157,8 @@ public class PreparedSQL implements AutoCloseable {
         pg.output.checkReset();
 
         try {
+            pg.writeDeferred();
+
             // flow -> B/E/H
             pg.output.writeBind(paramEncoders, queryParams, sql, statementId, null, typeDecoders);
             pg.output.writeExecute(null, 0);
@@ -170,6 +172,8 @@ public class PreparedSQL implements AutoCloseable {
             pg.state = ConnectionState.READY;
             throw e;
         }
+
+        pg.readDeferred();
     }
 
     public void close() throws IOException {
@@ -64,28 +64,56 @@ public class ProtocolInput {
         }
 
         while (true) {
-            final ProtocolFrame frame = io.nextFrame();
+            final char type = readFrame();
+            if (type != 0) {
+                return type;
+            }
+        }
+    }
 
-            currentSize = frame.getSize();
-            current = frame.getBuffer();
+    /**
+     * like readNextCommand but returns 0 instead of blocking if the server didn't send anything
+     * (besides NOTICE, NOTIFY), used to notice errors while only sending (eg. COPY)
+     */
+    char pollNextCommand() throws IOException {
+        if (pg.state == ConnectionState.ERROR) {
+            throw new IllegalStateException("In error state, figure out how to recover properly");
+        }
 
-            switch (frame.getType()) {
-                case 'N': // NoticeResponse
-                {
-                    pg.handleNotice(readMessages());
-                    break;
-                }
-                case 'A': // NotificationResponse
-                {
-                    final int processId = current.getInt();
-                    final String channel = readString();
-                    final String payload = readString();
-                    pg.handleNotify(processId, channel, payload);
-                    break;
-                }
-                default:
-                    return frame.getType();
+        while (io.hasInput()) {
+            final char type = readFrame();
+            if (type != 0) {
+                return type;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return 0 for NOTICE and NOTIFY, they are handled right away
+     */
+    private char readFrame() throws IOException {
+        final ProtocolFrame frame = io.nextFrame();
+
+        currentSize = frame.getSize();
+        current = frame.getBuffer();
+
+        switch (frame.getType()) {
+            case 'N': // NoticeResponse
+            {
+                pg.handleNotice(readMessages());
+                return 0;
             }
+            case 'A': // NotificationResponse
+            {
+                final int processId = current.getInt();
+                final String channel = readString();
+                final String payload = readString();
+                pg.handleNotify(processId, channel, payload);
+                return 0;
+            }
+            default:
+                return frame.getType();
         }
     }
 
@@ -153,6 +181,21 @@ public class ProtocolInput {
         current.get(data);
     }
 
+    /**
+     * CopyInResponse, must be binary for every column
+     *
+     * @return number of columns, -1 if the COPY is not binary
+     */
+    int readCopyInResponse() throws IOException {
+        final int format = current.get();
+        final int columns = getShort();
+        for (int i = 0; i < columns; i++) {
+            getShort();
+        }
+
+        return format == 1 ? columns : -1;
+    }
+
     public StatementResult readStatementResult(String sql) throws IOException {
         StatementResult result = null;
 
@@ -174,6 +217,11 @@ public class ProtocolInput {
                     result = new StatementResult(tag);
                     break;
                 }
+                case 'I': // EmptyQueryResponse
+                {
+                    checkSize("EmptyQueryResponse", 0);
+                    break;
+                }
                 case 'Z': {
                     pg.input.readReadyForQuery();
                     break RESULT_LOOP;
@@ -261,7 +309,7 @@ public class ProtocolInput {
             throw new IllegalStateException(
                     String.format("Failed parsing field \"%s\" of table \"%s\"",
                             field.name,
-                            field.tableOid > 0 ? pg.db.oid2name.get(field.tableOid) : "--unknown--"
+                            field.tableOid > 0 ? pg.db.catalog.peekTableName(field.tableOid) : "--unknown--"
                     ), e);
         }
     }
@@ -92,6 +92,22 @@ public class ProtocolOutput {
         out.clear();
     }
 
+    int size() {
+        return out.position();
+    }
+
+    // drops everything written after size
+    void truncate(int size) {
+        out.position(size);
+    }
+
+    // appends everything written so far to other, without resetting
+    void copyTo(ProtocolOutput other) {
+        final ByteBuffer buf = out.duplicate();
+        buf.flip();
+        other.put(buf);
+    }
+
     public void int64(long val) {
         maybeGrow(8);
         out.putLong(val);
@@ -122,6 +138,30 @@ public class ProtocolOutput {
         out.putDouble(value);
     }
 
+    /**
+     * bulk write, avoids the per value bounds check of float4
+     */
+    public void float4Array(float[] values) {
+        final int bytes = values.length * 4;
+        maybeGrow(bytes);
+        out.asFloatBuffer().put(values);
+        out.position(out.position() + bytes);
+    }
+
+    public void float8Array(double[] values) {
+        final int bytes = values.length * 8;
+        maybeGrow(bytes);
+        out.asDoubleBuffer().put(values);
+        out.position(out.position() + bytes);
+    }
+
+    public void int32Array(int[] values) {
+        final int bytes = values.length * 4;
+        maybeGrow(bytes);
+        out.asIntBuffer().put(values);
+        out.position(out.position() + bytes);
+    }
+
     // aka empty string
     public void cstring() {
         nullTerminate();
@@ -139,6 +179,56 @@ public class ProtocolOutput {
         write(b);
     }
 
+    /**
+     * writes int32 length followed by the UTF-8 bytes of s, without going through an intermediate byte[]
+     */
+    public void utf8WithLength(String s) {
+        final int len = s.length();
+
+        int bytes = 0;
+        for (int i = 0; i < len; i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                bytes += 1;
+            } else {
+                bytes += 3;
+            }
+        }
+
+        maybeGrow(4 + bytes);
+        out.putInt(bytes);
+
+        for (int i = 0; i < len; i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                final int cp = Character.toCodePoint(c, s.charAt(++i));
+                out.put((byte) (0xF0 | (cp >> 18)));
+                out.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                out.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (cp & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogate, replaced like String.getBytes(UTF_8) does
+                out.put((byte) '?');
+            } else {
+                out.put((byte) (0xE0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
     public void bytea(byte[] b) {
         write(b);
     }
@@ -298,6 +388,20 @@ public class ProtocolOutput {
         simpleCommand('X');
     }
 
+    ProtocolMarker beginCopyData() {
+        return beginCommand('d');
+    }
+
+    void writeCopyDone() {
+        simpleCommand('c');
+    }
+
+    void writeCopyFail(String reason) {
+        final ProtocolMarker mark = beginCommand('f');
+        cstring(reason);
+        mark.complete();
+    }
+
     void writeSimpleQuery(String query) {
         final ProtocolMarker mark = beginCommand('Q');
         cstring(query);
@@ -0,0 +1,486 @@
+package shadow.pgsql;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Caches query results, keyed by SQL name and params
+ * <p/>
+ * SQL must be registered first with its time to live and the tables it reads (its tags).
+ * Hits are lock-free, misses load through a SingleFlight so concurrent misses only run the query once.
+ * <p/>
+ * Size is bounded by total weight (default: collection size + 1), evicting by segmented LRU. New entries start
+ * in probation, entries read again move to protected (up to 80% of the weight). Victims come from probation first,
+ * so a burst of one-off queries can't flush the entries that are used all the time.
+ * Hits are recorded in a lossy buffer and applied to the LRU in batches, writes and invalidation take a lock.
+ * <p/>
+ * listen(channel) invalidates a tag whenever its name is sent to channel, see invalidationTriggerSQL for a
+ * trigger that does so after every change to a table. Everything is invalidated after the listener reconnects.
+ * <p/>
+ * Results are shared by all readers, they must not be modified.
+ */
+public class QueryCache implements AutoCloseable {
+    @FunctionalInterface
+    public interface Weigher {
+        int weigh(Object result);
+    }
+
+    public static final Weigher DEFAULT_WEIGHER = result -> {
+        if (result instanceof Collection) {
+            return ((Collection) result).size() + 1;
+        } else if (result instanceof Map) {
+            return ((Map) result).size() + 1;
+        }
+        return 1;
+    };
+
+    // power of 2
+    private static final int READ_BUFFER_SIZE = 128;
+    private static final int PROTECTED_PERCENT = 80;
+
+    static final class Policy {
+        final long ttlNanos;
+        final String[] tags;
+
+        Policy(long ttlNanos, String[] tags) {
+            this.ttlNanos = ttlNanos;
+            this.tags = tags;
+        }
+    }
+
+    static final class Key {
+        final String name;
+        final Object[] params;
+        final int hash;
+
+        Key(String name, Object[] params) {
+            this.name = name;
+            this.params = params;
+            this.hash = 31 * name.hashCode() + Arrays.deepHashCode(params);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return hash == other.hash && name.equals(other.name) && Arrays.deepEquals(params, other.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    // loads only collapse with loads started in the same generation, a load started before an
+    // invalidation may return what was just invalidated
+    static final class Load {
+        final Key key;
+        final long generation;
+
+        Load(Key key, long generation) {
+            this.key = key;
+            this.generation = generation;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Load)) {
+                return false;
+            }
+            final Load other = (Load) o;
+            return generation == other.generation && key.equals(other.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * key.hash + (int) (generation ^ (generation >>> 32));
+        }
+    }
+
+    static final class Entry {
+        final Key key;
+        final Object value;
+        final int weight;
+        final long expiresAt;
+        final String[] tags;
+
+        // guarded by evictionLock
+        Entry prev;
+        Entry next;
+        boolean linked;
+        boolean inProtected;
+
+        Entry(Key key, Object value, int weight, long expiresAt, String[] tags) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+            this.tags = tags;
+        }
+
+        // list head
+        Entry() {
+            this(null, null, 0, 0, null);
+            this.prev = this;
+            this.next = this;
+        }
+    }
+
+    private final DatabasePool pool;
+    private final SingleFlight loader;
+    private final long maxWeight;
+    private final Weigher weigher;
+
+    private final ConcurrentHashMap<String, Policy> policies = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+
+    private final AtomicReferenceArray<Entry> readBuffer = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+    private final AtomicLong readCount = new AtomicLong();
+
+    // bumped by every invalidation, loads that started before are not cached
+    private volatile long generation = 0;
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    // everything below guarded by evictionLock
+    private final Map<String, Set<Key>> keysByTag = new HashMap<>();
+    // most recent first
+    private final Entry probation = new Entry();
+    private final Entry protectedSegment = new Entry();
+    private long probationWeight = 0;
+    private long protectedWeight = 0;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    private ChannelListener listener;
+
+    public QueryCache(DatabasePool pool, long maxWeight) {
+        this(pool, maxWeight, DEFAULT_WEIGHER);
+    }
+
+    public QueryCache(DatabasePool pool, long maxWeight, Weigher weigher) {
+        if (maxWeight < 1) {
+            throw new IllegalArgumentException("maxWeight must be positive");
+        }
+
+        this.pool = pool;
+        this.loader = new SingleFlight(pool);
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+
+        final MetricRegistry metrics = pool.getDatabase().metricRegistry;
+        this.hits = metrics.counter(MetricRegistry.name("shadow-pgsql", "cache", "hits"));
+        this.misses = metrics.counter(MetricRegistry.name("shadow-pgsql", "cache", "misses"));
+        this.evictions = metrics.counter(MetricRegistry.name("shadow-pgsql", "cache", "evictions"));
+    }
+
+    /**
+     * @param sql  must be named, the name is part of the key
+     * @param tags usually the tables sql reads, invalidating one of them drops all its results
+     */
+    public void register(SQL sql, long ttlMillis, String... tags) {
+        if (sql.getName() == null) {
+            throw new IllegalArgumentException("only named SQL can be cached");
+        }
+        if (!sql.expectsData()) {
+            throw new IllegalArgumentException("only queries can be cached");
+        }
+        if (ttlMillis < 1) {
+            throw new IllegalArgumentException("ttlMillis must be positive");
+        }
+
+        policies.put(sql.getName(), new Policy(TimeUnit.MILLISECONDS.toNanos(ttlMillis), tags.clone()));
+    }
+
+    public Object queryWith(SQL sql, Object... params) throws Exception {
+        return query(sql, Arrays.asList(params));
+    }
+
+    public Object query(SQL sql, List<Object> params) throws Exception {
+        final String name = sql.getName();
+        final Policy policy = name == null ? null : policies.get(name);
+        if (policy == null) {
+            throw new IllegalArgumentException(String.format("SQL not registered with the cache: %s", name));
+        }
+
+        final Key key = new Key(name, params.toArray());
+        final long now = System.nanoTime();
+
+        final Entry entry = entries.get(key);
+        if (entry != null) {
+            if (now - entry.expiresAt < 0) {
+                recordRead(entry);
+                hits.inc();
+                return entry.value;
+            }
+            remove(entry);
+        }
+
+        misses.inc();
+
+        final long startGeneration = generation;
+        return loader.run(new Load(key, startGeneration), con -> {
+            final Object value = con.query(sql, params);
+            put(startGeneration, new Entry(key, value, weigher.weigh(value), now + policy.ttlNanos, policy.tags));
+            return value;
+        });
+    }
+
+    private void put(long startGeneration, Entry entry) {
+        evictionLock.lock();
+        try {
+            if (generation != startGeneration) {
+                // invalidated while loading, value may be stale already
+                return;
+            }
+
+            final Entry old = entries.put(entry.key, entry);
+            if (old != null) {
+                detach(old);
+            }
+
+            for (String tag : entry.tags) {
+                keysByTag.computeIfAbsent(tag, t -> new HashSet<>()).add(entry.key);
+            }
+
+            link(probation, entry);
+            probationWeight += entry.weight;
+
+            while (probationWeight + protectedWeight > maxWeight) {
+                final Entry victim = probation.prev != probation ? probation.prev : protectedSegment.prev;
+                evictions.inc();
+                removeLocked(victim);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void remove(Entry entry) {
+        evictionLock.lock();
+        try {
+            removeLocked(entry);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void removeLocked(Entry entry) {
+        if (!entries.remove(entry.key, entry)) {
+            return;
+        }
+
+        detach(entry);
+
+        for (String tag : entry.tags) {
+            final Set<Key> keys = keysByTag.get(tag);
+            if (keys != null) {
+                keys.remove(entry.key);
+                if (keys.isEmpty()) {
+                    keysByTag.remove(tag);
+                }
+            }
+        }
+    }
+
+    private void recordRead(Entry entry) {
+        final long n = readCount.getAndIncrement();
+        readBuffer.lazySet((int) (n & (READ_BUFFER_SIZE - 1)), entry);
+
+        if ((n & (READ_BUFFER_SIZE / 2 - 1)) == 0 && evictionLock.tryLock()) {
+            try {
+                drainReads();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    private void drainReads() {
+        final long protectedMax = maxWeight * PROTECTED_PERCENT / 100;
+
+        for (int i = 0; i < READ_BUFFER_SIZE; i++) {
+            final Entry entry = readBuffer.getAndSet(i, null);
+            if (entry == null || !entry.linked) {
+                continue;
+            }
+
+            if (entry.inProtected) {
+                unlink(entry);
+                link(protectedSegment, entry);
+            } else {
+                unlink(entry);
+                link(protectedSegment, entry);
+                entry.inProtected = true;
+                probationWeight -= entry.weight;
+                protectedWeight += entry.weight;
+
+                // demote the least recent back to probation
+                while (protectedWeight > protectedMax && protectedSegment.prev != entry) {
+                    final Entry demoted = protectedSegment.prev;
+                    unlink(demoted);
+                    link(probation, demoted);
+                    demoted.inProtected = false;
+                    protectedWeight -= demoted.weight;
+                    probationWeight += demoted.weight;
+                }
+            }
+        }
+    }
+
+    private static void link(Entry head, Entry entry) {
+        entry.prev = head;
+        entry.next = head.next;
+        head.next.prev = entry;
+        head.next = entry;
+        entry.linked = true;
+    }
+
+    private static void unlink(Entry entry) {
+        entry.prev.next = entry.next;
+        entry.next.prev = entry.prev;
+        entry.prev = null;
+        entry.next = null;
+        entry.linked = false;
+    }
+
+    private void detach(Entry entry) {
+        if (!entry.linked) {
+            return;
+        }
+
+        unlink(entry);
+
+        if (entry.inProtected) {
+            protectedWeight -= entry.weight;
+        } else {
+            probationWeight -= entry.weight;
+        }
+    }
+
+    /**
+     * drops every result tagged with tag
+     */
+    public void invalidate(String tag) {
+        evictionLock.lock();
+        try {
+            generation = generation + 1;
+
+            final Set<Key> keys = keysByTag.remove(tag);
+            if (keys != null) {
+                for (Key key : keys) {
+                    final Entry entry = entries.get(key);
+                    if (entry != null) {
+                        removeLocked(entry);
+                    }
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public void invalidateAll() {
+        evictionLock.lock();
+        try {
+            generation = generation + 1;
+
+            for (Entry entry : entries.values()) {
+                removeLocked(entry);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getWeight() {
+        evictionLock.lock();
+        try {
+            return probationWeight + protectedWeight;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public void listen(String channel) throws InterruptedException {
+        listen(channel, 10000);
+    }
+
+    /**
+     * LISTEN on channel (on its own connection), every payload is a tag to invalidate
+     * <p/>
+     * returns once the LISTEN is active, everything cached before that is invalidated since
+     * its notifications were missed.
+     *
+     * @throws IllegalStateException if the LISTEN is not active within timeoutMillis
+     */
+    public synchronized void listen(String channel, long timeoutMillis) throws InterruptedException {
+        if (listener != null) {
+            throw new IllegalStateException("already listening");
+        }
+
+        final Counter errors = pool.getDatabase().metricRegistry.counter(MetricRegistry.name("shadow-pgsql", "cache", "listener", "errors"));
+        final ChannelListener listener = new ChannelListener(pool.getDatabase(), channel, "shadow-pgsql-cache-listener", this::invalidate, this::invalidateAll, errors);
+        listener.start();
+
+        try {
+            if (!listener.awaitListening(timeoutMillis)) {
+                throw new IllegalStateException(String.format("LISTEN %s not active after %dms", channel, timeoutMillis));
+            }
+        } catch (InterruptedException | RuntimeException e) {
+            listener.stop();
+            throw e;
+        }
+
+        this.listener = listener;
+        invalidateAll();
+    }
+
+    /**
+     * SQL to install a trigger on table that sends the table name (without schema) to channel after every change
+     */
+    public static List<String> invalidationTriggerSQL(String channel, String table) {
+        Catalog.checkChannel(channel);
+        if (table == null || !table.matches("([a-z_][a-z0-9_]*\\.)?[a-z_][a-z0-9_]*")) {
+            throw new IllegalArgumentException(String.format("invalid table name: %s", table));
+        }
+
+        final String function = "shadow_pgsql_notify_" + channel;
+
+        return Arrays.asList(
+                "CREATE OR REPLACE FUNCTION " + function + "() RETURNS trigger LANGUAGE plpgsql AS $$" +
+                        " BEGIN PERFORM pg_notify('" + channel + "', TG_TABLE_NAME); RETURN NULL; END $$",
+                "DROP TRIGGER IF EXISTS " + function + " ON " + table,
+                "CREATE TRIGGER " + function + " AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON " + table +
+                        " FOR EACH STATEMENT EXECUTE PROCEDURE " + function + "()");
+    }
+
+    /**
+     * stops listening, the pool is not closed
+     */
+    @Override
+    public synchronized void close() {
+        if (listener != null) {
+            listener.stop();
+            listener = null;
+        }
+    }
+}
@@ -1,8 +1,12 @@
 package shadow.pgsql;
 
+import shadow.pgsql.types.TypedArray;
+
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -15,6 +19,8 @@ import java.util.regex.Pattern;
  * <p/>
  * Query returns Data
  * Statement only returns the StatementResult (usually how many rows were affected)
+ * <p/>
+ * readOnly SQL may be sent to a replica, see DatabaseRouter
  */
 public final class SQL {
     public enum Type {
@@ -30,8 +36,13 @@ public final class SQL {
     private final TypeRegistry typeRegistry;
     private final ResultBuilder.Factory resultBuilder;
     private final RowBuilder.Factory rowBuilder;
+    private final boolean readOnly;
 
     public SQL(Type type, String name, String sql, int paramCount, List<TypeHandler> parameterTypes, TypeRegistry typeRegistry, ResultBuilder.Factory resultBuilder, RowBuilder.Factory rowBuilder) {
+        this(type, name, sql, paramCount, parameterTypes, typeRegistry, resultBuilder, rowBuilder, false);
+    }
+
+    public SQL(Type type, String name, String sql, int paramCount, List<TypeHandler> parameterTypes, TypeRegistry typeRegistry, ResultBuilder.Factory resultBuilder, RowBuilder.Factory rowBuilder, boolean readOnly) {
         this.type = type;
         this.name = name;
         this.sql = sql;
@@ -40,12 +51,17 @@ public final class SQL {
         this.typeRegistry = typeRegistry;
         this.resultBuilder = resultBuilder;
         this.rowBuilder = rowBuilder;
+        this.readOnly = readOnly;
     }
 
     public Type getType() {
         return type;
     }
 
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
     public int getParamCount() {
         return paramCount;
     }
@@ -96,6 +112,8 @@ public final class SQL {
         private ResultBuilder.Factory resultBuilder = null;
         private RowBuilder.Factory rowBuilder = null;
         private List<TypeHandler> paramTypes = new ArrayList<>();
+        private boolean readOnly = false;
+        private final Set<Integer> inParams = new LinkedHashSet<>();
 
         Builder(Type type, String sql) {
             this.type = type;
@@ -130,11 +148,37 @@ public final class SQL {
             return paramTypes;
         }
 
+        public boolean isReadOnly() {
+            return readOnly;
+        }
+
         public Builder withName(String name) {
             this.name = name;
             return this;
         }
 
+        /**
+         * the SQL doesn't modify anything, so it may run on a replica
+         */
+        public Builder withReadOnly(boolean readOnly) {
+            this.readOnly = readOnly;
+            return this;
+        }
+
+        /**
+         * "x IN ($param)" takes a Collection (or array) of any length, rewritten to "x = ANY($param)"
+         * (NOT IN to "<> ALL"), so the SQL string is the same for every length.
+         * <p/>
+         * the type given for param (see addParameterType) is the element type and is required.
+         */
+        public Builder withInParam(int param) {
+            if (param < 1) {
+                throw new IllegalArgumentException("params start at $1");
+            }
+            this.inParams.add(param);
+            return this;
+        }
+
         public Builder withTypeRegistry(TypeRegistry types) {
             this.typeRegistry = types;
             return this;
@@ -192,13 +236,64 @@ public final class SQL {
         public SQL create() {
             int paramCount = getParamCount();
 
+            String sql = this.sql;
+            List<TypeHandler> paramTypes = this.paramTypes;
+
+            if (!inParams.isEmpty()) {
+                paramTypes = new ArrayList<>(paramTypes);
+                for (int param : inParams) {
+                    sql = expandInParam(sql, param);
+
+                    if (param > paramTypes.size() || paramTypes.get(param - 1) == null) {
+                        throw new IllegalArgumentException(String.format("IN ($%d) needs the element type of $%d", param, param));
+                    }
+
+                    paramTypes.set(param - 1, arrayTypeFor(paramTypes.get(param - 1)));
+                }
+            }
+
             if (type == Type.QUERY) {
-                return new SQL(type, name, sql, paramCount, paramTypes, typeRegistry, resultBuilder, rowBuilder);
+                return new SQL(type, name, sql, paramCount, paramTypes, typeRegistry, resultBuilder, rowBuilder, readOnly);
             } else {
-                return new SQL(type, name, sql, paramCount, paramTypes, typeRegistry, null, null);
+                return new SQL(type, name, sql, paramCount, paramTypes, typeRegistry, null, null, readOnly);
             }
         }
 
+        static String expandInParam(String sql, int param) {
+            final Matcher m = Pattern.compile("(?i)(\\bNOT\\s+)?\\bIN\\s*\\(\\s*\\$" + param + "\\s*\\)").matcher(sql);
+
+            final StringBuffer sb = new StringBuffer();
+            boolean found = false;
+            while (m.find()) {
+                found = true;
+                final String replacement = m.group(1) != null ? "<> ALL($" + param + ")" : "= ANY($" + param + ")";
+                m.appendReplacement(sb, Matcher.quoteReplacement(replacement));
+            }
+            m.appendTail(sb);
+
+            if (!found) {
+                throw new IllegalArgumentException(String.format("no IN ($%d) found in: %s", param, sql));
+            }
+
+            return sb.toString();
+        }
+
+        private static TypeHandler arrayTypeFor(TypeHandler elementType) {
+            if (elementType instanceof TypedArray) {
+                return elementType;
+            }
+
+            int oid;
+            try {
+                oid = TypedArray.arrayOidForType(elementType);
+            } catch (IllegalArgumentException e) {
+                // enums, named types, ... the array type is looked up by its name (_element) when used
+                oid = -1;
+            }
+
+            return new TypedArray(oid, elementType, TypedArray.makeReader(Object.class), true);
+        }
+
         public PreparedSQL prepare(Connection con) throws IOException {
             return con.prepare(this.create());
         }
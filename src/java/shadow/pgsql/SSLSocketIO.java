@@ -260,6 +260,29 @@ public class SSLSocketIO implements IO {
         buf.flip();
     }
 
+    @Override
+    public boolean hasInput() throws IOException {
+        if (in.hasRemaining() || sslIn.hasRemaining()) {
+            return true;
+        }
+
+        // recv unwraps whatever ends up in sslIn
+        sslIn.clear();
+        final int read;
+        channel.configureBlocking(false);
+        try {
+            read = channel.read(sslIn);
+        } finally {
+            channel.configureBlocking(true);
+        }
+        sslIn.flip();
+
+        if (read < 0) {
+            throw new EOFException();
+        }
+        return sslIn.hasRemaining();
+    }
+
     @Override
     public void close() throws IOException {
         // FIXME: proper ssl shutdown
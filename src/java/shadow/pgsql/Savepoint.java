@@ -15,10 +15,10 @@ public class Savepoint {
     }
 
     public void release() throws IOException {
-        con.simpleStatement(String.format("RELEASE SAVEPOINT %s", name));
+        con.defer(String.format("RELEASE SAVEPOINT %s", name));
     }
 
     public void rollback() throws IOException {
-        con.simpleStatement(String.format("ROLLBACK TO SAVEPOINT %s", name));
+        con.defer(String.format("ROLLBACK TO SAVEPOINT %s", name));
     }
 }
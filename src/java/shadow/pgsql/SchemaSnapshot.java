@@ -0,0 +1,162 @@
+package shadow.pgsql;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * What the Catalog knew at some point, stored on disk so a new process doesn't have to look everything up again
+ * <p/>
+ * Only valid for the server state identified by fingerprint, see fetchFingerprint. The fingerprint
+ * is only reliable with the event trigger of Catalog.eventTriggerSQL installed.
+ */
+final class SchemaSnapshot {
+    private static final int MAGIC = 0x53504753; // SPGS
+    private static final int VERSION = 1;
+
+    final String fingerprint;
+    final int[] typeOids;
+    final String[] typeNames;
+    final Catalog.Table[] tables;
+
+    SchemaSnapshot(String fingerprint, int[] typeOids, String[] typeNames, Catalog.Table[] tables) {
+        this.fingerprint = fingerprint;
+        this.typeOids = typeOids;
+        this.typeNames = typeNames;
+        this.tables = tables;
+    }
+
+    // bumped by the event trigger of Catalog.eventTriggerSQL in the same transaction as the DDL
+    // schema qualified, the search_path of whoever runs DDL or reads the fingerprint doesn't matter
+    static final String DDL_VERSION_TABLE = "public.shadow_pgsql_ddl_version";
+
+    private static final SQL SERVER = SQL.query("SELECT current_setting('server_version_num') || ':' || d.oid," +
+            " to_regclass('" + DDL_VERSION_TABLE + "') IS NOT NULL" +
+            " FROM pg_database d" +
+            " WHERE d.datname = current_database()")
+            .withName("schema.server")
+            .withTypeRegistry(TypeRegistry.BUILTIN)
+            .buildRowsWith(Helpers.ROW_AS_LIST)
+            .buildResultsWith(Helpers.ONE_ROW)
+            .create();
+
+    private static final SQL DDL_VERSION = SQL.query("SELECT version::text FROM " + DDL_VERSION_TABLE)
+            .withName("schema.ddl-version")
+            .withTypeRegistry(TypeRegistry.BUILTIN)
+            .buildRowsWith(Helpers.ONE_COLUMN)
+            .buildResultsWith(Helpers.ONE_ROW)
+            .create();
+
+    // without the trigger only the stats counters of the catalog tables are left, they also move with
+    // temp tables, TRUNCATE, ANALYZE, stats resets, ... so on a busy server they rarely match
+    private static final SQL CATALOG_STATS = SQL.query("SELECT coalesce(sum(n_tup_ins + n_tup_upd + n_tup_del), 0)::text" +
+            " FROM pg_stat_sys_tables" +
+            " WHERE relname IN ('pg_type', 'pg_class', 'pg_attribute', 'pg_enum')")
+            .withName("schema.catalog-stats")
+            .withTypeRegistry(TypeRegistry.BUILTIN)
+            .buildRowsWith(Helpers.ONE_COLUMN)
+            .buildResultsWith(Helpers.ONE_ROW)
+            .create();
+
+    private static final String DDL_MARKER = ":ddl:";
+
+    static String fetchFingerprint(Connection con) throws IOException {
+        final List row = (List) con.queryWith(SERVER);
+        final String server = (String) row.get(0);
+
+        if ((boolean) row.get(1)) {
+            return server + DDL_MARKER + con.queryWith(DDL_VERSION);
+        } else {
+            return server + ":stats:" + con.queryWith(CATALOG_STATS);
+        }
+    }
+
+    /**
+     * true if fingerprint only changes with DDL, false if it is based on the (noisy) catalog stats
+     */
+    static boolean tracksDDL(String fingerprint) {
+        return fingerprint.contains(DDL_MARKER);
+    }
+
+    /**
+     * @return null if the file does not exist or is not a snapshot we understand
+     */
+    static SchemaSnapshot read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+
+            final String fingerprint = in.readUTF();
+
+            final int typeCount = in.readInt();
+            final int[] typeOids = new int[typeCount];
+            final String[] typeNames = new String[typeCount];
+            for (int i = 0; i < typeCount; i++) {
+                typeOids[i] = in.readInt();
+                typeNames[i] = in.readUTF();
+            }
+
+            final Catalog.Table[] tables = new Catalog.Table[in.readInt()];
+            for (int i = 0; i < tables.length; i++) {
+                final int oid = in.readInt();
+                final String name = in.readUTF();
+                final String[] columns = new String[in.readInt()];
+                for (int j = 0; j < columns.length; j++) {
+                    if (in.readBoolean()) {
+                        columns[j] = in.readUTF();
+                    }
+                }
+                tables[i] = new Catalog.Table(oid, name, columns);
+            }
+
+            return new SchemaSnapshot(fingerprint, typeOids, typeNames, tables);
+        } catch (NoSuchFileException | EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * written to a temp file first and moved into place, readers never see a partial snapshot
+     */
+    void write(Path file) throws IOException {
+        final Path parent = file.toAbsolutePath().getParent();
+        final Path tmp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(fingerprint);
+
+                out.writeInt(typeOids.length);
+                for (int i = 0; i < typeOids.length; i++) {
+                    out.writeInt(typeOids[i]);
+                    out.writeUTF(typeNames[i]);
+                }
+
+                out.writeInt(tables.length);
+                for (Catalog.Table table : tables) {
+                    out.writeInt(table.oid);
+                    out.writeUTF(table.name);
+
+                    final List<String> columns = table.getColumns();
+                    out.writeInt(columns.size());
+                    for (String column : columns) {
+                        out.writeBoolean(column != null);
+                        if (column != null) {
+                            out.writeUTF(column);
+                        }
+                    }
+                }
+            }
+
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package shadow.pgsql;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One DatabasePool per shard, keys are mapped to shards by consistent hashing
+ * <p/>
+ * Every shard gets virtualNodes points on a hash ring, placed by the shard name. A key belongs to the
+ * first point at or after its hash. Adding a shard only moves the keys the new shard takes over,
+ * so names must stay the same once data was placed by them.
+ * <p/>
+ * queryAll runs the same SQL on every shard in parallel and merges the results of each shard
+ * (whatever the SQL ResultBuilder produced) with the given ResultBuilder, in the order the shards complete.
+ */
+public class ShardedDatabase implements AutoCloseable {
+    /**
+     * maps a shard key to its position on the ring
+     */
+    @FunctionalInterface
+    public interface KeyHasher {
+        long hash(Object key);
+    }
+
+    /**
+     * hashes the string representation, so 1, 1L and "1" are on the same shard
+     */
+    public static final KeyHasher DEFAULT_HASHER = key -> hash64(key.toString().getBytes(StandardCharsets.UTF_8));
+
+    /**
+     * merges shard results that are collections into one list
+     */
+    public static final ResultBuilder<List, List, Collection> CONCAT = new ResultBuilder<List, List, Collection>() {
+        @Override
+        public List init() {
+            return new ArrayList();
+        }
+
+        @Override
+        public List add(List state, Collection shardResult) {
+            state.addAll(shardResult);
+            return state;
+        }
+
+        @Override
+        public List complete(List state) {
+            return state;
+        }
+    };
+
+    private static final AtomicInteger shardedSeq = new AtomicInteger(0);
+
+    private final String[] names;
+    private final DatabasePool[] pools;
+    private final KeyHasher hasher;
+
+    // sorted points, ringShards[i] owns ringPoints[i]
+    private final long[] ringPoints;
+    private final int[] ringShards;
+
+    private final ExecutorService executor;
+
+    public ShardedDatabase(Map<String, DatabasePool> shards) {
+        this(shards, DEFAULT_HASHER, 128);
+    }
+
+    public ShardedDatabase(Map<String, DatabasePool> shards, KeyHasher hasher, int virtualNodes) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("need at least one shard");
+        }
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("virtualNodes must be positive");
+        }
+
+        this.names = new String[shards.size()];
+        this.pools = new DatabasePool[shards.size()];
+        this.hasher = hasher;
+
+        int i = 0;
+        for (Map.Entry<String, DatabasePool> e : shards.entrySet()) {
+            names[i] = e.getKey();
+            pools[i] = e.getValue();
+            i++;
+        }
+
+        final int size = names.length * virtualNodes;
+        final long[][] points = new long[size][];
+        for (int shard = 0, p = 0; shard < names.length; shard++) {
+            for (int v = 0; v < virtualNodes; v++, p++) {
+                final long point = hash64(String.format("%s#%d", names[shard], v).getBytes(StandardCharsets.UTF_8));
+                points[p] = new long[]{point, shard};
+            }
+        }
+
+        // ties go to the shard name sorted first, so the ring does not depend on map order
+        Arrays.sort(points, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : names[(int) a[1]].compareTo(names[(int) b[1]]));
+
+        this.ringPoints = new long[size];
+        this.ringShards = new int[size];
+        for (int p = 0; p < size; p++) {
+            ringPoints[p] = points[p][0];
+            ringShards[p] = (int) points[p][1];
+        }
+
+        final int id = shardedSeq.incrementAndGet();
+        final AtomicInteger threadSeq = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(r -> {
+            final Thread t = new Thread(r, String.format("shadow-pgsql-sharded-%d-%d", id, threadSeq.incrementAndGet()));
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public List<String> getShardNames() {
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+
+    public DatabasePool getShard(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return pools[i];
+            }
+        }
+        throw new IllegalArgumentException(String.format("no shard named %s", name));
+    }
+
+    private int shardIndex(Object key) {
+        if (key == null) {
+            throw new IllegalArgumentException("shard key must not be null");
+        }
+
+        final long hash = hasher.hash(key);
+
+        int idx = Arrays.binarySearch(ringPoints, hash);
+        if (idx < 0) {
+            idx = -idx - 1;
+        } else {
+            // first of equal points
+            while (idx > 0 && ringPoints[idx - 1] == hash) {
+                idx--;
+            }
+        }
+        if (idx == ringPoints.length) {
+            idx = 0;
+        }
+
+        return ringShards[idx];
+    }
+
+    public String getShardNameForKey(Object key) {
+        return names[shardIndex(key)];
+    }
+
+    public DatabasePool getShardForKey(Object key) {
+        return pools[shardIndex(key)];
+    }
+
+    public <RESULT> RESULT withConnection(Object key, DatabaseTask<RESULT> task) throws Exception {
+        return getShardForKey(key).withConnection(task);
+    }
+
+    /**
+     * runs task on every shard in parallel, waits for all of them
+     * <p/>
+     * if any fail the first failure is thrown, with the others suppressed
+     *
+     * @return shard name -> task result
+     */
+    public <RESULT> Map<String, RESULT> withEachShard(DatabaseTask<RESULT> task) throws Exception {
+        final Map<String, RESULT> results = new LinkedHashMap<>();
+        forEachShard(task, (shard, result) -> results.put(names[shard], result));
+        return results;
+    }
+
+    /**
+     * runs sql on every shard in parallel, each shard result is added to merge as soon as it completes
+     */
+    public <ACC, RESULT, SHARD_RESULT> RESULT queryAll(SQL sql, ResultBuilder<ACC, RESULT, SHARD_RESULT> merge, Object... params) throws Exception {
+        if (!sql.expectsData()) {
+            throw new IllegalArgumentException("use withEachShard for statements");
+        }
+
+        final List<Object> paramList = Arrays.asList(params);
+        final Object[] acc = new Object[]{merge.init()};
+
+        forEachShard(con -> con.query(sql, paramList), (shard, result) -> {
+            acc[0] = merge.add((ACC) acc[0], (SHARD_RESULT) result);
+        });
+
+        return merge.complete((ACC) acc[0]);
+    }
+
+    @FunctionalInterface
+    private interface ShardResultHandler<RESULT> {
+        void handle(int shard, RESULT result);
+    }
+
+    // results are handled on the calling thread, so handlers don't need to be thread safe
+    private <RESULT> void forEachShard(DatabaseTask<RESULT> task, ShardResultHandler<RESULT> handler) throws Exception {
+        final CompletionService<Object[]> completion = new ExecutorCompletionService<>(executor);
+
+        for (int i = 0; i < pools.length; i++) {
+            final int shard = i;
+            final DatabasePool pool = pools[i];
+            completion.submit(() -> new Object[]{shard, pool.withConnection(task)});
+        }
+
+        Exception failure = null;
+        for (int i = 0; i < pools.length; i++) {
+            try {
+                final Object[] done = completion.take().get();
+                if (failure == null) {
+                    handler.handle((Integer) done[0], (RESULT) done[1]);
+                }
+            } catch (ExecutionException e) {
+                final Exception cause = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                if (failure == null) {
+                    failure = cause;
+                } else {
+                    failure.addSuppressed(cause);
+                }
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * 64bit FNV-1a with the murmur3 finalizer, the finalizer spreads similar keys (tenant-1, tenant-2) over the ring
+     */
+    static long hash64(byte[] bytes) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            h ^= (b & 0xFF);
+            h *= 0x100000001b3L;
+        }
+
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * stops the scatter threads, the pools are not closed
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
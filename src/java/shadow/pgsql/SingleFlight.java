@@ -0,0 +1,110 @@
+package shadow.pgsql;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Collapses identical queries running at the same time into one
+ * <p/>
+ * Queries are identical if they use the same SQL instance and equal params (arrays compared by content).
+ * The first caller runs the query on a pool connection, everyone arriving while it runs waits for it
+ * and gets the very same result (or exception). The result is shared between threads, so it must not be
+ * modified, build immutable results if you collapse queries.
+ * <p/>
+ * Only use it for queries where a result that was computed a moment ago is acceptable.
+ */
+public class SingleFlight {
+    private final DatabasePool pool;
+    private final ConcurrentHashMap<Object, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final Counter collapsedCounter;
+
+    static final class Key {
+        final SQL sql;
+        final Object[] params;
+        final int hash;
+
+        Key(SQL sql, Object[] params) {
+            this.sql = sql;
+            this.params = params;
+            this.hash = 31 * System.identityHashCode(sql) + Arrays.deepHashCode(params);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return sql == other.sql && hash == other.hash && Arrays.deepEquals(params, other.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    public SingleFlight(DatabasePool pool) {
+        this.pool = pool;
+        this.collapsedCounter = pool.getDatabase().metricRegistry.counter(MetricRegistry.name("shadow-pgsql", "single-flight", "collapsed"));
+    }
+
+    public DatabasePool getPool() {
+        return pool;
+    }
+
+    public Object queryWith(SQL sql, Object... params) throws Exception {
+        return query(sql, Arrays.asList(params));
+    }
+
+    public Object query(SQL sql, List<Object> params) throws Exception {
+        if (!sql.expectsData()) {
+            throw new IllegalArgumentException("only queries can be collapsed");
+        }
+
+        return run(new Key(sql, params.toArray()), con -> con.query(sql, params));
+    }
+
+    /**
+     * runs task unless a task with an equal key is running already, in which case its result is returned
+     */
+    <RESULT> RESULT run(Object key, DatabaseTask<RESULT> task) throws Exception {
+        final CompletableFuture<Object> mine = new CompletableFuture<>();
+
+        final CompletableFuture<Object> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            collapsedCounter.inc();
+            try {
+                return (RESULT) running.get();
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw e;
+            }
+        }
+
+        try {
+            final RESULT result = pool.withConnection(task);
+            mine.complete(result);
+            return result;
+        } catch (Throwable e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+}
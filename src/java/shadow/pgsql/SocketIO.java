@@ -149,6 +149,34 @@ public class SocketIO implements IO {
         return frame;
     }
 
+    @Override
+    public boolean hasInput() throws IOException {
+        if (nextLimit > nextPosition) {
+            return true;
+        }
+
+        // keep whatever a non-blocking read gets for nextFrame
+        recvBuffer.clear();
+        final int read;
+        channel.configureBlocking(false);
+        try {
+            read = channel.read(recvBuffer);
+        } finally {
+            channel.configureBlocking(true);
+        }
+        recvBuffer.flip();
+
+        nextPosition = 0;
+        nextLimit = recvBuffer.limit();
+        // consumed as far as nextFrame is concerned
+        recvBuffer.position(nextLimit);
+
+        if (read < 0) {
+            throw new EOFException();
+        }
+        return nextLimit > 0;
+    }
+
     @Override
     public void close() throws IOException {
         channel.close();
@@ -116,6 +116,11 @@ public class StreamIO implements IO {
         return frame;
     }
 
+    @Override
+    public boolean hasInput() throws IOException {
+        return in.available() > 0;
+    }
+
     @Override
     public void close() throws IOException {
         this.out.close();
@@ -0,0 +1,58 @@
+package shadow.pgsql;
+
+/**
+ * What the catalog (pg_type, pg_enum, pg_attribute) knows about a type that has no registered TypeHandler
+ * <p/>
+ * Used to build TypeHandlers for enums, composites, domains and arrays of those.
+ */
+public class TypeInfo {
+    public static final char TYPE_BASE = 'b';
+    public static final char TYPE_COMPOSITE = 'c';
+    public static final char TYPE_DOMAIN = 'd';
+    public static final char TYPE_ENUM = 'e';
+
+    public static final char CATEGORY_ARRAY = 'A';
+
+    public final int oid;
+    public final String name;
+    public final char type;
+    public final char category;
+    public final int relationOid;
+    public final int elementOid;
+    public final int baseTypeOid;
+
+    /**
+     * enum labels in sort order, null if not an enum
+     */
+    public final String[] enumLabels;
+
+    /**
+     * attributes of a composite type, null if not a composite
+     */
+    public final ColumnInfo[] attributes;
+
+    public TypeInfo(int oid, String name, char type, char category, int relationOid, int elementOid, int baseTypeOid, String[] enumLabels, ColumnInfo[] attributes) {
+        this.oid = oid;
+        this.name = name;
+        this.type = type;
+        this.category = category;
+        this.relationOid = relationOid;
+        this.elementOid = elementOid;
+        this.baseTypeOid = baseTypeOid;
+        this.enumLabels = enumLabels;
+        this.attributes = attributes;
+    }
+
+    public boolean isArray() {
+        return category == CATEGORY_ARRAY && elementOid != 0;
+    }
+
+    @Override
+    public String toString() {
+        return "TypeInfo{" +
+                "oid=" + oid +
+                ", name='" + name + '\'' +
+                ", type=" + type +
+                '}';
+    }
+}
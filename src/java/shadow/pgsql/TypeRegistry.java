@@ -1,10 +1,18 @@
 package shadow.pgsql;
 
+import shadow.pgsql.types.Composite;
+import shadow.pgsql.types.EnumType;
+import shadow.pgsql.types.TypedArray;
 import shadow.pgsql.types.Types;
+import shadow.pgsql.utils.LongMap;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Immutable Type Registry
@@ -22,7 +30,15 @@ import java.util.Map;
  * <p/>
  * Want to handle timestamp/timestamptz as JodaTime? No problem.
  * <p/>
+ * Types without a registered handler are looked up in the catalog, enums, composites, domains
+ * and arrays of those get a handler built automatically. Enums decode into their labels unless
+ * an Enum class was registered via .registerEnumType, composites decode via the RowBuilder
+ * registered with .registerCompositeType (default: Map).
+ * <p/>
  * TypeRegistry is thread-safe and you'll usually just have one per project.
+ * <p/>
+ * Lookups go through a Resolved version of the registry that is compiled once per Database,
+ * since that is where oids for named types and table columns are known.
  *
  * @author Thomas Heller
  */
@@ -31,22 +47,43 @@ public class TypeRegistry {
     private final Map<Integer, TypeHandler> typeHandlers;
     private final Map<String, TypeHandler> namedTypeHandlers;
     private final Map<ColumnByName, TypeHandler> customHandlers;
+    private final Map<String, Class<? extends Enum>> enumTypes;
+    private final Map<String, RowBuilder.Factory> compositeTypes;
+    // only the handlers registered by oid, never looks at the catalog
+    private final boolean builtinOnly;
+
+    // most apps use one Database, saves the lookup in Database
+    private volatile Resolved lastResolved;
 
-    public static final TypeRegistry DEFAULT = createDefault();
+    public static final TypeRegistry DEFAULT = createDefault(false);
+
+    /**
+     * DEFAULT without named types or catalog lookups, used by the catalog queries themselves
+     * since resolving any other registry has to query the catalog first
+     */
+    static final TypeRegistry BUILTIN = createDefault(true);
 
     public static class Builder {
         private final Map<Integer, TypeHandler> typeHandlers;
         private final Map<String, TypeHandler> namedTypeHandlers;
         private final Map<ColumnByName, TypeHandler> customHandlers;
+        private final Map<String, Class<? extends Enum>> enumTypes;
+        private final Map<String, RowBuilder.Factory> compositeTypes;
 
         Builder() {
             this(new HashMap<>(), new HashMap<>(), new HashMap<>());
         }
 
         public Builder(Map<Integer, TypeHandler> typeHandlers, Map<String, TypeHandler> namedTypeHandlers, Map<ColumnByName, TypeHandler> customHandlers) {
+            this(typeHandlers, namedTypeHandlers, customHandlers, new HashMap<>(), new HashMap<>());
+        }
+
+        public Builder(Map<Integer, TypeHandler> typeHandlers, Map<String, TypeHandler> namedTypeHandlers, Map<ColumnByName, TypeHandler> customHandlers, Map<String, Class<? extends Enum>> enumTypes, Map<String, RowBuilder.Factory> compositeTypes) {
             this.typeHandlers = typeHandlers;
             this.namedTypeHandlers = namedTypeHandlers;
             this.customHandlers = customHandlers;
+            this.enumTypes = enumTypes;
+            this.compositeTypes = compositeTypes;
         }
 
         public Builder registerTypeHandler(TypeHandler handler) {
@@ -64,12 +101,28 @@ public class TypeRegistry {
             return this;
         }
 
+        /**
+         * decode the postgres enum typeName into constants of enumClass (matched by name)
+         */
+        public Builder registerEnumType(String typeName, Class<? extends Enum> enumClass) {
+            this.enumTypes.put(typeName, enumClass);
+            return this;
+        }
+
+        /**
+         * decode the composite typeName using the given RowBuilder
+         */
+        public Builder registerCompositeType(String typeName, RowBuilder.Factory rowBuilder) {
+            this.compositeTypes.put(typeName, rowBuilder);
+            return this;
+        }
+
         public TypeRegistry build() {
-            return new TypeRegistry(typeHandlers, namedTypeHandlers, customHandlers);
+            return new TypeRegistry(typeHandlers, namedTypeHandlers, customHandlers, enumTypes, compositeTypes);
         }
     }
 
-    private static TypeRegistry createDefault() {
+    private static TypeRegistry createDefault(boolean builtinOnly) {
         Builder b = new Builder();
 
         TypeHandler[] defaults = new TypeHandler[]{
@@ -80,11 +133,16 @@ public class TypeRegistry {
                 Types.INT8,
                 Types.INT8_ARRAY,
                 Types.FLOAT4,
+                Types.FLOAT4_ARRAY,
                 Types.FLOAT8,
+                Types.FLOAT8_ARRAY,
                 Types.OID,
+                Types.OID_ARRAY,
                 Types.NUMERIC,
                 Types.NUMERIC_ARRAY,
                 Types.NAME,
+                Types.PGCHAR,
+                Types.CHAR,
                 Types.TEXT,
                 Types.TEXT_ARRAY,
                 Types.VARCHAR,
@@ -94,23 +152,64 @@ public class TypeRegistry {
                 Types.TIMESTAMPTZ,
                 Types.TIMESTAMPTZ_ARRAY,
                 Types.DATE,
+                Types.DATE_ARRAY,
+                Types.TIME,
+                Types.TIMETZ,
+                Types.INTERVAL,
                 Types.BYTEA,
+                Types.BYTEA_ARRAY,
                 Types.BOOL,
+                Types.BOOL_ARRAY,
                 Types.HSTORE,
-                Types.UUID
+                Types.VECTOR,
+                Types.HALFVEC,
+                Types.SPARSEVEC,
+                Types.GEOMETRY,
+                Types.GEOGRAPHY,
+                Types.UUID,
+                Types.UUID_ARRAY,
+                Types.INET,
+                Types.CIDR,
+                Types.MACADDR,
+                Types.MACADDR8,
+                Types.BIT,
+                Types.VARBIT,
+                Types.INT4RANGE,
+                Types.INT8RANGE,
+                Types.NUMRANGE,
+                Types.TSRANGE,
+                Types.TSTZRANGE,
+                Types.DATERANGE,
+                Types.INT4MULTIRANGE,
+                Types.INT8MULTIRANGE,
+                Types.NUMMULTIRANGE,
+                Types.TSMULTIRANGE,
+                Types.TSTZMULTIRANGE,
+                Types.DATEMULTIRANGE
         };
 
         for (TypeHandler t : defaults) {
             b.registerTypeHandler(t);
         }
 
-        return b.build();
+        return new TypeRegistry(b.typeHandlers, b.namedTypeHandlers, b.customHandlers, b.enumTypes, b.compositeTypes, builtinOnly);
     }
 
     public TypeRegistry(Map<Integer, TypeHandler> typeHandlers, Map<String, TypeHandler> namedTypeHandlers, Map<ColumnByName, TypeHandler> customHandlers) {
+        this(typeHandlers, namedTypeHandlers, customHandlers, new HashMap<>(), new HashMap<>());
+    }
+
+    public TypeRegistry(Map<Integer, TypeHandler> typeHandlers, Map<String, TypeHandler> namedTypeHandlers, Map<ColumnByName, TypeHandler> customHandlers, Map<String, Class<? extends Enum>> enumTypes, Map<String, RowBuilder.Factory> compositeTypes) {
+        this(typeHandlers, namedTypeHandlers, customHandlers, enumTypes, compositeTypes, false);
+    }
+
+    private TypeRegistry(Map<Integer, TypeHandler> typeHandlers, Map<String, TypeHandler> namedTypeHandlers, Map<ColumnByName, TypeHandler> customHandlers, Map<String, Class<? extends Enum>> enumTypes, Map<String, RowBuilder.Factory> compositeTypes, boolean builtinOnly) {
+        this.builtinOnly = builtinOnly;
         this.typeHandlers = Collections.unmodifiableMap(typeHandlers);
         this.namedTypeHandlers = Collections.unmodifiableMap(namedTypeHandlers);
         this.customHandlers = Collections.unmodifiableMap(customHandlers);
+        this.enumTypes = Collections.unmodifiableMap(enumTypes);
+        this.compositeTypes = Collections.unmodifiableMap(compositeTypes);
     }
 
     public static Builder copyDefault() {
@@ -121,57 +220,280 @@ public class TypeRegistry {
         Map<Integer, TypeHandler> types = new HashMap<>();
         Map<String, TypeHandler> namedTypes = new HashMap<>();
         Map<ColumnByName, TypeHandler> handlers = new HashMap<>();
+        Map<String, Class<? extends Enum>> enums = new HashMap<>();
+        Map<String, RowBuilder.Factory> composites = new HashMap<>();
 
         types.putAll(this.typeHandlers);
         namedTypes.putAll(this.namedTypeHandlers);
         handlers.putAll(this.customHandlers);
+        enums.putAll(this.enumTypes);
+        composites.putAll(this.compositeTypes);
 
-        return new Builder(types, namedTypes, handlers);
+        return new Builder(types, namedTypes, handlers, enums, composites);
+    }
+
+    Resolved resolve(Database pg) {
+        Resolved resolved = lastResolved;
+        if (resolved == null || resolved.db != pg || resolved.stale) {
+            resolved = pg.getResolvedTypes(this);
+            lastResolved = resolved;
+        }
+        return resolved;
     }
 
     public TypeHandler getTypeHandlerForOid(Database pg, int typeOid) {
+        return resolve(pg).forOid(typeOid);
+    }
+
+    /**
+     * uncached lookup, only called by Resolved for oids it has not seen yet
+     */
+    private TypeHandler findTypeHandlerForOid(Database pg, int typeOid) {
         TypeHandler handler = typeHandlers.get(typeOid);
         if (handler == null) {
             final String name = pg.getNameForOid(typeOid);
 
-            handler = namedTypeHandlers.get(name);
+            if (name != null) {
+                handler = namedTypeHandlers.get(name);
+            }
 
             if (handler == null) {
-                throw new IllegalArgumentException(String.format("unsupported type: %d (%s)", typeOid, name));
+                handler = pg.getCatalogTypeHandler(this, typeOid);
             }
         }
         return handler;
     }
 
+    /**
+     * builds a handler for types that are not registered (enums, composites, domains, arrays of those)
+     * <p/>
+     * called by Database which caches the result
+     */
+    TypeHandler createCatalogTypeHandler(Database pg, TypeInfo info) {
+        // type without oid (eg. hstore) if we didn't know the name before
+        final TypeHandler named = namedTypeHandlers.get(info.name);
+        if (named != null) {
+            return named;
+        }
+
+        switch (info.type) {
+            case TypeInfo.TYPE_ENUM: {
+                final Class<? extends Enum> enumClass = enumTypes.get(info.name);
+                if (enumClass != null) {
+                    return new EnumType(info.oid, info.name, info.enumLabels, enumClass);
+                } else {
+                    return new EnumType(info.oid, info.name, info.enumLabels);
+                }
+            }
+            case TypeInfo.TYPE_COMPOSITE: {
+                final TypeHandler[] handlers = new TypeHandler[info.attributes.length];
+                for (int i = 0; i < handlers.length; i++) {
+                    handlers[i] = getTypeHandlerForField(pg, info.attributes[i]);
+                }
+
+                RowBuilder.Factory rowBuilder = compositeTypes.get(info.name);
+                if (rowBuilder == null) {
+                    rowBuilder = columns -> Helpers.ROW_AS_MAP;
+                }
+
+                return new Composite(info.oid, info.name, info.attributes, handlers, rowBuilder);
+            }
+            case TypeInfo.TYPE_DOMAIN:
+                return getTypeHandlerForOid(pg, info.baseTypeOid);
+            default:
+                if (info.isArray()) {
+                    final TypeHandler itemType = getTypeHandlerForOid(pg, info.elementOid);
+                    final Class<? extends Enum> enumClass = enumTypes.get(itemType.getTypeName());
+
+                    // itemType is the base type for arrays of domains, the array still has the domain as element
+                    return new TypedArray(info.oid, info.elementOid, itemType, TypedArray.makeReader(enumClass != null ? enumClass : Object.class), true);
+                }
+
+                throw new IllegalArgumentException(String.format("unsupported type: %d (%s)", info.oid, info.name));
+        }
+    }
+
     public TypeHandler getTypeHandlerForField(Database pg, ColumnInfo column) {
+        return resolve(pg).forField(column);
+    }
+
+    /**
+     * same as getTypeHandlerForField for every column, types not seen before are looked up together
+     */
+    public TypeHandler[] getTypeHandlersForFields(Database pg, ColumnInfo[] columns) {
+        final Resolved resolved = resolve(pg);
+
+        final int[] oids = new int[columns.length];
+        for (int i = 0; i < oids.length; i++) {
+            oids[i] = columns[i].typeOid;
+        }
+        resolved.prefetch(oids);
+
+        final TypeHandler[] handlers = new TypeHandler[columns.length];
+        for (int i = 0; i < handlers.length; i++) {
+            handlers[i] = resolved.forField(columns[i]);
+        }
+        return handlers;
+    }
+
+    void prefetchTypes(Database pg, int[] oids) {
+        resolve(pg).prefetch(oids);
+    }
+
+    public TypeHandler getTypeHandlerForColumn(String tableName, String columnName) {
+        return customHandlers.get(new ColumnByName(tableName, columnName));
+    }
 
-        // column that belongs to a table
-        if (column.tableOid > 0 || column.positionInTable >= -1) {
-            final String tableName = pg.getNameForOid(column.tableOid);
+    static long columnKey(int tableOid, int positionInTable) {
+        return ((tableOid & 0xFFFFFFFFL) << 16) | (positionInTable & 0xFFFF);
+    }
+
+    /**
+     * The registry compiled against a Database
+     * <p/>
+     * Handlers are indexed by oid, builtin oids in an array, everything else in a LongMap. Named types
+     * are resolved to their oid and column handlers to (tableOid, attnum) up front so a lookup never
+     * allocates. Types that are only discovered later (catalog types) are added on first use.
+     */
+    static final class Resolved {
+        // builtin types are below FirstNormalObjectId
+        private static final int DENSE_OIDS = 16384;
+
+        final Database db;
+        // set when the catalog changed, the next lookup resolves again
+        volatile boolean stale = false;
+        private final TypeRegistry registry;
+        private final TypeHandler[] dense;
+        private final LongMap<TypeHandler> sparse = new LongMap<>();
+        // null if the registry has no column handlers
+        private final LongMap<TypeHandler> columns;
+
+        Resolved(TypeRegistry registry, Database db) {
+            this.registry = registry;
+            this.db = db;
+
+            final Catalog catalog = db.getCatalog();
+            final Map<Integer, TypeHandler> byOid = new HashMap<>();
+
+            // the catalog queries decode via BUILTIN, it must not query the catalog itself
+            if (!registry.builtinOnly) {
+                catalog.loadTypes(registry.namedTypeHandlers.keySet());
+
+                for (TypeHandler handler : registry.namedTypeHandlers.values()) {
+                    final int oid = catalog.getTypeOid(handler.getTypeName());
+                    if (oid != -1) {
+                        byOid.put(oid, handler);
+                    }
+                }
+            }
 
-            // we have table name
-            if (tableName != null) {
-                final String columnName = pg.getNameForColumn(tableName, column.positionInTable);
+            // registered oids take precedence over names
+            byOid.putAll(registry.typeHandlers);
 
-                // DO NOT USE column.name CAUSE THAT MAY BE AN ALIAS
-                // SELECT foo AS bar -- column.name is bar, we want foo
+            int denseSize = 0;
+            for (int oid : byOid.keySet()) {
+                if (oid >= 0 && oid < DENSE_OIDS && oid >= denseSize) {
+                    denseSize = oid + 1;
+                }
+            }
 
-                // the column name is known
-                if (columnName != null) {
-                    final TypeHandler customHandler = getTypeHandlerForColumn(tableName, columnName);
+            this.dense = new TypeHandler[denseSize];
 
-                    if (customHandler != null) {
-                        return customHandler;
+            for (Map.Entry<Integer, TypeHandler> e : byOid.entrySet()) {
+                final int oid = e.getKey();
+                if (oid >= 0 && oid < denseSize) {
+                    dense[oid] = e.getValue();
+                } else {
+                    sparse.putIfAbsent(oid, e.getValue());
+                }
+            }
+
+            if (registry.customHandlers.isEmpty() || registry.builtinOnly) {
+                this.columns = null;
+            } else {
+                this.columns = new LongMap<>();
+
+                final Set<String> tableNames = new HashSet<>();
+                for (ColumnByName column : registry.customHandlers.keySet()) {
+                    tableNames.add(column.table);
+                }
+
+                catalog.loadTables(tableNames);
+
+                for (Map.Entry<ColumnByName, TypeHandler> e : registry.customHandlers.entrySet()) {
+                    final Catalog.Table table = catalog.getTable(e.getKey().table);
+                    final int position = table != null ? table.getColumnPosition(e.getKey().column) : -1;
+
+                    if (position != -1) {
+                        columns.putIfAbsent(columnKey(table.oid, position), e.getValue());
                     }
                 }
             }
         }
 
-        return getTypeHandlerForOid(pg, column.typeOid);
-    }
+        private boolean isKnown(int oid) {
+            if (oid >= 0 && oid < dense.length && dense[oid] != null) {
+                return true;
+            }
+            return sparse.get(oid) != null;
+        }
 
-    public TypeHandler getTypeHandlerForColumn(String tableName, String columnName) {
-        return customHandlers.get(new ColumnByName(tableName, columnName));
+        /**
+         * fetches the catalog info of all oids not seen yet on one connection, instead of one connection
+         * per lookup once forOid gets to them
+         */
+        void prefetch(int[] oids) {
+            if (registry.builtinOnly) {
+                return;
+            }
+
+            List<Integer> unknown = null;
+            for (int oid : oids) {
+                if (!isKnown(oid)) {
+                    if (unknown == null) {
+                        unknown = new ArrayList<>();
+                    }
+                    unknown.add(oid);
+                }
+            }
+
+            if (unknown != null) {
+                db.getCatalog().loadTypeInfos(unknown, this::isKnown);
+            }
+        }
+
+        TypeHandler forOid(int oid) {
+            if (oid >= 0 && oid < dense.length) {
+                final TypeHandler handler = dense[oid];
+                if (handler != null) {
+                    return handler;
+                }
+            }
+
+            final TypeHandler handler = sparse.get(oid);
+            if (handler != null) {
+                return handler;
+            }
+
+            if (registry.builtinOnly) {
+                throw new IllegalStateException(String.format("no builtin type handler for oid: %d", oid));
+            }
+
+            return sparse.putIfAbsent(oid, registry.findTypeHandlerForOid(db, oid));
+        }
+
+        TypeHandler forField(ColumnInfo column) {
+            // DO NOT USE column.name CAUSE THAT MAY BE AN ALIAS
+            // SELECT foo AS bar -- column.name is bar, we want foo
+            if (columns != null && column.tableOid != 0 && column.positionInTable > 0) {
+                final TypeHandler custom = columns.get(columnKey(column.tableOid, column.positionInTable));
+                if (custom != null) {
+                    return custom;
+                }
+            }
+
+            return forOid(column.typeOid);
+        }
     }
 
     private static class ColumnByName {
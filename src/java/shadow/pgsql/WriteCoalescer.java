@@ -0,0 +1,220 @@
+package shadow.pgsql;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Groups small independent writes from many threads into batches
+ * <p/>
+ * Writes arriving within windowMicros of the first (up to maxBatch) are sent together in one flush on one
+ * pool connection, every write in its own Sync group so a failure only fails its own future.
+ * <p/>
+ * transactional runs the batch in one transaction, each write guarded by a savepoint, so the batch costs one
+ * commit (and WAL flush) instead of one per write. A failed write is rolled back to its savepoint, the others
+ * still commit. Futures complete after the COMMIT, if it fails all writes of the batch fail.
+ * <p/>
+ * Without transactional every write commits on its own, only the roundtrips are saved.
+ */
+public class WriteCoalescer implements AutoCloseable {
+    private static final String[] NONE = new String[0];
+    private static final String[] BEFORE_WRITE = new String[]{"ROLLBACK TO SAVEPOINT w"};
+    // RELEASE keeps the savepoint stack at one, skipped if the write failed
+    private static final String[] AFTER_WRITE = new String[]{"RELEASE SAVEPOINT w", "SAVEPOINT w"};
+
+    private static final AtomicInteger coalescerSeq = new AtomicInteger(0);
+
+    static final class Write {
+        final SQL sql;
+        final List params;
+        final CompletableFuture<StatementResult> future = new CompletableFuture<>();
+
+        Write(SQL sql, List params) {
+            this.sql = sql;
+            this.params = params;
+        }
+    }
+
+    private final DatabasePool pool;
+    private final long windowNanos;
+    private final int maxBatch;
+    private final boolean transactional;
+
+    private final BlockingQueue<Write> queue = new LinkedBlockingQueue<>();
+    private final Thread[] flushers;
+    private volatile boolean closed = false;
+    // submits past the closed check that may not have enqueued yet, flushers wait for them before exiting
+    private final AtomicInteger submitting = new AtomicInteger();
+
+    private final Counter writesCounter;
+    private final Counter batchesCounter;
+
+    public WriteCoalescer(DatabasePool pool) {
+        this(pool, 500, 256, true, 1);
+    }
+
+    /**
+     * @param flushers threads sending batches, each uses one pool connection while sending
+     */
+    public WriteCoalescer(DatabasePool pool, long windowMicros, int maxBatch, boolean transactional, int flushers) {
+        if (windowMicros < 0) {
+            throw new IllegalArgumentException("windowMicros must not be negative");
+        }
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("maxBatch must be positive");
+        }
+        if (flushers < 1) {
+            throw new IllegalArgumentException("need at least one flusher");
+        }
+
+        this.pool = pool;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.maxBatch = maxBatch;
+        this.transactional = transactional;
+
+        final MetricRegistry metrics = pool.getDatabase().metricRegistry;
+        this.writesCounter = metrics.counter(MetricRegistry.name("shadow-pgsql", "coalescer", "writes"));
+        this.batchesCounter = metrics.counter(MetricRegistry.name("shadow-pgsql", "coalescer", "batches"));
+
+        final int id = coalescerSeq.incrementAndGet();
+        this.flushers = new Thread[flushers];
+        for (int i = 0; i < flushers; i++) {
+            final Thread t = new Thread(this::run, String.format("shadow-pgsql-coalescer-%d-%d", id, i + 1));
+            t.setDaemon(true);
+            this.flushers[i] = t;
+            t.start();
+        }
+    }
+
+    public CompletableFuture<StatementResult> submitWith(SQL sql, Object... params) {
+        return submit(sql, Arrays.asList(params));
+    }
+
+    public CompletableFuture<StatementResult> submit(SQL sql, List params) {
+        if (sql.expectsData()) {
+            throw new IllegalArgumentException("only statements can be coalesced");
+        }
+
+        submitting.incrementAndGet();
+        try {
+            if (closed) {
+                throw new IllegalStateException("coalescer is closed");
+            }
+
+            final Write write = new Write(sql, params);
+            queue.add(write);
+            writesCounter.inc();
+            return write.future;
+        } finally {
+            submitting.decrementAndGet();
+        }
+    }
+
+    private void run() {
+        final List<Write> batch = new ArrayList<>(maxBatch);
+
+        // closed before submitting, a submit that starts after closed was seen fails its check
+        while (!closed || submitting.get() > 0 || !queue.isEmpty()) {
+            try {
+                final Write first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                final long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatch) {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        queue.drainTo(batch, maxBatch - batch.size());
+                        break;
+                    }
+
+                    final Write next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // close doesn't interrupt, send what we have
+            }
+
+            if (!batch.isEmpty()) {
+                send(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void send(List<Write> batch) {
+        batchesCounter.inc();
+
+        final List<SQL> sqls = new ArrayList<>(batch.size());
+        final List<List> params = new ArrayList<>(batch.size());
+        for (Write write : batch) {
+            sqls.add(write.sql);
+            params.add(write.params);
+        }
+
+        try {
+            final Object[] results = pool.withConnection(con -> {
+                if (!transactional) {
+                    return con.executePipelined(sqls, params, NONE, NONE);
+                }
+
+                con.begin();
+                con.defer("SAVEPOINT w");
+
+                final Object[] pipelined = con.executePipelined(sqls, params, BEFORE_WRITE, AFTER_WRITE);
+
+                // the last write may have failed the transaction
+                con.defer("ROLLBACK TO SAVEPOINT w");
+                con.defer("COMMIT");
+                con.syncDeferred();
+
+                return pipelined;
+            });
+
+            for (int i = 0; i < results.length; i++) {
+                final Object result = results[i];
+                if (result instanceof Exception) {
+                    batch.get(i).future.completeExceptionally((Exception) result);
+                } else {
+                    batch.get(i).future.complete((StatementResult) result);
+                }
+            }
+        } catch (Throwable e) {
+            for (Write write : batch) {
+                write.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * stops accepting writes, waits until everything submitted was sent. the pool is not closed.
+     * <p/>
+     * if the calling thread is interrupted it stops waiting and keeps the interrupt flag set,
+     * the flushers still send what was submitted.
+     */
+    @Override
+    public void close() {
+        closed = true;
+
+        try {
+            for (Thread flusher : flushers) {
+                flusher.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package shadow.pgsql.types;
+
+import shadow.pgsql.ColumnInfo;
+import shadow.pgsql.Connection;
+import shadow.pgsql.ProtocolOutput;
+import shadow.pgsql.TypeHandler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * bit(n) and varbit(n)
+ * <p/>
+ * binary is the bit length followed by the bits packed into bytes, first bit is the high bit of the first byte.
+ * decodes into a Bit.Value backed by a long[], index 0 is the first (leftmost) bit.
+ * <p/>
+ * accepts Bit.Value, boolean[], BitSet and Strings of 0/1 as params. BitSet does not know its
+ * length so it is sent with length() bits which may not match a bit(n) column.
+ */
+public class Bit implements TypeHandler {
+
+    public static final class Value {
+        private final int length;
+        private final long[] words;
+
+        Value(int length, long[] words) {
+            this.length = length;
+            this.words = words;
+        }
+
+        public static Value of(boolean[] bits) {
+            final long[] words = new long[(bits.length + 63) >>> 6];
+            for (int i = 0; i < bits.length; i++) {
+                if (bits[i]) {
+                    words[i >>> 6] |= 1L << (i & 63);
+                }
+            }
+            return new Value(bits.length, words);
+        }
+
+        public static Value of(BitSet bits) {
+            return of(bits, bits.length());
+        }
+
+        public static Value of(BitSet bits, int length) {
+            final long[] words = Arrays.copyOf(bits.toLongArray(), (length + 63) >>> 6);
+            // clear anything beyond length
+            if ((length & 63) != 0) {
+                words[words.length - 1] &= (1L << (length & 63)) - 1;
+            }
+            return new Value(length, words);
+        }
+
+        public static Value parse(String s) {
+            final long[] words = new long[(s.length() + 63) >>> 6];
+            for (int i = 0; i < s.length(); i++) {
+                final char c = s.charAt(i);
+                if (c == '1') {
+                    words[i >>> 6] |= 1L << (i & 63);
+                } else if (c != '0') {
+                    throw new IllegalArgumentException(String.format("invalid bit string: %s", s));
+                }
+            }
+            return new Value(s.length(), words);
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public boolean get(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException(String.format("bit %d out of range, length: %d", index, length));
+            }
+            return (words[index >>> 6] & (1L << (index & 63))) != 0;
+        }
+
+        public BitSet toBitSet() {
+            return BitSet.valueOf(words);
+        }
+
+        public long[] toLongArray() {
+            return words.clone();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Value that = (Value) o;
+
+            return length == that.length && Arrays.equals(words, that.words);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * length + Arrays.hashCode(words);
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder(length);
+            for (int i = 0; i < length; i++) {
+                sb.append(get(i) ? '1' : '0');
+            }
+            return sb.toString();
+        }
+    }
+
+    private final int oid;
+    private final String name;
+
+    public Bit(int oid, String name) {
+        this.oid = oid;
+        this.name = name;
+    }
+
+    @Override
+    public int getTypeOid() {
+        return oid;
+    }
+
+    @Override
+    public String getTypeName() {
+        return name;
+    }
+
+    @Override
+    public boolean supportsBinary() {
+        return true;
+    }
+
+    private Value checkBits(Object param) {
+        if (param instanceof Value) {
+            return (Value) param;
+        } else if (param instanceof boolean[]) {
+            return Value.of((boolean[]) param);
+        } else if (param instanceof BitSet) {
+            return Value.of((BitSet) param);
+        } else if (param instanceof String) {
+            return Value.parse((String) param);
+        } else {
+            throw new IllegalArgumentException(String.format("not a bit string: %s [%s]", param.getClass().getName(), param));
+        }
+    }
+
+    @Override
+    public void encodeBinary(Connection con, ProtocolOutput output, Object param) {
+        final Value bits = checkBits(param);
+        output.int32(bits.length);
+
+        final int bytes = (bits.length + 7) >>> 3;
+        for (int i = 0; i < bytes; i++) {
+            int b = 0;
+            for (int j = 0; j < 8; j++) {
+                final int index = (i << 3) + j;
+                if (index < bits.length && (bits.words[index >>> 6] & (1L << (index & 63))) != 0) {
+                    b |= 0x80 >>> j;
+                }
+            }
+            output.int8(b);
+        }
+    }
+
+    @Override
+    public Object decodeBinary(Connection con, ColumnInfo field, ByteBuffer buf, int size) throws IOException {
+        final int length = buf.getInt();
+        final long[] words = new long[(length + 63) >>> 6];
+
+        final int bytes = (length + 7) >>> 3;
+        for (int i = 0; i < bytes; i++) {
+            final int b = buf.get() & 0xFF;
+            if (b != 0) {
+                for (int j = 0; j < 8; j++) {
+                    if ((b & (0x80 >>> j)) != 0) {
+                        final int index = (i << 3) + j;
+                        words[index >>> 6] |= 1L << (index & 63);
+                    }
+                }
+            }
+        }
+
+        return new Value(length, words);
+    }
+
+    @Override
+    public String encodeToString(Connection con, Object param) {
+        return checkBits(param).toString();
+    }
+
+    @Override
+    public Object decodeString(Connection con, ColumnInfo field, String value) {
+        return Value.parse(value);
+    }
+}
@@ -0,0 +1,129 @@
+package shadow.pgsql.types;
+
+import shadow.pgsql.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * composite (row) type, usually built from the catalog (see TypeRegistry)
+ * <p/>
+ * binary is the number of fields followed by oid, length and value of each field.
+ * the fields are decoded with the given decoders and assembled by a RowBuilder,
+ * exactly like the columns of a query.
+ * <p/>
+ * accepts a Map (by attribute name) or a List (by position) as param.
+ */
+public class Composite implements TypeHandler {
+    private final int oid;
+    private final String name;
+    private final ColumnInfo[] attributes;
+    private final TypeHandler[] handlers;
+    private final RowBuilder rowBuilder;
+
+    public Composite(int oid, String name, ColumnInfo[] attributes, TypeHandler[] handlers, RowBuilder.Factory rowBuilder) {
+        if (attributes.length != handlers.length) {
+            throw new IllegalArgumentException("need one handler per attribute");
+        }
+        this.oid = oid;
+        this.name = name;
+        this.attributes = attributes;
+        this.handlers = handlers;
+        this.rowBuilder = rowBuilder.create(attributes);
+    }
+
+    @Override
+    public int getTypeOid() {
+        return oid;
+    }
+
+    @Override
+    public String getTypeName() {
+        return name;
+    }
+
+    @Override
+    public boolean supportsBinary() {
+        return true;
+    }
+
+    @Override
+    public void encodeBinary(Connection con, ProtocolOutput output, Object param) {
+        final Object[] values = new Object[attributes.length];
+
+        if (param instanceof Map) {
+            final Map m = (Map) param;
+            for (int i = 0; i < attributes.length; i++) {
+                values[i] = m.get(attributes[i].name);
+            }
+        } else if (param instanceof List) {
+            final List l = (List) param;
+            if (l.size() != attributes.length) {
+                throw new IllegalArgumentException(String.format("%s has %d attributes, got %d values", name, attributes.length, l.size()));
+            }
+            l.toArray(values);
+        } else {
+            throw new IllegalArgumentException(String.format("need a map or list for %s: %s", name, param.getClass().getName()));
+        }
+
+        output.int32(attributes.length);
+
+        for (int i = 0; i < attributes.length; i++) {
+            output.int32(attributes[i].typeOid);
+
+            final Object value = values[i];
+            if (value == null) {
+                output.int32(-1);
+            } else {
+                final ProtocolMarker mark = output.beginExclusive();
+                handlers[i].encodeBinary(con, output, value);
+                mark.complete();
+            }
+        }
+    }
+
+    @Override
+    public Object decodeBinary(Connection con, ColumnInfo field, ByteBuffer buf, int size) throws IOException {
+        final int fields = buf.getInt();
+        if (fields != attributes.length) {
+            throw new IllegalStateException(String.format("%s has %d attributes but backend sent %d", name, attributes.length, fields));
+        }
+
+        Object row = rowBuilder.init();
+
+        for (int i = 0; i < fields; i++) {
+            final ColumnInfo attr = attributes[i];
+            final int typeOid = buf.getInt();
+            final int len = buf.getInt();
+
+            if (typeOid != attr.typeOid) {
+                throw new IllegalStateException(String.format("%s.%s expected type %d but got %d", name, attr.name, attr.typeOid, typeOid));
+            }
+
+            Object value = null;
+            if (len != -1) {
+                final int mark = buf.position();
+                value = handlers[i].decodeBinary(con, attr, buf, len);
+                if (buf.position() != mark + len) {
+                    throw new IllegalStateException(String.format("%s.%s did not consume all bytes", name, attr.name));
+                }
+            }
+
+            row = rowBuilder.add(row, attr, i, value);
+        }
+
+        return rowBuilder.complete(row);
+    }
+
+    @Override
+    public String encodeToString(Connection con, Object param) {
+        throw new UnsupportedOperationException("only binary format supported");
+    }
+
+    @Override
+    public Object decodeString(Connection con, ColumnInfo field, String value) {
+        throw new UnsupportedOperationException("only binary format supported");
+    }
+}
@@ -17,7 +17,7 @@ import java.time.temporal.TemporalAccessor;
 public class Date extends AbstractDateTime {
 
     public Date() {
-        super(1082, "date", DateTimeFormatter.ISO_DATE);
+        super(Types.OID_DATE, "date", DateTimeFormatter.ISO_DATE);
     }
 
     @Override
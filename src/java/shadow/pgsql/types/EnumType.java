@@ -0,0 +1,151 @@
+package shadow.pgsql.types;
+
+import shadow.pgsql.ColumnInfo;
+import shadow.pgsql.Connection;
+import shadow.pgsql.ProtocolOutput;
+import shadow.pgsql.TypeHandler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * user defined enum, usually built from the catalog (see TypeRegistry)
+ * <p/>
+ * binary is just the label, decoding compares the bytes against the known labels
+ * and returns the same String (or Enum constant) instance each time so nothing is allocated per value.
+ */
+public class EnumType implements TypeHandler {
+    private final int oid;
+    private final String name;
+
+    private final byte[][] labelBytes;
+    private final Object[] values;
+    private final Map<Object, String> labelForValue;
+
+    /**
+     * decodes into the label strings
+     */
+    public EnumType(int oid, String name, String[] labels) {
+        this(oid, name, labels, labels);
+    }
+
+    /**
+     * decodes into constants of enumClass, matched by name
+     */
+    public EnumType(int oid, String name, String[] labels, Class<? extends Enum> enumClass) {
+        this(oid, name, labels, valuesFor(name, labels, enumClass));
+    }
+
+    private EnumType(int oid, String name, String[] labels, Object[] values) {
+        this.oid = oid;
+        this.name = name;
+        this.values = values;
+        this.labelBytes = new byte[labels.length][];
+        this.labelForValue = new HashMap<>(labels.length * 2);
+
+        for (int i = 0; i < labels.length; i++) {
+            labelBytes[i] = labels[i].getBytes(StandardCharsets.UTF_8);
+            labelForValue.put(values[i], labels[i]);
+        }
+    }
+
+    private static Object[] valuesFor(String name, String[] labels, Class<? extends Enum> enumClass) {
+        final Enum[] constants = enumClass.getEnumConstants();
+        final Object[] values = new Object[labels.length];
+
+        LABELS:
+        for (int i = 0; i < labels.length; i++) {
+            final String label = labels[i];
+            for (Enum e : constants) {
+                if (e.name().equals(label)) {
+                    values[i] = e;
+                    continue LABELS;
+                }
+            }
+            // allow 'some-label' or 'some label' to map to SOME_LABEL
+            final String alt = label.replace('-', '_').replace(' ', '_');
+            for (Enum e : constants) {
+                if (e.name().equalsIgnoreCase(alt)) {
+                    values[i] = e;
+                    continue LABELS;
+                }
+            }
+            throw new IllegalArgumentException(String.format("enum %s has no constant for label '%s' of type %s", enumClass.getName(), label, name));
+        }
+
+        return values;
+    }
+
+    @Override
+    public int getTypeOid() {
+        return oid;
+    }
+
+    @Override
+    public String getTypeName() {
+        return name;
+    }
+
+    @Override
+    public boolean supportsBinary() {
+        return true;
+    }
+
+    private String labelFor(Object param) {
+        String label = labelForValue.get(param);
+        if (label == null) {
+            throw new IllegalArgumentException(String.format("not a valid %s: %s [%s]", name, param, param.getClass().getName()));
+        }
+        return label;
+    }
+
+    @Override
+    public void encodeBinary(Connection con, ProtocolOutput output, Object param) {
+        output.write(labelFor(param).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public Object decodeBinary(Connection con, ColumnInfo field, ByteBuffer buf, int size) throws IOException {
+        final int start = buf.position();
+
+        LABELS:
+        for (int i = 0; i < labelBytes.length; i++) {
+            final byte[] label = labelBytes[i];
+            if (label.length != size) {
+                continue;
+            }
+
+            for (int j = 0; j < size; j++) {
+                if (buf.get(start + j) != label[j]) {
+                    continue LABELS;
+                }
+            }
+
+            buf.position(start + size);
+            return values[i];
+        }
+
+        // label was added after we looked at the catalog
+        final byte[] bytes = new byte[size];
+        buf.get(bytes);
+        throw new IllegalStateException(String.format("unknown label for %s: %s", name, new String(bytes, StandardCharsets.UTF_8)));
+    }
+
+    @Override
+    public String encodeToString(Connection con, Object param) {
+        return labelFor(param);
+    }
+
+    @Override
+    public Object decodeString(Connection con, ColumnInfo field, String value) {
+        for (int i = 0; i < values.length; i++) {
+            if (labelForValue.get(values[i]).equals(value)) {
+                return values[i];
+            }
+        }
+        throw new IllegalStateException(String.format("unknown label for %s: %s", name, value));
+    }
+}
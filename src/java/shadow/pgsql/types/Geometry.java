@@ -0,0 +1,282 @@
+package shadow.pgsql.types;
+
+import java.util.Arrays;
+
+/**
+ * PostGIS geometry/geography values as decoded by PgGeometry
+ * <p/>
+ * coordinates are kept in flat double[] arrays, x,y[,z][,m] per point.
+ * use getDimensions() to step through them.
+ */
+public abstract class Geometry {
+    // WKB type codes
+    public static final int POINT = 1;
+    public static final int LINESTRING = 2;
+    public static final int POLYGON = 3;
+    public static final int MULTIPOINT = 4;
+    public static final int MULTILINESTRING = 5;
+    public static final int MULTIPOLYGON = 6;
+    public static final int GEOMETRYCOLLECTION = 7;
+
+    protected final int srid;
+    protected final boolean hasZ;
+    protected final boolean hasM;
+
+    Geometry(int srid, boolean hasZ, boolean hasM) {
+        this.srid = srid;
+        this.hasZ = hasZ;
+        this.hasM = hasM;
+    }
+
+    public abstract int getType();
+
+    /**
+     * @return 0 if unknown
+     */
+    public int getSRID() {
+        return srid;
+    }
+
+    public boolean hasZ() {
+        return hasZ;
+    }
+
+    public boolean hasM() {
+        return hasM;
+    }
+
+    public int getDimensions() {
+        return 2 + (hasZ ? 1 : 0) + (hasM ? 1 : 0);
+    }
+
+    boolean sameHeader(Geometry other) {
+        return getType() == other.getType() && srid == other.srid && hasZ == other.hasZ && hasM == other.hasM;
+    }
+
+    int headerHash() {
+        int result = getType();
+        result = 31 * result + srid;
+        result = 31 * result + (hasZ ? 1 : 0);
+        result = 31 * result + (hasM ? 2 : 0);
+        return result;
+    }
+
+    public static final class Point extends Geometry {
+        final double[] coords;
+
+        public Point(int srid, boolean hasZ, boolean hasM, double[] coords) {
+            super(srid, hasZ, hasM);
+            if (coords.length != getDimensions()) {
+                throw new IllegalArgumentException(String.format("point needs %d coordinates, got %d", getDimensions(), coords.length));
+            }
+            this.coords = coords;
+        }
+
+        public static Point of(int srid, double x, double y) {
+            return new Point(srid, false, false, new double[]{x, y});
+        }
+
+        @Override
+        public int getType() {
+            return POINT;
+        }
+
+        /**
+         * WKB has no empty point, uses NaN instead
+         */
+        public boolean isEmpty() {
+            return Double.isNaN(coords[0]) && Double.isNaN(coords[1]);
+        }
+
+        public double getX() {
+            return coords[0];
+        }
+
+        public double getY() {
+            return coords[1];
+        }
+
+        public double getZ() {
+            return hasZ ? coords[2] : Double.NaN;
+        }
+
+        public double getM() {
+            return hasM ? coords[getDimensions() - 1] : Double.NaN;
+        }
+
+        public double[] getCoordinates() {
+            return coords.clone();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Point that = (Point) o;
+            return sameHeader(that) && Arrays.equals(coords, that.coords);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * headerHash() + Arrays.hashCode(coords);
+        }
+
+        @Override
+        public String toString() {
+            return "Point{srid=" + srid + ", coords=" + Arrays.toString(coords) + "}";
+        }
+    }
+
+    public static final class LineString extends Geometry {
+        final double[] coords;
+
+        public LineString(int srid, boolean hasZ, boolean hasM, double[] coords) {
+            super(srid, hasZ, hasM);
+            if (coords.length % getDimensions() != 0) {
+                throw new IllegalArgumentException(String.format("coordinates must be a multiple of %d, got %d", getDimensions(), coords.length));
+            }
+            this.coords = coords;
+        }
+
+        @Override
+        public int getType() {
+            return LINESTRING;
+        }
+
+        public int getNumPoints() {
+            return coords.length / getDimensions();
+        }
+
+        public double getX(int point) {
+            return coords[point * getDimensions()];
+        }
+
+        public double getY(int point) {
+            return coords[point * getDimensions() + 1];
+        }
+
+        /**
+         * @return copy of the flat coordinates
+         */
+        public double[] getCoordinates() {
+            return coords.clone();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            LineString that = (LineString) o;
+            return sameHeader(that) && Arrays.equals(coords, that.coords);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * headerHash() + Arrays.hashCode(coords);
+        }
+
+        @Override
+        public String toString() {
+            return "LineString{srid=" + srid + ", points=" + getNumPoints() + "}";
+        }
+    }
+
+    public static final class Polygon extends Geometry {
+        final double[][] rings;
+
+        /**
+         * @param rings first ring is the exterior, others are holes. each a flat coordinate array
+         */
+        public Polygon(int srid, boolean hasZ, boolean hasM, double[][] rings) {
+            super(srid, hasZ, hasM);
+            for (double[] ring : rings) {
+                if (ring.length % getDimensions() != 0) {
+                    throw new IllegalArgumentException(String.format("coordinates must be a multiple of %d, got %d", getDimensions(), ring.length));
+                }
+            }
+            this.rings = rings;
+        }
+
+        @Override
+        public int getType() {
+            return POLYGON;
+        }
+
+        public int getNumRings() {
+            return rings.length;
+        }
+
+        /**
+         * @return copy of the flat coordinates of ring
+         */
+        public double[] getRing(int ring) {
+            return rings[ring].clone();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Polygon that = (Polygon) o;
+            return sameHeader(that) && Arrays.deepEquals(rings, that.rings);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * headerHash() + Arrays.deepHashCode(rings);
+        }
+
+        @Override
+        public String toString() {
+            return "Polygon{srid=" + srid + ", rings=" + rings.length + "}";
+        }
+    }
+
+    /**
+     * MultiPoint, MultiLineString, MultiPolygon and GeometryCollection
+     */
+    public static final class Multi extends Geometry {
+        final int type;
+        final Geometry[] parts;
+
+        public Multi(int type, int srid, boolean hasZ, boolean hasM, Geometry[] parts) {
+            super(srid, hasZ, hasM);
+            if (type < MULTIPOINT || type > GEOMETRYCOLLECTION) {
+                throw new IllegalArgumentException(String.format("not a multi geometry type: %d", type));
+            }
+            this.type = type;
+            this.parts = parts;
+        }
+
+        @Override
+        public int getType() {
+            return type;
+        }
+
+        public int getNumGeometries() {
+            return parts.length;
+        }
+
+        public Geometry getGeometry(int n) {
+            return parts[n];
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Multi that = (Multi) o;
+            return sameHeader(that) && Arrays.equals(parts, that.parts);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * headerHash() + Arrays.hashCode(parts);
+        }
+
+        @Override
+        public String toString() {
+            return "Multi{type=" + type + ", srid=" + srid + ", parts=" + parts.length + "}";
+        }
+    }
+}
@@ -4,6 +4,7 @@ import shadow.pgsql.*;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -21,41 +22,58 @@ public class HStore implements TypeHandler {
         public RESULT complete(ACC state);
     }
 
-    private final Handler handler;
+    private static final Handler<Map<String, String>, Map<String, String>> STRING_MAP = new Handler<Map<String, String>, Map<String, String>>() {
 
-    public HStore() {
-        this(new Handler<Map<String, String>, Map<String, String>>() {
+        @Override
+        public String keyToString(Object key) {
+            return key.toString();
+        }
 
-            @Override
-            public String keyToString(Object key) {
-                return key.toString();
-            }
+        @Override
+        public String valueToString(Object value) {
+            return value.toString();
+        }
 
-            @Override
-            public String valueToString(Object value) {
-                return value.toString();
-            }
+        @Override
+        public Map<String, String> init(int size) {
+            return new HashMap<>(size);
+        }
 
-            @Override
-            public Map<String, String> init(int size) {
-                return new HashMap<>(size);
-            }
+        @Override
+        public Map<String, String> add(Map<String, String> state, String key, String value) {
+            state.put(key, value);
+            return state;
+        }
 
-            @Override
-            public Map<String, String> add(Map<String, String> state, String key, String value) {
-                state.put(key, value);
-                return state;
-            }
+        @Override
+        public Map<String, String> complete(Map<String, String> state) {
+            return state;
+        }
+    };
 
-            @Override
-            public Map<String, String> complete(Map<String, String> state) {
-                return state;
-            }
-        });
+    private final Handler handler;
+    // only set when decoding into HStoreMap
+    private final HStoreMap.KeyCache keyCache;
+
+    public HStore() {
+        this(STRING_MAP);
     }
 
     public HStore(Handler handler) {
+        this(handler, null);
+    }
+
+    private HStore(Handler handler, HStoreMap.KeyCache keyCache) {
         this.handler = handler;
+        this.keyCache = keyCache;
+    }
+
+    /**
+     * decodes into a read-only HStoreMap that only decodes values when accessed and interns keys,
+     * useful when rows carry many keys but only a few are read.
+     */
+    public static HStore lazy() {
+        return new HStore(STRING_MAP, new HStoreMap.KeyCache());
     }
 
     @Override
@@ -85,16 +103,14 @@ public class HStore implements TypeHandler {
         for (Object key : m.keySet()) {
             String skey = handler.keyToString(key);
 
-            // FIXME: assumes utf-8
-            output.byteaWithLength(skey.getBytes());
+            output.utf8WithLength(skey);
 
             Object val = m.get(key);
 
             if (val != null) {
                 String sval = handler.valueToString(val);
 
-                // FIXME: assumes utf-8
-                output.byteaWithLength(sval.getBytes());
+                output.utf8WithLength(sval);
             } else {
                output.int32(-1);
             }
@@ -105,14 +121,19 @@ public class HStore implements TypeHandler {
         byte[] bytes = new byte[len];
         buf.get(bytes);
 
-        // FIXME: assumes utf-8
-        return new String(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
     }
 
     @Override
     public Object decodeBinary(Connection con, ColumnInfo field, ByteBuffer buf, int size) throws IOException {
         int count = buf.getInt();
 
+        if (keyCache != null) {
+            byte[] slab = new byte[size - 4];
+            buf.get(slab);
+            return HStoreMap.parse(keyCache, count, slab);
+        }
+
         Object state = handler.init(count);
 
         for (int i = 0; i < count; i++) {
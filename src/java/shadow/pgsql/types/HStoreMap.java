@@ -0,0 +1,222 @@
+package shadow.pgsql.types;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * read-only Map view over the binary hstore representation
+ * <p/>
+ * keys are decoded (and interned) up front, values are only decoded when accessed.
+ * returned by HStore.lazy()
+ */
+public final class HStoreMap extends AbstractMap<String, String> {
+
+    private final byte[] slab;
+    private final String[] keys;
+    // offset/length pairs into slab, offset -1 means NULL value
+    private final int[] values;
+    // open addressing over key hashes, stores index + 1
+    private final int[] index;
+    private final String[] decoded;
+
+    private Set<Entry<String, String>> entrySet;
+
+    private HStoreMap(byte[] slab, String[] keys, int[] values) {
+        this.slab = slab;
+        this.keys = keys;
+        this.values = values;
+        this.decoded = new String[keys.length];
+
+        int cap = 2;
+        while (cap < keys.length * 2) {
+            cap <<= 1;
+        }
+
+        this.index = new int[cap];
+        final int mask = cap - 1;
+
+        for (int i = 0; i < keys.length; i++) {
+            int slot = spread(keys[i].hashCode()) & mask;
+            while (index[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            index[slot] = i + 1;
+        }
+    }
+
+    private static int readInt(byte[] b, int pos) {
+        return ((b[pos] & 0xFF) << 24) | ((b[pos + 1] & 0xFF) << 16) | ((b[pos + 2] & 0xFF) << 8) | (b[pos + 3] & 0xFF);
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @param slab the hstore bytes following the pair count, not copied so must not be shared
+     */
+    static HStoreMap parse(KeyCache keyCache, int count, byte[] slab) {
+        final String[] keys = new String[count];
+        final int[] values = new int[count * 2];
+
+        int pos = 0;
+        for (int i = 0; i < count; i++) {
+            final int keyLen = readInt(slab, pos);
+            pos += 4;
+            keys[i] = keyCache.intern(slab, pos, keyLen);
+            pos += keyLen;
+
+            final int valueLen = readInt(slab, pos);
+            pos += 4;
+
+            if (valueLen < 0) {
+                values[i * 2] = -1;
+            } else {
+                values[i * 2] = pos;
+                values[i * 2 + 1] = valueLen;
+                pos += valueLen;
+            }
+        }
+
+        return new HStoreMap(slab, keys, values);
+    }
+
+    private int indexOf(Object key) {
+        if (!(key instanceof String)) {
+            return -1;
+        }
+
+        final int mask = index.length - 1;
+        int slot = spread(key.hashCode()) & mask;
+
+        int idx;
+        while ((idx = index[slot]) != 0) {
+            final String k = keys[idx - 1];
+            if (k == key || k.equals(key)) {
+                return idx - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private String valueAt(int i) {
+        final int offset = values[i * 2];
+        if (offset < 0) {
+            return null;
+        }
+
+        String value = decoded[i];
+        if (value == null) {
+            value = new String(slab, offset, values[i * 2 + 1], StandardCharsets.UTF_8);
+            decoded[i] = value;
+        }
+        return value;
+    }
+
+    @Override
+    public int size() {
+        return keys.length;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public String get(Object key) {
+        final int i = indexOf(key);
+        return i < 0 ? null : valueAt(i);
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Entry<String, String>>() {
+                @Override
+                public Iterator<Entry<String, String>> iterator() {
+                    return new Iterator<Entry<String, String>>() {
+                        int i = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return i < keys.length;
+                        }
+
+                        @Override
+                        public Entry<String, String> next() {
+                            if (i >= keys.length) {
+                                throw new NoSuchElementException();
+                            }
+                            final int n = i++;
+                            return new SimpleImmutableEntry<>(keys[n], valueAt(n));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return keys.length;
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    /**
+     * hstore columns usually share the same small set of keys, this keeps one String per key around
+     * so decoding a key is a hash and compare instead of an allocation.
+     * <p/>
+     * direct mapped, collisions just replace the slot. safe to share between threads since entries are immutable.
+     */
+    static final class KeyCache {
+        private static final int SIZE = 1024;
+        private static final int MAX_KEY_LENGTH = 64;
+
+        private final Entry[] entries = new Entry[SIZE];
+
+        String intern(byte[] b, int offset, int length) {
+            if (length > MAX_KEY_LENGTH) {
+                return new String(b, offset, length, StandardCharsets.UTF_8);
+            }
+
+            int hash = 0x811C9DC5;
+            for (int i = offset; i < offset + length; i++) {
+                hash = (hash ^ b[i]) * 0x01000193;
+            }
+
+            final int slot = spread(hash) & (SIZE - 1);
+            final Entry e = entries[slot];
+            if (e != null && e.matches(b, offset, length)) {
+                return e.string;
+            }
+
+            final String s = new String(b, offset, length, StandardCharsets.UTF_8);
+            entries[slot] = new Entry(Arrays.copyOfRange(b, offset, offset + length), s);
+            return s;
+        }
+
+        static final class Entry {
+            final byte[] bytes;
+            final String string;
+
+            Entry(byte[] bytes, String string) {
+                this.bytes = bytes;
+                this.string = string;
+            }
+
+            boolean matches(byte[] b, int offset, int length) {
+                if (bytes.length != length) {
+                    return false;
+                }
+                for (int i = 0; i < length; i++) {
+                    if (bytes[i] != b[offset + i]) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package shadow.pgsql.types;
+
+import shadow.pgsql.ColumnInfo;
+import shadow.pgsql.Connection;
+import shadow.pgsql.ProtocolOutput;
+import shadow.pgsql.TypeHandler;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * inet and cidr
+ * <p/>
+ * binary is family, bits, is_cidr, address length followed by the address bytes.
+ * decodes into an Inet.Value which just keeps the raw address bytes, only call
+ * toInetAddress if you actually need one.
+ */
+public class Inet implements TypeHandler {
+    // these are not the AF_INET values of the OS, postgres uses its own
+    private static final byte PGSQL_AF_INET = 2;
+    private static final byte PGSQL_AF_INET6 = 3;
+
+    public static final class Value {
+        private final byte[] address;
+        public final int bits;
+        public final boolean cidr;
+
+        public Value(byte[] address, int bits, boolean cidr) {
+            if (address.length != 4 && address.length != 16) {
+                throw new IllegalArgumentException(String.format("invalid address length: %d", address.length));
+            }
+            if (bits < 0 || bits > address.length * 8) {
+                throw new IllegalArgumentException(String.format("invalid netmask bits: %d", bits));
+            }
+            this.address = address;
+            this.bits = bits;
+            this.cidr = cidr;
+        }
+
+        public static Value of(InetAddress addr) {
+            final byte[] bytes = addr.getAddress();
+            return new Value(bytes, bytes.length * 8, false);
+        }
+
+        /**
+         * parses "address" or "address/bits" as inet, address must be a numeric literal, no lookups are done
+         */
+        public static Value parse(String s) {
+            return parse(s, false);
+        }
+
+        /**
+         * @param cidr whether the value is a cidr, that is the type it is for and can't be told from the text
+         */
+        public static Value parse(String s, boolean cidr) {
+            final int slash = s.indexOf('/');
+            final String host = slash == -1 ? s : s.substring(0, slash);
+
+            final byte[] bytes = host.indexOf(':') != -1 ? parseIPv6(host) : parseIPv4(host);
+            if (bytes == null) {
+                throw new IllegalArgumentException(String.format("not an ip address: %s", s));
+            }
+
+            final int bits = slash == -1 ? bytes.length * 8 : Integer.parseInt(s.substring(slash + 1));
+            return new Value(bytes, bits, cidr);
+        }
+
+        /**
+         * @return null if not a dotted quad
+         */
+        private static byte[] parseIPv4(String s) {
+            final String[] parts = s.split("\\.", -1);
+            if (parts.length != 4) {
+                return null;
+            }
+
+            final byte[] bytes = new byte[4];
+            for (int i = 0; i < 4; i++) {
+                final String part = parts[i];
+                if (part.isEmpty() || part.length() > 3) {
+                    return null;
+                }
+
+                int value = 0;
+                for (int j = 0; j < part.length(); j++) {
+                    final char c = part.charAt(j);
+                    if (c < '0' || c > '9') {
+                        return null;
+                    }
+                    value = value * 10 + (c - '0');
+                }
+
+                if (value > 255) {
+                    return null;
+                }
+                bytes[i] = (byte) value;
+            }
+            return bytes;
+        }
+
+        /**
+         * @return null if not an ipv6 literal (with optional :: and trailing dotted quad)
+         */
+        private static byte[] parseIPv6(String s) {
+            final int compressed = s.indexOf("::");
+            if (compressed != -1 && s.indexOf("::", compressed + 1) != -1) {
+                return null;
+            }
+
+            final int[] head = parseGroups(compressed == -1 ? s : s.substring(0, compressed), compressed == -1);
+            final int[] tail = compressed == -1 ? new int[0] : parseGroups(s.substring(compressed + 2), true);
+
+            if (head == null || tail == null) {
+                return null;
+            }
+            if (compressed == -1 ? head.length != 8 : head.length + tail.length > 7) {
+                return null;
+            }
+
+            final byte[] bytes = new byte[16];
+            for (int i = 0; i < head.length; i++) {
+                bytes[i * 2] = (byte) (head[i] >> 8);
+                bytes[i * 2 + 1] = (byte) head[i];
+            }
+            for (int i = 0; i < tail.length; i++) {
+                final int idx = 8 - tail.length + i;
+                bytes[idx * 2] = (byte) (tail[i] >> 8);
+                bytes[idx * 2 + 1] = (byte) tail[i];
+            }
+            return bytes;
+        }
+
+        /**
+         * the 16-bit groups of one side of an ipv6 address
+         */
+        private static int[] parseGroups(String s, boolean allowIPv4) {
+            if (s.isEmpty()) {
+                return new int[0];
+            }
+
+            final String[] groups = s.split(":", -1);
+            int count = groups.length;
+
+            byte[] ipv4 = null;
+            if (allowIPv4 && groups[count - 1].indexOf('.') != -1) {
+                ipv4 = parseIPv4(groups[count - 1]);
+                if (ipv4 == null) {
+                    return null;
+                }
+                count--;
+            }
+
+            final int[] words = new int[ipv4 == null ? count : count + 2];
+            for (int i = 0; i < count; i++) {
+                final String group = groups[i];
+                if (group.isEmpty() || group.length() > 4) {
+                    return null;
+                }
+
+                int value = 0;
+                for (int j = 0; j < group.length(); j++) {
+                    final int digit = Character.digit(group.charAt(j), 16);
+                    if (digit == -1) {
+                        return null;
+                    }
+                    value = (value << 4) | digit;
+                }
+                words[i] = value;
+            }
+
+            if (ipv4 != null) {
+                words[count] = ((ipv4[0] & 0xFF) << 8) | (ipv4[1] & 0xFF);
+                words[count + 1] = ((ipv4[2] & 0xFF) << 8) | (ipv4[3] & 0xFF);
+            }
+            return words;
+        }
+
+        public boolean isIPv6() {
+            return address.length == 16;
+        }
+
+        public byte[] getAddress() {
+            return address.clone();
+        }
+
+        public InetAddress toInetAddress() {
+            try {
+                return InetAddress.getByAddress(address);
+            } catch (UnknownHostException e) {
+                // only thrown for illegal length, checked in constructor
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Value that = (Value) o;
+
+            return bits == that.bits && cidr == that.cidr && Arrays.equals(address, that.address);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Arrays.hashCode(address);
+            result = 31 * result + bits;
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            final String host = toInetAddress().getHostAddress();
+            if (bits == address.length * 8 && !cidr) {
+                return host;
+            }
+            return host + "/" + bits;
+        }
+    }
+
+    private final int oid;
+    private final String name;
+    private final boolean cidr;
+
+    public Inet(int oid, String name, boolean cidr) {
+        this.oid = oid;
+        this.name = name;
+        this.cidr = cidr;
+    }
+
+    @Override
+    public int getTypeOid() {
+        return oid;
+    }
+
+    @Override
+    public String getTypeName() {
+        return name;
+    }
+
+    @Override
+    public boolean supportsBinary() {
+        return true;
+    }
+
+    private Value checkInet(Object param) {
+        if (param instanceof Value) {
+            return (Value) param;
+        } else if (param instanceof InetAddress) {
+            return Value.of((InetAddress) param);
+        } else if (param instanceof String) {
+            return Value.parse((String) param, cidr);
+        } else {
+            throw new IllegalArgumentException(String.format("not an inet: %s [%s]", param.getClass().getName(), param));
+        }
+    }
+
+    @Override
+    public void encodeBinary(Connection con, ProtocolOutput output, Object param) {
+        final Value inet = checkInet(param);
+
+        output.int8(inet.isIPv6() ? PGSQL_AF_INET6 : PGSQL_AF_INET);
+        output.int8(inet.bits);
+        output.int8(cidr ? 1 : 0);
+        output.int8(inet.address.length);
+        output.write(inet.address);
+    }
+
+    @Override
+    public Object decodeBinary(Connection con, ColumnInfo field, ByteBuffer buf, int size) throws IOException {
+        final byte family = buf.get();
+        final int bits = buf.get() & 0xFF;
+        final boolean isCidr = buf.get() != 0;
+        final int len = buf.get() & 0xFF;
+
+        if (family != PGSQL_AF_INET && family != PGSQL_AF_INET6) {
+            throw new IllegalStateException(String.format("unknown inet family: %d", family));
+        }
+
+        final byte[] address = new byte[len];
+        buf.get(address);
+
+        return new Value(address, bits, isCidr);
+    }
+
+    @Override
+    public String encodeToString(Connection con, Object param) {
+        return checkInet(param).toString();
+    }
+
+    @Override
+    public Object decodeString(Connection con, ColumnInfo field, String value) {
+        return Value.parse(value, cidr);
+    }
+}
@@ -0,0 +1,128 @@
+package shadow.pgsql.types;
+
+import shadow.pgsql.ColumnInfo;
+import shadow.pgsql.Connection;
+import shadow.pgsql.ProtocolOutput;
+import shadow.pgsql.TypeHandler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Period;
+
+/**
+ * interval is sent as microseconds, days and months
+ * <p/>
+ * neither Duration nor Period can represent all three so decoding yields an Interval.Value,
+ * Duration and Period are accepted as params.
+ */
+public class Interval implements TypeHandler {
+
+    public static final class Value {
+        public final int months;
+        public final int days;
+        public final long micros;
+
+        public Value(int months, int days, long micros) {
+            this.months = months;
+            this.days = days;
+            this.micros = micros;
+        }
+
+        public static Value of(Duration duration) {
+            return new Value(0, 0, duration.getSeconds() * 1000000L + duration.getNano() / 1000);
+        }
+
+        public static Value of(Period period) {
+            return new Value((int) period.toTotalMonths(), period.getDays(), 0);
+        }
+
+        public Period getPeriod() {
+            return Period.of(0, months, days);
+        }
+
+        public Duration getDuration() {
+            return Duration.ofSeconds(micros / 1000000L, (micros % 1000000L) * 1000);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Value that = (Value) o;
+
+            return months == that.months && days == that.days && micros == that.micros;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = months;
+            result = 31 * result + days;
+            result = 31 * result + (int) (micros ^ (micros >>> 32));
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return "Interval{" +
+                    "months=" + months +
+                    ", days=" + days +
+                    ", micros=" + micros +
+                    '}';
+        }
+    }
+
+    @Override
+    public int getTypeOid() {
+        return Types.OID_INTERVAL;
+    }
+
+    @Override
+    public String getTypeName() {
+        return "interval";
+    }
+
+    @Override
+    public boolean supportsBinary() {
+        return true;
+    }
+
+    private Value checkInterval(Object param) {
+        if (param instanceof Value) {
+            return (Value) param;
+        } else if (param instanceof Duration) {
+            return Value.of((Duration) param);
+        } else if (param instanceof Period) {
+            return Value.of((Period) param);
+        } else {
+            throw new IllegalArgumentException(String.format("not an interval: %s [%s]", param.getClass().getName(), param));
+        }
+    }
+
+    @Override
+    public void encodeBinary(Connection con, ProtocolOutput output, Object param) {
+        final Value interval = checkInterval(param);
+        output.int64(interval.micros);
+        output.int32(interval.days);
+        output.int32(interval.months);
+    }
+
+    @Override
+    public Object decodeBinary(Connection con, ColumnInfo field, ByteBuffer buf, int size) throws IOException {
+        final long micros = buf.getLong();
+        final int days = buf.getInt();
+        final int months = buf.getInt();
+        return new Value(months, days, micros);
+    }
+
+    @Override
+    public String encodeToString(Connection con, Object param) {
+        throw new UnsupportedOperationException("only binary format supported");
+    }
+
+    @Override
+    public Object decodeString(Connection con, ColumnInfo field, String value) {
+        throw new UnsupportedOperationException("only binary format supported");
+    }
+}
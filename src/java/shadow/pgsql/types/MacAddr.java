@@ -0,0 +1,118 @@
+package shadow.pgsql.types;
+
+import shadow.pgsql.ColumnInfo;
+import shadow.pgsql.Connection;
+import shadow.pgsql.ProtocolOutput;
+import shadow.pgsql.TypeHandler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * macaddr (6 bytes) and macaddr8 (8 bytes), decoded as byte[]
+ * <p/>
+ * accepts byte[] or Strings like "08:00:2b:01:02:03" as params
+ */
+public class MacAddr implements TypeHandler {
+    private final int oid;
+    private final String name;
+    private final int length;
+
+    public MacAddr(int oid, String name, int length) {
+        this.oid = oid;
+        this.name = name;
+        this.length = length;
+    }
+
+    @Override
+    public int getTypeOid() {
+        return oid;
+    }
+
+    @Override
+    public String getTypeName() {
+        return name;
+    }
+
+    @Override
+    public boolean supportsBinary() {
+        return true;
+    }
+
+    private byte[] parse(String s) {
+        final byte[] bytes = new byte[length];
+
+        int b = 0;
+        int digits = 0;
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            final int d = Character.digit(c, 16);
+            if (d != -1) {
+                if (b >= length) {
+                    throw new IllegalArgumentException(String.format("invalid %s: %s", name, s));
+                }
+                bytes[b] = (byte) ((bytes[b] << 4) | d);
+                if (++digits == 2) {
+                    b += 1;
+                    digits = 0;
+                }
+            } else if (c != ':' && c != '-' && c != '.') {
+                throw new IllegalArgumentException(String.format("invalid %s: %s", name, s));
+            }
+        }
+
+        if (b != length || digits != 0) {
+            throw new IllegalArgumentException(String.format("invalid %s: %s", name, s));
+        }
+
+        return bytes;
+    }
+
+    private byte[] checkMacAddr(Object param) {
+        byte[] bytes;
+        if (param instanceof byte[]) {
+            bytes = (byte[]) param;
+        } else if (param instanceof String) {
+            bytes = parse((String) param);
+        } else {
+            throw new IllegalArgumentException(String.format("not a %s: %s [%s]", name, param.getClass().getName(), param));
+        }
+
+        if (bytes.length != length) {
+            throw new IllegalArgumentException(String.format("%s must be %d bytes, got %d", name, length, bytes.length));
+        }
+
+        return bytes;
+    }
+
+    @Override
+    public void encodeBinary(Connection con, ProtocolOutput output, Object param) {
+        output.write(checkMacAddr(param));
+    }
+
+    @Override
+    public Object decodeBinary(Connection con, ColumnInfo field, ByteBuffer buf, int size) throws IOException {
+        final byte[] bytes = new byte[size];
+        buf.get(bytes);
+        return bytes;
+    }
+
+    @Override
+    public String encodeToString(Connection con, Object param) {
+        final byte[] bytes = checkMacAddr(param);
+        final StringBuilder sb = new StringBuilder(length * 3);
+        for (int i = 0; i < bytes.length; i++) {
+            if (i > 0) {
+                sb.append(':');
+            }
+            sb.append(Character.forDigit((bytes[i] >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(bytes[i] & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public Object decodeString(Connection con, ColumnInfo field, String value) {
+        return parse(value);
+    }
+}
@@ -0,0 +1,83 @@
+package shadow.pgsql.types;
+
+import shadow.pgsql.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * multirange types (PostgreSQL 14+), decoded as an unmodifiable List of Range
+ * <p/>
+ * binary is the number of ranges followed by length + value of each range
+ */
+public class MultiRangeType implements TypeHandler {
+    private final int oid;
+    private final String name;
+    private final RangeType rangeType;
+
+    public MultiRangeType(int oid, String name, RangeType rangeType) {
+        this.oid = oid;
+        this.name = name;
+        this.rangeType = rangeType;
+    }
+
+    @Override
+    public int getTypeOid() {
+        return oid;
+    }
+
+    @Override
+    public String getTypeName() {
+        return name;
+    }
+
+    @Override
+    public boolean supportsBinary() {
+        return true;
+    }
+
+    @Override
+    public void encodeBinary(Connection con, ProtocolOutput output, Object param) {
+        final Collection ranges;
+        if (param instanceof Collection) {
+            ranges = (Collection) param;
+        } else if (param instanceof Range[]) {
+            ranges = Arrays.asList((Range[]) param);
+        } else {
+            throw new IllegalArgumentException(String.format("not a collection of ranges: %s", param.getClass().getName()));
+        }
+
+        output.int32(ranges.size());
+        for (Object range : ranges) {
+            final ProtocolMarker mark = output.beginExclusive();
+            rangeType.encodeBinary(con, output, range);
+            mark.complete();
+        }
+    }
+
+    @Override
+    public Object decodeBinary(Connection con, ColumnInfo field, ByteBuffer buf, int size) throws IOException {
+        final int count = buf.getInt();
+        final Object[] ranges = new Object[count];
+
+        for (int i = 0; i < count; i++) {
+            final int len = buf.getInt();
+            ranges[i] = rangeType.decodeBinary(con, field, buf, len);
+        }
+
+        return Collections.unmodifiableList(Arrays.asList(ranges));
+    }
+
+    @Override
+    public String encodeToString(Connection con, Object param) {
+        throw new UnsupportedOperationException("only binary format supported");
+    }
+
+    @Override
+    public Object decodeString(Connection con, ColumnInfo field, String value) {
+        throw new UnsupportedOperationException("only binary format supported");
+    }
+}
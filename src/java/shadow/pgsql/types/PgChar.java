@@ -0,0 +1,70 @@
+package shadow.pgsql.types;
+
+import shadow.pgsql.ColumnInfo;
+import shadow.pgsql.Connection;
+import shadow.pgsql.ProtocolOutput;
+import shadow.pgsql.TypeHandler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * the single byte "char" type (mostly found in the catalog, eg. pg_class.relkind)
+ * <p/>
+ * not to be confused with char(n) which is bpchar and handled by Text
+ */
+public class PgChar implements TypeHandler {
+
+    @Override
+    public int getTypeOid() {
+        return Types.OID_PGCHAR;
+    }
+
+    @Override
+    public String getTypeName() {
+        return "char";
+    }
+
+    @Override
+    public boolean supportsBinary() {
+        return true;
+    }
+
+    private byte checkChar(Object param) {
+        if (param instanceof Character) {
+            final char c = (Character) param;
+            if (c > 127) {
+                throw new IllegalArgumentException(String.format("\"char\" only supports ascii: %s", param));
+            }
+            return (byte) c;
+        } else {
+            throw new IllegalArgumentException(String.format("not a char: %s [%s]", param.getClass().getName(), param));
+        }
+    }
+
+    @Override
+    public void encodeBinary(Connection con, ProtocolOutput output, Object param) {
+        final byte b = checkChar(param);
+        if (b != 0) {
+            output.int8(b);
+        }
+    }
+
+    @Override
+    public Object decodeBinary(Connection con, ColumnInfo field, ByteBuffer buf, int size) throws IOException {
+        if (size == 0) {
+            return (char) 0;
+        }
+        return (char) (buf.get() & 0xFF);
+    }
+
+    @Override
+    public String encodeToString(Connection con, Object param) {
+        return String.valueOf((char) checkChar(param));
+    }
+
+    @Override
+    public Object decodeString(Connection con, ColumnInfo field, String value) {
+        return value.isEmpty() ? (char) 0 : value.charAt(0);
+    }
+}
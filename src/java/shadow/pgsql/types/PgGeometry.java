@@ -0,0 +1,174 @@
+package shadow.pgsql.types;
+
+import shadow.pgsql.ColumnInfo;
+import shadow.pgsql.Connection;
+import shadow.pgsql.ProtocolOutput;
+import shadow.pgsql.TypeHandler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * PostGIS geometry and geography, binary is EWKB (WKB with optional SRID)
+ * <p/>
+ * decodes into Geometry, coordinates are read in bulk into double[].
+ * extension type so no constant oid, resolved by name.
+ */
+public class PgGeometry implements TypeHandler {
+    private static final int WKB_Z = 0x80000000;
+    private static final int WKB_M = 0x40000000;
+    private static final int WKB_SRID = 0x20000000;
+
+    private final String name;
+
+    public PgGeometry(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public int getTypeOid() {
+        return -1;
+    }
+
+    @Override
+    public String getTypeName() {
+        return name;
+    }
+
+    @Override
+    public boolean supportsBinary() {
+        return true;
+    }
+
+    @Override
+    public void encodeBinary(Connection con, ProtocolOutput output, Object param) {
+        if (!(param instanceof Geometry)) {
+            throw new IllegalArgumentException(String.format("not a geometry: %s", param.getClass().getName()));
+        }
+
+        write(output, (Geometry) param, true);
+    }
+
+    private static void write(ProtocolOutput output, Geometry geom, boolean withSRID) {
+        int type = geom.getType();
+        if (geom.hasZ) {
+            type |= WKB_Z;
+        }
+        if (geom.hasM) {
+            type |= WKB_M;
+        }
+
+        final boolean srid = withSRID && geom.srid != 0;
+        if (srid) {
+            type |= WKB_SRID;
+        }
+
+        output.int8(0); // big endian
+        output.int32(type);
+
+        if (srid) {
+            output.int32(geom.srid);
+        }
+
+        if (geom instanceof Geometry.Point) {
+            output.float8Array(((Geometry.Point) geom).coords);
+        } else if (geom instanceof Geometry.LineString) {
+            final Geometry.LineString line = (Geometry.LineString) geom;
+            output.int32(line.getNumPoints());
+            output.float8Array(line.coords);
+        } else if (geom instanceof Geometry.Polygon) {
+            final double[][] rings = ((Geometry.Polygon) geom).rings;
+            final int dims = geom.getDimensions();
+            output.int32(rings.length);
+            for (double[] ring : rings) {
+                output.int32(ring.length / dims);
+                output.float8Array(ring);
+            }
+        } else {
+            final Geometry[] parts = ((Geometry.Multi) geom).parts;
+            output.int32(parts.length);
+            for (Geometry part : parts) {
+                write(output, part, false);
+            }
+        }
+    }
+
+    @Override
+    public Object decodeBinary(Connection con, ColumnInfo field, ByteBuffer buf, int size) throws IOException {
+        return read(buf, 0);
+    }
+
+    private static double[] coords(ByteBuffer buf, int count) {
+        final double[] coords = new double[count];
+        buf.asDoubleBuffer().get(coords);
+        buf.position(buf.position() + count * 8);
+        return coords;
+    }
+
+    private static Geometry read(ByteBuffer buf, int srid) {
+        // every (sub) geometry has its own byte order
+        final ByteOrder previous = buf.order();
+        buf.order(buf.get() == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+
+        try {
+            final int typeFlags = buf.getInt();
+            boolean hasZ = (typeFlags & WKB_Z) != 0;
+            boolean hasM = (typeFlags & WKB_M) != 0;
+
+            int type = typeFlags & 0x0FFFFFFF;
+
+            // ISO WKB uses 1000/2000/3000 offsets instead of flags
+            if (type >= 1000) {
+                final int iso = type / 1000;
+                type = type % 1000;
+                hasZ |= iso == 1 || iso == 3;
+                hasM |= iso == 2 || iso == 3;
+            }
+
+            if ((typeFlags & WKB_SRID) != 0) {
+                srid = buf.getInt();
+            }
+
+            final int dims = 2 + (hasZ ? 1 : 0) + (hasM ? 1 : 0);
+
+            switch (type) {
+                case Geometry.POINT:
+                    return new Geometry.Point(srid, hasZ, hasM, coords(buf, dims));
+                case Geometry.LINESTRING:
+                    return new Geometry.LineString(srid, hasZ, hasM, coords(buf, buf.getInt() * dims));
+                case Geometry.POLYGON: {
+                    final double[][] rings = new double[buf.getInt()][];
+                    for (int i = 0; i < rings.length; i++) {
+                        rings[i] = coords(buf, buf.getInt() * dims);
+                    }
+                    return new Geometry.Polygon(srid, hasZ, hasM, rings);
+                }
+                case Geometry.MULTIPOINT:
+                case Geometry.MULTILINESTRING:
+                case Geometry.MULTIPOLYGON:
+                case Geometry.GEOMETRYCOLLECTION: {
+                    final Geometry[] parts = new Geometry[buf.getInt()];
+                    for (int i = 0; i < parts.length; i++) {
+                        parts[i] = read(buf, srid);
+                    }
+                    return new Geometry.Multi(type, srid, hasZ, hasM, parts);
+                }
+                default:
+                    throw new IllegalStateException(String.format("unsupported geometry type: %d", type));
+            }
+        } finally {
+            buf.order(previous);
+        }
+    }
+
+    @Override
+    public String encodeToString(Connection con, Object param) {
+        throw new UnsupportedOperationException("only binary format supported");
+    }
+
+    @Override
+    public Object decodeString(Connection con, ColumnInfo field, String value) {
+        throw new UnsupportedOperationException("only binary format supported");
+    }
+}
@@ -0,0 +1,171 @@
+package shadow.pgsql.types;
+
+import shadow.pgsql.ColumnInfo;
+import shadow.pgsql.Connection;
+import shadow.pgsql.ProtocolOutput;
+import shadow.pgsql.TypeHandler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * pgvector sparsevec, decoded as a PgSparseVector.Value (indices are 0-based)
+ * <p/>
+ * binary is int32 dimensions, int32 non-zero count, int32 unused followed by all indices and then all values
+ * <p/>
+ * accepts a Value or a dense float[] as param
+ */
+public class PgSparseVector implements TypeHandler {
+
+    public static final class Value {
+        public final int dimensions;
+        private final int[] indices;
+        private final float[] values;
+
+        public Value(int dimensions, int[] indices, float[] values) {
+            if (indices.length != values.length) {
+                throw new IllegalArgumentException("need one value per index");
+            }
+            this.dimensions = dimensions;
+            this.indices = indices;
+            this.values = values;
+        }
+
+        public static Value of(float[] dense) {
+            int nnz = 0;
+            for (float f : dense) {
+                if (f != 0.0f) {
+                    nnz += 1;
+                }
+            }
+
+            final int[] indices = new int[nnz];
+            final float[] values = new float[nnz];
+
+            int n = 0;
+            for (int i = 0; i < dense.length; i++) {
+                if (dense[i] != 0.0f) {
+                    indices[n] = i;
+                    values[n] = dense[i];
+                    n += 1;
+                }
+            }
+
+            return new Value(dense.length, indices, values);
+        }
+
+        public int getNonZeroCount() {
+            return indices.length;
+        }
+
+        public int getIndex(int n) {
+            return indices[n];
+        }
+
+        public float getValue(int n) {
+            return values[n];
+        }
+
+        public float[] toDense() {
+            final float[] dense = new float[dimensions];
+            for (int i = 0; i < indices.length; i++) {
+                dense[indices[i]] = values[i];
+            }
+            return dense;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Value that = (Value) o;
+
+            return dimensions == that.dimensions && Arrays.equals(indices, that.indices) && Arrays.equals(values, that.values);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = dimensions;
+            result = 31 * result + Arrays.hashCode(indices);
+            result = 31 * result + Arrays.hashCode(values);
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder();
+            sb.append('{');
+            for (int i = 0; i < indices.length; i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                // text format is 1-based
+                sb.append(indices[i] + 1).append(':').append(values[i]);
+            }
+            sb.append("}/").append(dimensions);
+            return sb.toString();
+        }
+    }
+
+    @Override
+    public int getTypeOid() {
+        return -1;
+    }
+
+    @Override
+    public String getTypeName() {
+        return "sparsevec";
+    }
+
+    @Override
+    public boolean supportsBinary() {
+        return true;
+    }
+
+    private Value checkSparse(Object param) {
+        if (param instanceof Value) {
+            return (Value) param;
+        } else {
+            return Value.of(PgVector.checkVector(param));
+        }
+    }
+
+    @Override
+    public void encodeBinary(Connection con, ProtocolOutput output, Object param) {
+        final Value v = checkSparse(param);
+        output.int32(v.dimensions);
+        output.int32(v.indices.length);
+        output.int32(0); // unused
+        output.int32Array(v.indices);
+        output.float4Array(v.values);
+    }
+
+    @Override
+    public Object decodeBinary(Connection con, ColumnInfo field, ByteBuffer buf, int size) throws IOException {
+        final int dimensions = buf.getInt();
+        final int nnz = buf.getInt();
+        buf.getInt(); // unused
+
+        final int[] indices = new int[nnz];
+        buf.asIntBuffer().get(indices);
+        buf.position(buf.position() + nnz * 4);
+
+        final float[] values = new float[nnz];
+        buf.asFloatBuffer().get(values);
+        buf.position(buf.position() + nnz * 4);
+
+        return new Value(dimensions, indices, values);
+    }
+
+    @Override
+    public String encodeToString(Connection con, Object param) {
+        return checkSparse(param).toString();
+    }
+
+    @Override
+    public Object decodeString(Connection con, ColumnInfo field, String value) {
+        throw new UnsupportedOperationException("only binary format supported");
+    }
+}
@@ -0,0 +1,197 @@
+package shadow.pgsql.types;
+
+import shadow.pgsql.ColumnInfo;
+import shadow.pgsql.Connection;
+import shadow.pgsql.ProtocolOutput;
+import shadow.pgsql.TypeHandler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * pgvector vector and halfvec, decoded as float[]
+ * <p/>
+ * binary is int16 dimensions, int16 unused followed by the values as float4 (vector) or float2 (halfvec).
+ * extension type so no constant oid, resolved by name.
+ */
+public class PgVector implements TypeHandler {
+    private final String name;
+    private final boolean half;
+
+    public PgVector(String name, boolean half) {
+        this.name = name;
+        this.half = half;
+    }
+
+    @Override
+    public int getTypeOid() {
+        return -1;
+    }
+
+    @Override
+    public String getTypeName() {
+        return name;
+    }
+
+    @Override
+    public boolean supportsBinary() {
+        return true;
+    }
+
+    static float[] checkVector(Object param) {
+        if (param instanceof float[]) {
+            return (float[]) param;
+        } else if (param instanceof double[]) {
+            final double[] d = (double[]) param;
+            final float[] f = new float[d.length];
+            for (int i = 0; i < d.length; i++) {
+                f[i] = (float) d[i];
+            }
+            return f;
+        } else if (param instanceof List) {
+            final List l = (List) param;
+            final float[] f = new float[l.size()];
+            for (int i = 0; i < f.length; i++) {
+                f[i] = ((Number) l.get(i)).floatValue();
+            }
+            return f;
+        } else {
+            throw new IllegalArgumentException(String.format("not a vector: %s", param.getClass().getName()));
+        }
+    }
+
+    @Override
+    public void encodeBinary(Connection con, ProtocolOutput output, Object param) {
+        final float[] values = checkVector(param);
+        if (values.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format("too many dimensions for %s: %d", name, values.length));
+        }
+
+        output.int16((short) values.length);
+        output.int16((short) 0);
+
+        if (half) {
+            for (float f : values) {
+                output.int16(floatToHalf(f));
+            }
+        } else {
+            output.float4Array(values);
+        }
+    }
+
+    @Override
+    public Object decodeBinary(Connection con, ColumnInfo field, ByteBuffer buf, int size) throws IOException {
+        final int dim = buf.getShort() & 0xFFFF;
+        buf.getShort(); // unused
+
+        final float[] values = new float[dim];
+
+        if (half) {
+            for (int i = 0; i < dim; i++) {
+                values[i] = halfToFloat(buf.getShort());
+            }
+        } else {
+            buf.asFloatBuffer().get(values);
+            buf.position(buf.position() + dim * 4);
+        }
+
+        return values;
+    }
+
+    @Override
+    public String encodeToString(Connection con, Object param) {
+        final float[] values = checkVector(param);
+        final StringBuilder sb = new StringBuilder(values.length * 8);
+        sb.append('[');
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(values[i]);
+        }
+        sb.append(']');
+        return sb.toString();
+    }
+
+    @Override
+    public Object decodeString(Connection con, ColumnInfo field, String value) {
+        if (value.charAt(0) != '[' || value.charAt(value.length() - 1) != ']') {
+            throw new IllegalArgumentException(String.format("not a vector: %s", value));
+        }
+
+        final String inner = value.substring(1, value.length() - 1).trim();
+        if (inner.isEmpty()) {
+            return new float[0];
+        }
+
+        final String[] parts = inner.split(",");
+        final float[] values = new float[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Float.parseFloat(parts[i].trim());
+        }
+        return values;
+    }
+
+    public static float halfToFloat(short h) {
+        final int bits = h & 0xFFFF;
+        final int sign = (bits & 0x8000) << 16;
+        final int exp = (bits >>> 10) & 0x1F;
+        final int mant = bits & 0x3FF;
+
+        if (exp == 0) {
+            // zero or subnormal: mant * 2^-24
+            final float f = mant * 5.9604645E-8f;
+            return sign != 0 ? -f : f;
+        } else if (exp == 31) {
+            // inf or nan
+            return Float.intBitsToFloat(sign | 0x7F800000 | (mant << 13));
+        } else {
+            return Float.intBitsToFloat(sign | ((exp + 112) << 23) | (mant << 13));
+        }
+    }
+
+    /**
+     * round to nearest even, throws like the backend if the value is out of range for a half float
+     */
+    public static short floatToHalf(float f) {
+        final int bits = Float.floatToRawIntBits(f);
+        final int sign = (bits >>> 16) & 0x8000;
+        final int val = bits & 0x7FFFFFFF;
+
+        if (val >= 0x7F800000) {
+            // inf or nan, nan keeps a mantissa bit set
+            return (short) (sign | 0x7C00 | (val > 0x7F800000 ? 0x200 : 0));
+        }
+
+        final int exp = (val >>> 23) - 127 + 15;
+
+        if (exp <= 0) {
+            if (exp < -10) {
+                return (short) sign;
+            }
+
+            final int mant = (val & 0x7FFFFF) | 0x800000;
+            final int shift = 14 - exp;
+            int half = mant >>> shift;
+            final int rem = mant & ((1 << shift) - 1);
+            final int halfway = 1 << (shift - 1);
+            if (rem > halfway || (rem == halfway && (half & 1) != 0)) {
+                half += 1;
+            }
+            return (short) (sign | half);
+        }
+
+        int half = (exp << 10) | ((val & 0x7FFFFF) >>> 13);
+        final int rem = val & 0x1FFF;
+        if (rem > 0x1000 || (rem == 0x1000 && (half & 1) != 0)) {
+            half += 1;
+        }
+
+        if (half >= 0x7C00) {
+            throw new IllegalArgumentException(String.format("%s is out of range for type halfvec", f));
+        }
+
+        return (short) (sign | half);
+    }
+}
@@ -0,0 +1,120 @@
+package shadow.pgsql.types;
+
+/**
+ * immutable value of a range type (int4range, tstzrange, ...)
+ * <p/>
+ * a null bound means unbounded (infinite) on that side
+ */
+public final class Range<T> {
+    // flags as sent by the backend
+    public static final int EMPTY = 0x01;
+    public static final int LOWER_INCLUSIVE = 0x02;
+    public static final int UPPER_INCLUSIVE = 0x04;
+    public static final int LOWER_INFINITE = 0x08;
+    public static final int UPPER_INFINITE = 0x10;
+
+    private static final Range EMPTY_RANGE = new Range<>(EMPTY, null, null);
+
+    private final int flags;
+    private final T lower;
+    private final T upper;
+
+    Range(int flags, T lower, T upper) {
+        this.flags = flags;
+        this.lower = lower;
+        this.upper = upper;
+    }
+
+    public static <T> Range<T> empty() {
+        return EMPTY_RANGE;
+    }
+
+    /**
+     * [lower,upper) which is the canonical form of the discrete range types
+     */
+    public static <T> Range<T> of(T lower, T upper) {
+        return of(lower, true, upper, false);
+    }
+
+    public static <T> Range<T> of(T lower, boolean lowerInclusive, T upper, boolean upperInclusive) {
+        int flags = 0;
+        if (lower == null) {
+            flags |= LOWER_INFINITE;
+        } else if (lowerInclusive) {
+            flags |= LOWER_INCLUSIVE;
+        }
+        if (upper == null) {
+            flags |= UPPER_INFINITE;
+        } else if (upperInclusive) {
+            flags |= UPPER_INCLUSIVE;
+        }
+        return new Range<>(flags, lower, upper);
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public boolean isEmpty() {
+        return (flags & EMPTY) != 0;
+    }
+
+    public T getLower() {
+        return lower;
+    }
+
+    public T getUpper() {
+        return upper;
+    }
+
+    public boolean isLowerInclusive() {
+        return (flags & LOWER_INCLUSIVE) != 0;
+    }
+
+    public boolean isUpperInclusive() {
+        return (flags & UPPER_INCLUSIVE) != 0;
+    }
+
+    public boolean isLowerInfinite() {
+        return (flags & LOWER_INFINITE) != 0;
+    }
+
+    public boolean isUpperInfinite() {
+        return (flags & UPPER_INFINITE) != 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        Range that = (Range) o;
+
+        if (flags != that.flags) return false;
+        if (lower != null ? !lower.equals(that.lower) : that.lower != null) return false;
+        if (upper != null ? !upper.equals(that.upper) : that.upper != null) return false;
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = flags;
+        result = 31 * result + (lower != null ? lower.hashCode() : 0);
+        result = 31 * result + (upper != null ? upper.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        if (isEmpty()) {
+            return "empty";
+        }
+
+        return (isLowerInclusive() ? "[" : "(") +
+                (lower != null ? lower : "") +
+                "," +
+                (upper != null ? upper : "") +
+                (isUpperInclusive() ? "]" : ")");
+    }
+}
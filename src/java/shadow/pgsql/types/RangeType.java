@@ -0,0 +1,105 @@
+package shadow.pgsql.types;
+
+import shadow.pgsql.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * range types, bounds are encoded/decoded by the handler of the element type
+ * <p/>
+ * binary is one flags byte followed by length + value of each bound that is present
+ */
+public class RangeType implements TypeHandler {
+    private final int oid;
+    private final String name;
+    private final TypeHandler elementType;
+
+    public RangeType(int oid, String name, TypeHandler elementType) {
+        if (!elementType.supportsBinary()) {
+            throw new IllegalArgumentException(String.format("range element type must support binary: %s", elementType.getTypeName()));
+        }
+        this.oid = oid;
+        this.name = name;
+        this.elementType = elementType;
+    }
+
+    @Override
+    public int getTypeOid() {
+        return oid;
+    }
+
+    @Override
+    public String getTypeName() {
+        return name;
+    }
+
+    @Override
+    public boolean supportsBinary() {
+        return true;
+    }
+
+    public TypeHandler getElementType() {
+        return elementType;
+    }
+
+    @Override
+    public void encodeBinary(Connection con, ProtocolOutput output, Object param) {
+        if (!(param instanceof Range)) {
+            throw new IllegalArgumentException(String.format("not a range: %s", param.getClass().getName()));
+        }
+
+        final Range range = (Range) param;
+        output.int8(range.getFlags());
+
+        if (range.isEmpty()) {
+            return;
+        }
+
+        if (!range.isLowerInfinite()) {
+            final ProtocolMarker mark = output.beginExclusive();
+            elementType.encodeBinary(con, output, range.getLower());
+            mark.complete();
+        }
+
+        if (!range.isUpperInfinite()) {
+            final ProtocolMarker mark = output.beginExclusive();
+            elementType.encodeBinary(con, output, range.getUpper());
+            mark.complete();
+        }
+    }
+
+    @Override
+    public Object decodeBinary(Connection con, ColumnInfo field, ByteBuffer buf, int size) throws IOException {
+        final int flags = buf.get() & 0xFF;
+
+        if ((flags & Range.EMPTY) != 0) {
+            return Range.empty();
+        }
+
+        Object lower = null;
+        Object upper = null;
+
+        if ((flags & Range.LOWER_INFINITE) == 0) {
+            final int len = buf.getInt();
+            lower = elementType.decodeBinary(con, field, buf, len);
+        }
+
+        if ((flags & Range.UPPER_INFINITE) == 0) {
+            final int len = buf.getInt();
+            upper = elementType.decodeBinary(con, field, buf, len);
+        }
+
+        return new Range<>(flags, lower, upper);
+    }
+
+    @Override
+    public String encodeToString(Connection con, Object param) {
+        throw new UnsupportedOperationException("only binary format supported");
+    }
+
+    @Override
+    public Object decodeString(Connection con, ColumnInfo field, String value) {
+        throw new UnsupportedOperationException("only binary format supported");
+    }
+}
@@ -0,0 +1,75 @@
+package shadow.pgsql.types;
+
+import shadow.pgsql.ColumnInfo;
+import shadow.pgsql.Connection;
+import shadow.pgsql.ProtocolOutput;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.LocalTime;
+import java.time.OffsetTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAccessor;
+
+/**
+ * time without time zone, binary is the number of microseconds since midnight
+ */
+public class Time extends AbstractDateTime {
+    // 24:00:00 is a valid time but not a LocalTime, it maps to LocalTime.MAX (and back)
+    static final long MICROS_PER_DAY = 86400000000L;
+
+    static LocalTime fromMicros(long micros) {
+        if (micros == MICROS_PER_DAY) {
+            return LocalTime.MAX;
+        }
+        return LocalTime.ofNanoOfDay(micros * 1000);
+    }
+
+    static long toMicros(LocalTime time) {
+        if (time.equals(LocalTime.MAX)) {
+            return MICROS_PER_DAY;
+        }
+        return time.toNanoOfDay() / 1000;
+    }
+
+    public Time() {
+        super(Types.OID_TIME, "time", DateTimeFormatter.ISO_LOCAL_TIME);
+    }
+
+    @Override
+    public boolean supportsBinary() {
+        return true;
+    }
+
+    @Override
+    public void encodeBinary(Connection con, ProtocolOutput output, Object param) {
+        LocalTime time;
+        if (param instanceof LocalTime) {
+            time = (LocalTime) param;
+        } else if (param instanceof OffsetTime) {
+            time = ((OffsetTime) param).toLocalTime();
+        } else {
+            throw new IllegalArgumentException(String.format("not a localtime: %s", param.getClass().getName()));
+        }
+
+        output.int64(toMicros(time));
+    }
+
+    @Override
+    public Object decodeBinary(Connection con, ColumnInfo field, ByteBuffer buf, int size) throws IOException {
+        return fromMicros(buf.getLong());
+    }
+
+    @Override
+    public Object decodeString(Connection con, ColumnInfo field, String value) {
+        if (value.startsWith("24:")) {
+            return LocalTime.MAX;
+        }
+        return super.decodeString(con, field, value);
+    }
+
+    @Override
+    protected Object convertParsed(Connection con, TemporalAccessor temporal) {
+        return LocalTime.from(temporal);
+    }
+}
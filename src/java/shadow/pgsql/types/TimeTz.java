@@ -0,0 +1,66 @@
+package shadow.pgsql.types;
+
+import shadow.pgsql.ColumnInfo;
+import shadow.pgsql.Connection;
+import shadow.pgsql.ProtocolOutput;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.LocalTime;
+import java.time.OffsetTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.TemporalAccessor;
+
+/**
+ * time with time zone, binary is microseconds since midnight followed by the zone
+ * <p/>
+ * the zone is sent as seconds WEST of UTC, so the sign is the opposite of ZoneOffset
+ */
+public class TimeTz extends AbstractDateTime {
+
+    public TimeTz() {
+        super(Types.OID_TIMETZ, "timetz",
+                new DateTimeFormatterBuilder()
+                        .append(DateTimeFormatter.ISO_LOCAL_TIME)
+                        .appendOffset("+HH:mm", "+00")
+                        .toFormatter());
+    }
+
+    @Override
+    public boolean supportsBinary() {
+        return true;
+    }
+
+    @Override
+    public void encodeBinary(Connection con, ProtocolOutput output, Object param) {
+        if (!(param instanceof OffsetTime)) {
+            throw new IllegalArgumentException(String.format("not an offsettime: %s", param.getClass().getName()));
+        }
+
+        final OffsetTime time = (OffsetTime) param;
+        output.int64(Time.toMicros(time.toLocalTime()));
+        output.int32(-time.getOffset().getTotalSeconds());
+    }
+
+    @Override
+    public Object decodeBinary(Connection con, ColumnInfo field, ByteBuffer buf, int size) throws IOException {
+        final long micros = buf.getLong();
+        final int zone = buf.getInt();
+        return OffsetTime.of(Time.fromMicros(micros), ZoneOffset.ofTotalSeconds(-zone));
+    }
+
+    @Override
+    public Object decodeString(Connection con, ColumnInfo field, String value) {
+        if (value.startsWith("24:")) {
+            return ((OffsetTime) super.decodeString(con, field, "00" + value.substring(2))).with(LocalTime.MAX);
+        }
+        return super.decodeString(con, field, value);
+    }
+
+    @Override
+    protected Object convertParsed(Connection con, TemporalAccessor temporal) {
+        return OffsetTime.from(temporal);
+    }
+}
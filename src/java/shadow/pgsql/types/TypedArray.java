@@ -20,6 +20,8 @@ public class TypedArray implements TypeHandler {
     private final boolean requiresQuoting;
 
     private final int oid;
+    // the type of the array elements, differs from itemType for domains
+    private final int elementOid;
 
     public static ArrayReader makeReader(Class elementType) {
         return new ArrayReader() {
@@ -51,6 +53,21 @@ public class TypedArray implements TypeHandler {
     }
 
     public TypedArray(TypeHandler itemType, ArrayReader arrayReader, boolean requiresQuoting) {
+        this(arrayOidForType(itemType), itemType, arrayReader, requiresQuoting);
+    }
+
+    /**
+     * for item types without a constant OID, the array oid must be looked up (pg_type.typarray)
+     */
+    public TypedArray(int oid, TypeHandler itemType, ArrayReader arrayReader, boolean requiresQuoting) {
+        this(oid, itemType == null ? 0 : itemType.getTypeOid(), itemType, arrayReader, requiresQuoting);
+    }
+
+    /**
+     * for arrays of domains, elements are encoded by the handler of the base type but the array
+     * must name the domain (pg_type.typelem) as element type
+     */
+    public TypedArray(int oid, int elementOid, TypeHandler itemType, ArrayReader arrayReader, boolean requiresQuoting) {
         if (itemType == null) {
             throw new IllegalArgumentException("Need TypeHandler");
         }
@@ -58,7 +75,8 @@ public class TypedArray implements TypeHandler {
             throw new IllegalArgumentException("Need ArrayReader");
         }
 
-        this.oid = arrayOidForType(itemType);
+        this.oid = oid;
+        this.elementOid = elementOid;
         this.itemType = itemType;
         this.arrayReader = arrayReader;
         this.requiresQuoting = requiresQuoting;
@@ -66,6 +84,56 @@ public class TypedArray implements TypeHandler {
 
     public static int arrayOidForType(TypeHandler type) {
         switch (type.getTypeOid()) {
+            case Types.OID_BOOL:
+                return 1000;
+            case Types.OID_BYTEA:
+                return 1001;
+            case Types.OID_PGCHAR:
+                return 1002;
+            case Types.OID_NAME:
+                return 1003;
+            case Types.OID_OID:
+                return 1028;
+            case Types.OID_FLOAT4:
+                return 1021;
+            case Types.OID_FLOAT8:
+                return 1022;
+            case Types.OID_CHAR:
+                return 1014;
+            case Types.OID_INET:
+                return 1041;
+            case Types.OID_CIDR:
+                return 651;
+            case Types.OID_MACADDR:
+                return 1040;
+            case Types.OID_MACADDR8:
+                return 775;
+            case Types.OID_DATE:
+                return 1182;
+            case Types.OID_TIME:
+                return 1183;
+            case Types.OID_TIMETZ:
+                return 1270;
+            case Types.OID_INTERVAL:
+                return 1187;
+            case Types.OID_BIT:
+                return 1561;
+            case Types.OID_VARBIT:
+                return 1563;
+            case Types.OID_UUID:
+                return 2951;
+            case Types.OID_INT4RANGE:
+                return 3905;
+            case Types.OID_NUMRANGE:
+                return 3907;
+            case Types.OID_TSRANGE:
+                return 3909;
+            case Types.OID_TSTZRANGE:
+                return 3911;
+            case Types.OID_DATERANGE:
+                return 3913;
+            case Types.OID_INT8RANGE:
+                return 3927;
             case Types.OID_INT4:
                 return 1007;
             case Types.OID_INT2:
@@ -102,65 +170,97 @@ public class TypedArray implements TypeHandler {
         return "_" + itemType.getTypeName();
     }
 
-    @Override
-    public void encodeBinary(Connection con, ProtocolOutput output, Object param) {
-        if (param instanceof Collection) {
-            Collection coll = (Collection) param;
-            int length = coll.size();
-
-            // FIXME: 2 dim (List of Lists?)
-            int dimensions = 1;
+    private void writeHeader(Connection con, ProtocolOutput output, int length, boolean hasNull) {
+        // types without a constant oid (eg. hstore) are looked up by name
+        final int elementOid = this.elementOid != -1 ? this.elementOid : con.getDatabase().getOidForName(itemType.getTypeName());
 
-            output.int32(dimensions);
-            output.int32(0); // hasnull FIXME: check nulls
-            output.int32(itemType.getTypeOid()); // element oid
+        // FIXME: 2 dim (List of Lists?)
+        output.int32(1); // dimensions
+        output.int32(hasNull ? 1 : 0);
+        output.int32(elementOid); // element oid
+        output.int32(length); // dimension size
+        output.int32(1); // lower bound
+    }
 
-            int lbound = 1;
+    private void writeItem(Connection con, ProtocolOutput output, Object value) {
+        if (value == null) {
+            output.int32(-1);
+        } else {
+            final ProtocolMarker mark = output.beginExclusive();
+            itemType.encodeBinary(con, output, value);
+            mark.complete();
+        }
+    }
 
-            for (int i = 0; i < dimensions; i++) {
-                output.int32(length); // dimension size
-                output.int32(lbound); // lower bound?
-                lbound += length;
+    @Override
+    public void encodeBinary(Connection con, ProtocolOutput output, Object param) {
+        final int itemOid = itemType.getTypeOid();
+
+        // primitive arrays are written directly, no boxing and no reflection
+        if (param instanceof int[] && itemOid == Types.OID_INT4) {
+            final int[] values = (int[]) param;
+            writeHeader(con, output, values.length, false);
+            for (int value : values) {
+                output.int32(4);
+                output.int32(value);
             }
+        } else if (param instanceof long[] && itemOid == Types.OID_INT8) {
+            final long[] values = (long[]) param;
+            writeHeader(con, output, values.length, false);
+            for (long value : values) {
+                output.int32(8);
+                output.int64(value);
+            }
+        } else if (param instanceof short[] && itemOid == Types.OID_INT2) {
+            final short[] values = (short[]) param;
+            writeHeader(con, output, values.length, false);
+            for (short value : values) {
+                output.int32(2);
+                output.int16(value);
+            }
+        } else if (param instanceof double[] && itemOid == Types.OID_FLOAT8) {
+            final double[] values = (double[]) param;
+            writeHeader(con, output, values.length, false);
+            for (double value : values) {
+                output.int32(8);
+                output.float8(value);
+            }
+        } else if (param instanceof float[] && itemOid == Types.OID_FLOAT4) {
+            final float[] values = (float[]) param;
+            writeHeader(con, output, values.length, false);
+            for (float value : values) {
+                output.int32(4);
+                output.float4(value);
+            }
+        } else if (param instanceof Collection) {
+            final Collection coll = (Collection) param;
 
+            boolean hasNull = false;
             for (Object value : coll) {
                 if (value == null) {
-                    // output.int32(-1);
-                    throw new IllegalArgumentException("array has nulls");
-                } else {
-                    final ProtocolMarker mark = output.beginExclusive();
-                    itemType.encodeBinary(con, output, value);
-                    mark.complete();
+                    hasNull = true;
+                    break;
                 }
             }
-        } else if (param.getClass().isArray()) {
-            // FIXME: 2 dim
-            int dimensions = 1;
 
-            output.int32(dimensions);
-            output.int32(0); // hasnull FIXME: check nulls
-            output.int32(itemType.getTypeOid()); // element oid
-
-            int lbound = 1;
+            writeHeader(con, output, coll.size(), hasNull);
+            for (Object value : coll) {
+                writeItem(con, output, value);
+            }
+        } else if (param.getClass().isArray()) {
+            final int length = Array.getLength(param);
 
-            for (int i = 0; i < dimensions; i++) {
-                int length = Array.getLength(param);
-                output.int32(length); // dimension size
-                output.int32(lbound); // lower bound?
-                lbound += length;
+            boolean hasNull = false;
+            for (int i = 0; i < length && !param.getClass().getComponentType().isPrimitive(); i++) {
+                if (Array.get(param, i) == null) {
+                    hasNull = true;
+                    break;
+                }
             }
 
-            int length = Array.getLength(param);
+            writeHeader(con, output, length, hasNull);
             for (int i = 0; i < length; i++) {
-                Object value = Array.get(param, i);
-                if (value == null) {
-                    // output.int32(-1);
-                    throw new IllegalArgumentException("array has nulls");
-                } else {
-                    final ProtocolMarker mark = output.beginExclusive();
-                    itemType.encodeBinary(con, output, value);
-                    mark.complete();
-                }
+                writeItem(con, output, Array.get(param, i));
             }
         } else {
             throw new IllegalArgumentException(String.format("param is not an array or Collection: %s", param.getClass().getName()));
@@ -3,6 +3,7 @@ package shadow.pgsql.types;
 import shadow.pgsql.Connection;
 
 import java.math.BigDecimal;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.OffsetDateTime;
 import java.time.ZoneId;
@@ -14,6 +15,9 @@ import java.time.temporal.TemporalAccessor;
  * Created by zilence on 14.08.14.
  */
 public class Types {
+    public static final int OID_BOOL = 16;
+    public static final int OID_BYTEA = 17;
+    public static final int OID_PGCHAR = 18; // "char"
     public static final int OID_NAME = 19;
     public static final int OID_INT8 = 20;
     public static final int OID_INT2 = 21;
@@ -21,14 +25,45 @@ public class Types {
     public static final int OID_TEXT = 25;
     public static final int OID_OID = 26;
 
-    public static final int OID_CHAR = 1042;
+    public static final int OID_FLOAT4 = 700;
+    public static final int OID_FLOAT8 = 701;
+
+    public static final int OID_MACADDR8 = 774;
+    public static final int OID_MACADDR = 829;
+    public static final int OID_CIDR = 650;
+    public static final int OID_INET = 869;
+
+    public static final int OID_CHAR = 1042; // bpchar aka char(n)
     public static final int OID_VARCHAR = 1043;
 
+    public static final int OID_DATE = 1082;
+    public static final int OID_TIME = 1083;
     public static final int OID_TIMESTAMP = 1114;
     public static final int OID_TIMESTAMPTZ = 1184;
+    public static final int OID_INTERVAL = 1186;
+    public static final int OID_TIMETZ = 1266;
+
+    public static final int OID_BIT = 1560;
+    public static final int OID_VARBIT = 1562;
 
     public static final int OID_NUMERIC = 1700;
 
+    public static final int OID_UUID = 2950;
+
+    public static final int OID_INT4RANGE = 3904;
+    public static final int OID_NUMRANGE = 3906;
+    public static final int OID_TSRANGE = 3908;
+    public static final int OID_TSTZRANGE = 3910;
+    public static final int OID_DATERANGE = 3912;
+    public static final int OID_INT8RANGE = 3926;
+
+    public static final int OID_INT4MULTIRANGE = 4451;
+    public static final int OID_NUMMULTIRANGE = 4532;
+    public static final int OID_TSMULTIRANGE = 4533;
+    public static final int OID_TSTZMULTIRANGE = 4534;
+    public static final int OID_DATEMULTIRANGE = 4535;
+    public static final int OID_INT8MULTIRANGE = 4536;
+
     // how do you define variable length fields in text
     // "yyyy-MM-dd HH:mm:ss.SSS"
     public static final Timestamp TIMESTAMP = new Timestamp(OID_TIMESTAMP, "timestamp",
@@ -76,11 +111,17 @@ public class Types {
         }
     };
     public static final Date DATE = new Date();
+    public static final TypedArray DATE_ARRAY = new TypedArray(DATE, TypedArray.makeReader(LocalDate.class), false);
+
+    public static final Time TIME = new Time();
+    public static final TimeTz TIMETZ = new TimeTz();
+    public static final Interval INTERVAL = new Interval();
 
     public static final Int2 INT2 = new Int2(OID_INT2, "int2");
     public static final TypedArray INT2_ARRAY = new TypedArray(INT2, TypedArray.makeReader(Short.TYPE), false);
 
     public static final Int4 OID = new Int4(OID_OID, "oid");
+    public static final TypedArray OID_ARRAY = new TypedArray(OID, TypedArray.makeReader(Integer.TYPE), false);
     public static final Int4 INT4 = new Int4(OID_INT4, "int4");
     public static final TypedArray INT4_ARRAY = new TypedArray(INT4, TypedArray.makeReader(Integer.TYPE), false);
 
@@ -93,7 +134,8 @@ public class Types {
     public static final Text NAME = new Text(OID_NAME, "name");
     public static final Text TEXT = new Text(OID_TEXT, "text");
     public static final TypedArray TEXT_ARRAY = new TypedArray(TEXT, TypedArray.makeReader(String.class), true);
-    public static final Text CHAR = new Text(OID_CHAR, "char");
+    public static final Text CHAR = new Text(OID_CHAR, "bpchar");
+    public static final PgChar PGCHAR = new PgChar();
     public static final Text VARCHAR = new Text(OID_VARCHAR, "varchar");
     public static final TypedArray VARCHAR_ARRAY = new TypedArray(VARCHAR, TypedArray.makeReader(String.class), true);
 
@@ -102,12 +144,49 @@ public class Types {
 
 
     public static final ByteA BYTEA = new ByteA();
+    public static final TypedArray BYTEA_ARRAY = new TypedArray(BYTEA, TypedArray.makeReader(byte[].class), true);
 
     public static final Bool BOOL = new Bool();
+    public static final TypedArray BOOL_ARRAY = new TypedArray(BOOL, TypedArray.makeReader(Boolean.TYPE), false);
     public static final Float4 FLOAT4 = new Float4();
+    public static final TypedArray FLOAT4_ARRAY = new TypedArray(FLOAT4, TypedArray.makeReader(Float.TYPE), false);
     public static final Float8 FLOAT8 = new Float8();
+    public static final TypedArray FLOAT8_ARRAY = new TypedArray(FLOAT8, TypedArray.makeReader(Double.TYPE), false);
 
     public static final HStore HSTORE = new HStore();
+    public static final HStore HSTORE_LAZY = HStore.lazy();
+
+    // pgvector
+    public static final PgVector VECTOR = new PgVector("vector", false);
+    public static final PgVector HALFVEC = new PgVector("halfvec", true);
+    public static final PgSparseVector SPARSEVEC = new PgSparseVector();
+
+    // PostGIS
+    public static final PgGeometry GEOMETRY = new PgGeometry("geometry");
+    public static final PgGeometry GEOGRAPHY = new PgGeometry("geography");
 
     public static final PgUUID UUID = new PgUUID();
+    public static final TypedArray UUID_ARRAY = new TypedArray(UUID, TypedArray.makeReader(java.util.UUID.class), false);
+
+    public static final Inet INET = new Inet(OID_INET, "inet", false);
+    public static final Inet CIDR = new Inet(OID_CIDR, "cidr", true);
+    public static final MacAddr MACADDR = new MacAddr(OID_MACADDR, "macaddr", 6);
+    public static final MacAddr MACADDR8 = new MacAddr(OID_MACADDR8, "macaddr8", 8);
+
+    public static final Bit BIT = new Bit(OID_BIT, "bit");
+    public static final Bit VARBIT = new Bit(OID_VARBIT, "varbit");
+
+    public static final RangeType INT4RANGE = new RangeType(OID_INT4RANGE, "int4range", INT4);
+    public static final RangeType INT8RANGE = new RangeType(OID_INT8RANGE, "int8range", INT8);
+    public static final RangeType NUMRANGE = new RangeType(OID_NUMRANGE, "numrange", NUMERIC);
+    public static final RangeType TSRANGE = new RangeType(OID_TSRANGE, "tsrange", TIMESTAMP);
+    public static final RangeType TSTZRANGE = new RangeType(OID_TSTZRANGE, "tstzrange", TIMESTAMPTZ);
+    public static final RangeType DATERANGE = new RangeType(OID_DATERANGE, "daterange", DATE);
+
+    public static final MultiRangeType INT4MULTIRANGE = new MultiRangeType(OID_INT4MULTIRANGE, "int4multirange", INT4RANGE);
+    public static final MultiRangeType INT8MULTIRANGE = new MultiRangeType(OID_INT8MULTIRANGE, "int8multirange", INT8RANGE);
+    public static final MultiRangeType NUMMULTIRANGE = new MultiRangeType(OID_NUMMULTIRANGE, "nummultirange", NUMRANGE);
+    public static final MultiRangeType TSMULTIRANGE = new MultiRangeType(OID_TSMULTIRANGE, "tsmultirange", TSRANGE);
+    public static final MultiRangeType TSTZMULTIRANGE = new MultiRangeType(OID_TSTZMULTIRANGE, "tstzmultirange", TSTZRANGE);
+    public static final MultiRangeType DATEMULTIRANGE = new MultiRangeType(OID_DATEMULTIRANGE, "datemultirange", DATERANGE);
 }
@@ -0,0 +1,99 @@
+package shadow.pgsql.utils;
+
+/**
+ * Open addressing map with primitive long keys, used to look up handlers by oid without boxing.
+ * <p/>
+ * Reads are lock-free and allocation-free, writes copy the table. Meant for
+ * maps that are read on every query but only written when something new is discovered.
+ *
+ * @param <V>
+ */
+public final class LongMap<V> {
+
+    private static final class Table {
+        final long[] keys;
+        final Object[] values;
+        final int size;
+
+        Table(int capacity, int size) {
+            this.keys = new long[capacity];
+            this.values = new Object[capacity];
+            this.size = size;
+        }
+    }
+
+    private volatile Table table = new Table(16, 0);
+
+    private static int slot(long key, int mask) {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & mask;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        final Table t = table;
+        final int mask = t.keys.length - 1;
+
+        int slot = slot(key, mask);
+        Object value;
+        while ((value = t.values[slot]) != null) {
+            if (t.keys[slot] == key) {
+                return (V) value;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    public int size() {
+        return table.size;
+    }
+
+    /**
+     * @return the value already present or value if it was added
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V putIfAbsent(long key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value cannot be null");
+        }
+
+        final V existing = get(key);
+        if (existing != null) {
+            return existing;
+        }
+
+        final Table old = table;
+
+        int capacity = old.keys.length;
+        // keep load below 50%
+        while ((old.size + 1) * 2 > capacity) {
+            capacity <<= 1;
+        }
+
+        final Table t = new Table(capacity, old.size + 1);
+        for (int i = 0; i < old.keys.length; i++) {
+            if (old.values[i] != null) {
+                insert(t, old.keys[i], old.values[i]);
+            }
+        }
+        insert(t, key, value);
+
+        table = t;
+        return value;
+    }
+
+    private static void insert(Table t, long key, Object value) {
+        final int mask = t.keys.length - 1;
+        int slot = slot(key, mask);
+        while (t.values[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        t.keys[slot] = key;
+        t.values[slot] = value;
+    }
+
+    public synchronized void clear() {
+        table = new Table(16, 0);
+    }
+}
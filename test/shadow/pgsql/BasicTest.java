@@ -1,9 +1,18 @@
 package shadow.pgsql;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import shadow.pgsql.types.Bit;
+import shadow.pgsql.types.Geometry;
+import shadow.pgsql.types.HStoreMap;
+import shadow.pgsql.types.Inet;
+import shadow.pgsql.types.Interval;
 import shadow.pgsql.types.NBase;
+import shadow.pgsql.types.PgSparseVector;
+import shadow.pgsql.types.Range;
 import shadow.pgsql.types.Types;
 
 import java.io.IOException;
@@ -12,6 +21,12 @@ import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.time.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 
@@ -72,6 +87,77 @@ public class BasicTest {
         assertTrue(numTypes.contains(3l));
     }
 
+    @Test
+    public void testSavepointOutsideTransaction() throws IOException {
+        try {
+            pg.savepoint();
+            fail("should have complained");
+        } catch (IllegalStateException e) {
+        }
+
+        // nothing was deferred
+        assertTrue(pg.isReady());
+    }
+
+    @Test
+    public void testInParam() throws IOException {
+        SQL insert = SQL.statement("INSERT INTO num_types (fint4) VALUES ($1)").addParameterType(Types.INT4).create();
+        for (int i = 1; i <= 3; i++) {
+            pg.executeWith(insert, i);
+        }
+
+        SQL query = SQL.query("SELECT fint4 FROM num_types WHERE fint4 IN ($1) ORDER BY fint4")
+                .withInParam(1)
+                .addParameterType(Types.INT4)
+                .buildRowsWith(Helpers.ONE_COLUMN)
+                .create();
+
+        assertEquals("SELECT fint4 FROM num_types WHERE fint4 = ANY($1) ORDER BY fint4", query.getSQLString());
+
+        // one statement for every length
+        try (PreparedSQL prepared = pg.prepare(query)) {
+            assertEquals(Arrays.asList(1, 3), prepared.queryWith(Arrays.asList(1, 3)));
+            assertEquals(Arrays.asList(1, 2, 3), prepared.queryWith(new int[]{1, 2, 3}));
+            assertEquals(Collections.emptyList(), prepared.queryWith(Collections.emptyList()));
+        }
+
+        assertEquals(Arrays.asList(2), pg.queryWith(query, Arrays.asList(2)));
+
+        try {
+            SQL.query("SELECT fint4 FROM num_types WHERE fint4 IN ($1)").withInParam(1).create();
+            fail("IN param without element type");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void testDeferredTransaction() throws IOException {
+        SQL insert = SQL.statement("INSERT INTO num_types (fint8) VALUES ($1)").addParameterType(Types.INT8).create();
+        SQL query = SQL.query("SELECT fint8 FROM num_types").buildRowsWith(Helpers.ONE_COLUMN).create();
+
+        // BEGIN, INSERT and COMMIT in one roundtrip
+        pg.begin();
+        pg.executeDeferredWith(insert, 7L);
+        pg.commit();
+
+        assertFalse(pg.isInTransaction());
+        assertTrue(((List) pg.queryWith(query)).contains(7l));
+
+        // errors surface with the next command
+        pg.begin();
+        pg.executeDeferredWith(insert, 8L);
+        pg.executeDeferred(SQL.statement("INSERT INTO does_not_exist VALUES (1)").create(), Collections.emptyList());
+        try {
+            pg.commit();
+            fail("deferred insert should have failed");
+        } catch (CommandException e) {
+            pg.rollback();
+        }
+
+        assertTrue(pg.isReady());
+        assertFalse(((List) pg.queryWith(query)).contains(8l));
+    }
+
     @Test
     public void testComplainAboutQueryAsStatement() throws IOException {
         SQL insert = SQL.statement("INSERT INTO num_types (fint4) VALUES ($1)")
@@ -355,6 +441,222 @@ public class BasicTest {
         }
     }
 
+    public PreparedSQL castQuery(String type) throws IOException {
+        SQL q = SQL.query(String.format("SELECT $1::%s", type))
+                .buildResultsWith(Helpers.ONE_ROW)
+                .buildRowsWith(Helpers.ONE_COLUMN)
+                .create();
+
+        return pg.prepare(q);
+    }
+
+    @Test
+    public void testTime() throws IOException {
+        try (PreparedSQL pq = castQuery("time")) {
+            roundtrip(pq, LocalTime.of(12, 34, 56, 789000));
+            roundtrip(pq, LocalTime.MIDNIGHT);
+            // 24:00:00 is a valid time
+            roundtrip(pq, LocalTime.MAX);
+        }
+
+        assertEquals(LocalTime.MAX, pg.queryWith(SQL.query("SELECT '24:00:00'::time")
+                .buildResultsWith(Helpers.ONE_ROW)
+                .buildRowsWith(Helpers.ONE_COLUMN)
+                .create()));
+
+        try (PreparedSQL pq = castQuery("timetz")) {
+            roundtrip(pq, OffsetTime.of(1, 2, 3, 0, ZoneOffset.ofHours(5)));
+            roundtrip(pq, OffsetTime.of(1, 2, 3, 0, ZoneOffset.ofHoursMinutes(-3, -30)));
+        }
+    }
+
+    @Test
+    public void testInterval() throws IOException {
+        try (PreparedSQL pq = castQuery("interval")) {
+            roundtrip(pq, new Interval.Value(14, 3, 3600000000L));
+            assertEquals(Interval.Value.of(Duration.ofSeconds(90)), pq.queryWith(Duration.ofSeconds(90)));
+        }
+    }
+
+    @Test
+    public void testInetAndBits() throws IOException {
+        try (PreparedSQL pq = castQuery("inet")) {
+            roundtrip(pq, Inet.Value.parse("192.168.1.5/24"));
+            assertEquals(Inet.Value.parse("::1"), pq.queryWith("::1"));
+        }
+
+        try (PreparedSQL pq = castQuery("cidr")) {
+            roundtrip(pq, Inet.Value.parse("10.0.0.0/8", true));
+        }
+
+        assertEquals(16, Inet.Value.parse("::ffff:1.2.3.4").getAddress().length);
+
+        try {
+            Inet.Value.parse("db1.local");
+            fail("host names are not looked up");
+        } catch (IllegalArgumentException e) {
+        }
+
+        try (PreparedSQL pq = castQuery("varbit")) {
+            roundtrip(pq, Bit.Value.parse("1011000011"));
+            roundtrip(pq, Bit.Value.parse(""));
+        }
+
+        try (PreparedSQL pq = castQuery("macaddr")) {
+            byte[] mac = new byte[]{8, 0, 43, 1, 2, 3};
+            assertArrayEquals(mac, (byte[]) pq.queryWith("08:00:2b:01:02:03"));
+        }
+    }
+
+    @Test
+    public void testRanges() throws IOException {
+        try (PreparedSQL pq = castQuery("int4range")) {
+            roundtrip(pq, Range.of(1, 5));
+            roundtrip(pq, Range.of(1, null));
+            roundtrip(pq, Range.empty());
+            // canonical form of discrete ranges is [)
+            assertEquals(Range.of(1, 6), pq.queryWith(Range.of(1, true, 5, true)));
+        }
+
+        try (PreparedSQL pq = castQuery("tstzrange")) {
+            OffsetDateTime now = OffsetDateTime.of(2014, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+            roundtrip(pq, Range.of(now, true, now.plusHours(1), true));
+        }
+
+        try (PreparedSQL pq = castQuery("int8multirange")) {
+            roundtrip(pq, Arrays.asList(Range.of(1L, 3L), Range.of(5L, null)));
+        }
+    }
+
+    @Test
+    public void testVector() throws IOException {
+        float[] send = new float[1536];
+        Random r = new Random();
+        for (int i = 0; i < send.length; i++) {
+            send[i] = r.nextFloat();
+        }
+
+        try (PreparedSQL pq = castQuery("vector")) {
+            assertArrayEquals(send, (float[]) pq.queryWith(send), 0.0f);
+        }
+
+        try (PreparedSQL pq = castQuery("halfvec")) {
+            assertArrayEquals(send, (float[]) pq.queryWith(send), 0.001f);
+        }
+
+        try (PreparedSQL pq = castQuery("sparsevec")) {
+            float[] sparse = new float[]{0.0f, 1.5f, 0.0f, 0.0f, -2.0f};
+            assertArrayEquals(sparse, ((PgSparseVector.Value) pq.queryWith(sparse)).toDense(), 0.0f);
+        }
+    }
+
+    @Test
+    public void testGeometry() throws IOException {
+        Geometry point = Geometry.Point.of(4326, 13.4, 52.5);
+        Geometry polygon = new Geometry.Polygon(4326, false, false, new double[][]{
+                {0, 0, 10, 0, 10, 10, 0, 10, 0, 0},
+                {2, 2, 4, 2, 4, 4, 2, 2}
+        });
+        Geometry multi = new Geometry.Multi(Geometry.MULTIPOINT, 4326, true, false, new Geometry[]{
+                new Geometry.Point(4326, true, false, new double[]{1, 2, 3}),
+                new Geometry.Point(4326, true, false, new double[]{4, 5, 6})
+        });
+
+        try (PreparedSQL pq = castQuery("geometry")) {
+            assertEquals(point, pq.queryWith(point));
+            assertEquals(polygon, pq.queryWith(polygon));
+            assertEquals(multi, pq.queryWith(multi));
+        }
+
+        try (PreparedSQL pq = castQuery("geography")) {
+            assertEquals(point, pq.queryWith(point));
+        }
+
+        SQL sql = SQL.query("SELECT ST_GeomFromText('LINESTRING(0 0, 1 1, 2 1)', 3857)")
+                .buildResultsWith(Helpers.ONE_ROW)
+                .buildRowsWith(Helpers.ONE_COLUMN)
+                .create();
+
+        Geometry.LineString line = (Geometry.LineString) pg.query(sql);
+        assertEquals(3857, line.getSRID());
+        assertEquals(3, line.getNumPoints());
+        assertEquals(2.0, line.getX(2), 0.0);
+    }
+
+    public enum Mood {
+        SAD, OK, HAPPY
+    }
+
+    @Test
+    public void testEnumAndComposite() throws IOException {
+        pg.simpleStatement("DROP TYPE IF EXISTS test_mood CASCADE");
+        pg.simpleStatement("DROP TYPE IF EXISTS test_pair CASCADE");
+        pg.simpleStatement("CREATE TYPE test_mood AS ENUM ('sad', 'ok', 'happy')");
+        pg.simpleStatement("CREATE TYPE test_pair AS (a int4, b text, m test_mood)");
+        pg.simpleStatement("DROP DOMAIN IF EXISTS test_posint CASCADE");
+        pg.simpleStatement("CREATE DOMAIN test_posint AS int4 CHECK (VALUE > 0)");
+
+        // fresh database so the types are not cached from a previous run
+        final Database db = new DatabaseConfig("localhost", 5432)
+                .setUser("zilence")
+                .setDatabase("shadow_pgsql")
+                .get();
+
+        try (Connection con = db.connect()) {
+            SQL sql = SQL.query("SELECT 'ok'::test_mood")
+                    .buildRowsWith(Helpers.ONE_COLUMN)
+                    .buildResultsWith(Helpers.ONE_ROW)
+                    .create();
+
+            Object label = con.query(sql);
+            assertEquals("ok", label);
+            assertSame(label, con.query(sql));
+
+            TypeRegistry types = TypeRegistry.copyDefault()
+                    .registerEnumType("test_mood", Mood.class)
+                    .build();
+
+            sql = SQL.query("SELECT $1::test_mood")
+                    .withTypeRegistry(types)
+                    .buildRowsWith(Helpers.ONE_COLUMN)
+                    .buildResultsWith(Helpers.ONE_ROW)
+                    .create();
+
+            try (PreparedSQL pq = con.prepare(sql)) {
+                assertEquals(Mood.HAPPY, pq.queryWith(Mood.HAPPY));
+            }
+
+            sql = SQL.query("SELECT ROW(1, 'x', 'sad')::test_pair")
+                    .buildRowsWith(Helpers.ONE_COLUMN)
+                    .buildResultsWith(Helpers.ONE_ROW)
+                    .create();
+
+            Map pair = (Map) con.query(sql);
+            assertEquals(1, pair.get("a"));
+            assertEquals("x", pair.get("b"));
+            assertEquals("sad", pair.get("m"));
+
+            sql = SQL.query("SELECT $1::test_pair")
+                    .buildRowsWith(Helpers.ONE_COLUMN)
+                    .buildResultsWith(Helpers.ONE_ROW)
+                    .create();
+
+            try (PreparedSQL pq = con.prepare(sql)) {
+                assertEquals(pair, pq.queryWith(pair));
+            }
+
+            // elements are encoded as int4 but the array must name the domain as element type
+            sql = SQL.query("SELECT $1::test_posint[]")
+                    .buildRowsWith(Helpers.ONE_COLUMN)
+                    .buildResultsWith(Helpers.ONE_ROW)
+                    .create();
+
+            try (PreparedSQL pq = con.prepare(sql)) {
+                assertArrayEquals(new Object[]{1, 2}, (Object[]) pq.queryWith(Arrays.asList(1, 2)));
+            }
+        }
+    }
+
     public static class GetById implements DatabaseTask<Object> {
         private final SQL sql;
         private final int id;
@@ -389,6 +691,8 @@ public class BasicTest {
     @Test
     public void testCleanup() throws Exception {
         DatabasePool pool = new DatabasePool(db);
+        // otherwise remove() refills idle connections in the background
+        pool.setMinIdle(0);
 
         try {
             pool.withConnection(con -> con.prepare(SQL.statement("DELETE FROM types").create()));
@@ -404,6 +708,397 @@ public class BasicTest {
             fail("should have complained");
         } catch (IllegalStateException e) {
         }
+
+        // the connection was closed, not returned
+        assertEquals(0, pool.getNumActive() + pool.getNumIdle());
+        pool.close();
+    }
+
+    @Test
+    public void testLeakDetection() throws Exception {
+        DatabasePool pool = new DatabasePool(db);
+        pool.setLeakDetectionThresholdMillis(50);
+        pool.setLeakStackSampling(1);
+        pool.setHousekeepingPeriodMillis(20);
+
+        final CountDownLatch reported = new CountDownLatch(1);
+        final List<Object[]> leaks = Collections.synchronizedList(new ArrayList<>());
+        pool.setEventHandler(new PoolEventHandler() {
+            @Override
+            public void leakDetected(DatabasePool p, Connection con, long borrowedMillis, Throwable borrowStack) {
+                leaks.add(new Object[]{con, borrowedMillis, borrowStack});
+                reported.countDown();
+            }
+        });
+
+        Connection con = pool.borrowObject();
+        assertTrue(reported.await(5, TimeUnit.SECONDS));
+
+        assertEquals(1, leaks.size());
+        assertSame(con, leaks.get(0)[0]);
+        assertTrue((long) leaks.get(0)[1] >= 50);
+        assertNotNull(leaks.get(0)[2]);
+        assertEquals(1, db.metricRegistry.counter(MetricRegistry.name("shadow-pgsql", "pool", "leaks")).getCount());
+
+        pool.returnObject(con);
+        pool.close();
+    }
+
+    @Test
+    public void testPoolExhausted() throws Exception {
+        DatabasePool pool = new DatabasePool(db);
+        pool.setMaxTotal(1);
+        pool.setMaxWaitMillis(50);
+
+        Connection con = pool.borrowObject();
+        try {
+            pool.borrowObject();
+            fail("pool should be exhausted");
+        } catch (NoSuchElementException e) {
+        }
+
+        pool.returnObject(con);
+        assertSame(con, pool.borrowObject());
+        pool.returnObject(con);
+
+        pool.close();
+        assertEquals(0, pool.getNumIdle());
+    }
+
+    @Test
+    public void testPoolWarmUp() throws Exception {
+        DatabasePool pool = new DatabasePool(db);
+        pool.setMinIdle(5);
+        pool.setMaxConnecting(2);
+
+        assertTrue(pool.warmUp(5000));
+        assertEquals(5, pool.getNumIdle());
+
+        pool.close();
+    }
+
+    @Test
+    public void testPoolHousekeeping() throws Exception {
+        DatabasePool pool = new DatabasePool(db);
+        pool.setMinIdle(0);
+        pool.setKeepaliveMillis(1);
+        pool.setHousekeepingPeriodMillis(10);
+
+        Connection con = pool.borrowObject();
+        pool.returnObject(con);
+
+        // pinged and kept
+        Thread.sleep(100);
+        assertEquals(1, pool.getNumIdle());
+        assertSame(con, pool.borrowObject());
+        pool.returnObject(con);
+
+        pool.setIdleTimeoutMillis(1);
+        Thread.sleep(100);
+        assertEquals(0, pool.getNumIdle());
+
+        pool.close();
+    }
+
+    @Test
+    public void testPreparedHandle() throws Exception {
+        DatabasePool pool = new DatabasePool(db);
+
+        PreparedHandle insert = pool.prepare(SQL.statement("INSERT INTO num_types (fint4) VALUES ($1)").create());
+        PreparedHandle select = pool.prepare(SQL.query("SELECT fint4 FROM num_types").buildRowsWith(Helpers.ONE_COLUMN).create());
+        assertSame(insert, pool.prepare(insert.getSQL()));
+
+        // pinned while connecting, returned like any other idle connection
+        insert.executeWith(1);
+        insert.executeWith(2);
+        assertEquals(1, pool.getNumIdle());
+        assertEquals(Arrays.asList(1, 2), select.query(Collections.emptyList()));
+
+        pool.close();
+    }
+
+    @Test
+    public void testRouter() throws Exception {
+        assertEquals(0x16B374D848L, DatabaseRouter.parseLsn("16/B374D848"));
+
+        DatabasePool primary = new DatabasePool(db);
+        DatabasePool replica = new DatabasePool(db);
+
+        try (DatabaseRouter router = new DatabaseRouter(primary, replica)) {
+            router.setReadYourWrites(true);
+
+            SQL insert = SQL.statement("INSERT INTO num_types (fint4) VALUES ($1)").create();
+            SQL count = SQL.query("SELECT count(*) FROM num_types")
+                    .withReadOnly(true)
+                    .buildRowsWith(Helpers.ONE_COLUMN)
+                    .buildResultsWith(Helpers.ONE_ROW)
+                    .create();
+
+            router.withConnection(con -> con.executeWith(insert, 1));
+            assertTrue(router.getLastWriteLsn() > 0);
+
+            // the "replica" is not replaying anything, reads needing the write go to the primary
+            assertEquals(1L, router.queryWith(count));
+            assertEquals(0, replica.getNumActive());
+        }
+
+        primary.close();
+        replica.close();
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        SQL sleep = SQL.query("SELECT 1 FROM pg_sleep(10)").create();
+
+        Thread canceller = new Thread(() -> {
+            try {
+                Thread.sleep(200);
+                pg.cancel();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        canceller.start();
+
+        long start = System.currentTimeMillis();
+        try {
+            pg.queryWith(sleep);
+            fail("query should have been cancelled");
+        } catch (CommandException e) {
+        }
+        canceller.join();
+
+        assertTrue(System.currentTimeMillis() - start < 5000);
+
+        // still usable
+        SQL one = SQL.query("SELECT 1").buildRowsWith(Helpers.ONE_COLUMN).buildResultsWith(Helpers.ONE_ROW).create();
+        assertEquals(1, pg.queryWith(one));
+    }
+
+    @Test
+    public void testShardedDatabase() throws Exception {
+        Map<String, DatabasePool> shards = new LinkedHashMap<>();
+        shards.put("a", new DatabasePool(db));
+        shards.put("b", new DatabasePool(db));
+
+        try (ShardedDatabase sharded = new ShardedDatabase(shards)) {
+            assertEquals(sharded.getShardNameForKey("tenant-1"), sharded.getShardNameForKey("tenant-1"));
+            assertSame(sharded.getShard(sharded.getShardNameForKey(42)), sharded.getShardForKey(42L));
+
+            SQL insert = SQL.statement("INSERT INTO num_types (fint4) VALUES ($1)").create();
+            sharded.withConnection("tenant-1", con -> con.executeWith(insert, 1));
+
+            // both "shards" are the same database
+            SQL select = SQL.query("SELECT fint4 FROM num_types").buildRowsWith(Helpers.ONE_COLUMN).create();
+            assertEquals(Arrays.asList(1, 1), sharded.queryAll(select, ShardedDatabase.CONCAT));
+            assertEquals(2, sharded.withEachShard(con -> con.queryWith(select)).size());
+        }
+
+        for (DatabasePool pool : shards.values()) {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testSingleFlight() throws Exception {
+        DatabasePool pool = new DatabasePool(db);
+        pool.setMaxTotal(1);
+        pool.setMaxWaitMillis(100);
+
+        SingleFlight singleFlight = new SingleFlight(pool);
+        SQL slow = SQL.query("SELECT $1::int4 FROM pg_sleep(0.5)")
+                .buildRowsWith(Helpers.ONE_COLUMN)
+                .buildResultsWith(Helpers.ONE_ROW)
+                .addParameterType(Types.INT4)
+                .create();
+
+        Counter collapsed = db.metricRegistry.counter(MetricRegistry.name("shadow-pgsql", "single-flight", "collapsed"));
+        long collapsedBefore = collapsed.getCount();
+
+        // one connection, they would time out waiting for it if they all ran
+        ExecutorService executor = Executors.newFixedThreadPool(10);
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Future<Object>> results = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                return singleFlight.queryWith(slow, 1);
+            }));
+        }
+        start.countDown();
+
+        for (Future<Object> result : results) {
+            assertEquals(1, result.get());
+        }
+
+        // all started within the 0.5s the first one runs
+        assertEquals(9, collapsed.getCount() - collapsedBefore);
+
+        executor.shutdown();
+        pool.close();
+    }
+
+    @Test
+    public void testParallelScan() throws Exception {
+        SQL insert = SQL.statement("INSERT INTO num_types (fint4) VALUES ($1)").addParameterType(Types.INT4).create();
+        for (int i = 0; i < 100; i++) {
+            pg.executeWith(insert, i);
+        }
+
+        DatabasePool pool = new DatabasePool(db);
+        ParallelScan scan = new ParallelScan(pool, 4);
+
+        SQL byKey = SQL.query("SELECT fint4 FROM num_types WHERE fint4 >= $1 AND fint4 < $2")
+                .addParameterType(Types.INT4)
+                .addParameterType(Types.INT4)
+                .buildRowsWith(Helpers.ONE_COLUMN)
+                .create();
+
+        List byKeyResult = scan.query(byKey, ParallelScan.ranges(0, 100, 8), ShardedDatabase.CONCAT);
+        assertEquals(100, byKeyResult.size());
+        assertEquals(100, new HashSet<>(byKeyResult).size());
+
+        SQL byBlock = SQL.query("SELECT fint4 FROM num_types WHERE " + ParallelScan.CTID_RANGE)
+                .addParameterType(Types.INT8)
+                .addParameterType(Types.INT8)
+                .buildRowsWith(Helpers.ONE_COLUMN)
+                .create();
+
+        if (ParallelScan.supportsBlockRanges(pg)) {
+            List byBlockResult = scan.queryBlocks(byBlock, "num_types", 4, ShardedDatabase.CONCAT);
+            assertEquals(100, byBlockResult.size());
+        } else {
+            try {
+                scan.queryBlocks(byBlock, "num_types", 4, ShardedDatabase.CONCAT);
+                fail("block ranges need PostgreSQL 14");
+            } catch (UnsupportedOperationException e) {
+            }
+        }
+
+        scan.close();
+        pool.close();
+    }
+
+    @Test
+    public void testParallelCopyLoader() throws Exception {
+        DatabasePool pool = new DatabasePool(db);
+
+        try (ParallelCopyLoader loader = new ParallelCopyLoader(pool, "num_types", Arrays.asList("fint4", "fint8"), Arrays.asList(Types.INT4, Types.INT8), 4)) {
+            for (int i = 0; i < 10000; i++) {
+                loader.add(Arrays.asList(i, (long) i));
+            }
+            assertEquals(10000, loader.finish());
+        }
+
+        assertEquals(10000L, pg.query(SQL.query("SELECT count(*) FROM num_types")
+                .buildRowsWith(Helpers.ONE_COLUMN)
+                .buildResultsWith(Helpers.ONE_ROW)
+                .create()));
+
+        // a failed COPY rolls back all others
+        try (ParallelCopyLoader loader = new ParallelCopyLoader(pool, "num_types", Arrays.asList("fint4"), Arrays.asList(Types.INT4), 2)) {
+            for (int i = 0; i < 5000; i++) {
+                loader.add(Arrays.asList(i == 4500 ? "broken" : i));
+            }
+            loader.finish();
+            fail("expected the COPY to fail");
+        } catch (Exception e) {
+            // the bad value, from finish or from add if the worker was quicker
+            assertTrue(e instanceof IllegalArgumentException || e.getCause() instanceof IllegalArgumentException);
+        }
+
+        assertEquals(10000L, pg.query(SQL.query("SELECT count(*) FROM num_types")
+                .buildRowsWith(Helpers.ONE_COLUMN)
+                .buildResultsWith(Helpers.ONE_ROW)
+                .create()));
+
+        // server errors show up while sending, not only in finish
+        try (CopyIn copy = pg.copyIn(ParallelCopyLoader.copySQL("num_types", Arrays.asList("fint4")), Arrays.asList(Types.INT8))) {
+            try {
+                for (int i = 0; i < 1000000; i++) {
+                    copy.writeRowWith((long) i);
+                }
+                fail("expected the COPY to fail while sending");
+            } catch (CommandException e) {
+                assertTrue(copy.getRowsWritten() < 1000000);
+            }
+        }
+
+        assertEquals(10000L, pg.query(SQL.query("SELECT count(*) FROM num_types")
+                .buildRowsWith(Helpers.ONE_COLUMN)
+                .buildResultsWith(Helpers.ONE_ROW)
+                .create()));
+
+        pool.close();
+    }
+
+    @Test
+    public void testWriteCoalescer() throws Exception {
+        DatabasePool pool = new DatabasePool(db);
+        WriteCoalescer coalescer = new WriteCoalescer(pool, 10000, 256, true, 1);
+
+        SQL insert = SQL.statement("INSERT INTO num_types (fint4) VALUES ($1)").create();
+        SQL broken = SQL.statement("INSERT INTO does_not_exist VALUES (1)").create();
+
+        List<CompletableFuture<StatementResult>> results = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            results.add(coalescer.submitWith(insert, 1000 + i));
+        }
+        CompletableFuture<StatementResult> failed = coalescer.submitWith(broken);
+        results.add(coalescer.submitWith(insert, 2000));
+
+        coalescer.close();
+
+        for (CompletableFuture<StatementResult> result : results) {
+            assertEquals(1, result.get().getRowsAffected());
+        }
+        assertTrue(failed.isCompletedExceptionally());
+
+        // the failed write was rolled back to its savepoint, the others committed
+        SQL count = SQL.query("SELECT count(*) FROM num_types WHERE fint4 >= 1000")
+                .buildRowsWith(Helpers.ONE_COLUMN)
+                .buildResultsWith(Helpers.ONE_ROW)
+                .create();
+        assertEquals(21L, pg.query(count));
+
+        pool.close();
+    }
+
+    @Test
+    public void testQueryCache() throws Exception {
+        DatabasePool pool = new DatabasePool(db);
+        QueryCache cache = new QueryCache(pool, 1000);
+
+        SQL insert = SQL.statement("INSERT INTO num_types (fint4) VALUES ($1)").create();
+        SQL select = SQL.query("SELECT fint4 FROM num_types WHERE fint4 > $1")
+                .withName("cache.num_types")
+                .buildRowsWith(Helpers.ONE_COLUMN)
+                .create();
+
+        cache.register(select, 60000, "num_types");
+
+        Object first = cache.queryWith(select, 0);
+        assertSame(first, cache.queryWith(select, 0));
+        assertEquals(1, cache.size());
+
+        pool.withConnection(con -> con.executeWith(insert, 42));
+
+        // still cached until invalidated
+        assertSame(first, cache.queryWith(select, 0));
+
+        cache.invalidate("num_types");
+        assertEquals(0, cache.size());
+
+        List<Integer> result = (List<Integer>) cache.queryWith(select, 0);
+        assertTrue(result.contains(42));
+
+        // returns once LISTEN is active, what was cached before may have missed its notification
+        cache.listen("test_cache");
+        assertEquals(0, cache.size());
+
+        cache.close();
+        pool.close();
     }
 
     @Test
@@ -426,6 +1121,38 @@ public class BasicTest {
         }
     }
 
+    @Test
+    public void testLazyHStore() throws Exception {
+        Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < 30; i++) {
+            map.put("key" + i, "v\u00e4lue " + i);
+        }
+        map.put("null", null);
+
+        TypeRegistry types = TypeRegistry.copyDefault()
+                .registerTypeHandler(Types.HSTORE_LAZY)
+                .build();
+
+        SQL sql = SQL.query("INSERT INTO types (t_hstore) VALUES ($1) RETURNING t_hstore")
+                .withTypeRegistry(types)
+                .buildResultsWith(Helpers.ONE_ROW)
+                .buildRowsWith(Helpers.ONE_COLUMN)
+                .create();
+
+        try (PreparedSQL pq = pg.prepare(sql)) {
+            Map<String, String> result = (Map<String, String>) pq.queryWith(map);
+
+            assertTrue(result instanceof HStoreMap);
+            assertEquals("v\u00e4lue 7", result.get("key7"));
+            assertTrue(result.containsKey("null"));
+            assertNull(result.get("null"));
+            assertEquals(map, result);
+
+            Map<String, String> again = (Map<String, String>) pq.queryWith(map);
+            assertSame(result.keySet().iterator().next(), again.keySet().iterator().next());
+        }
+    }
+
 
     @Test
     public void testNotNull() throws Exception {
@@ -551,4 +1278,175 @@ public class BasicTest {
         pg.query(normalQuery);
     }
 
+    @Test
+    public void testCatalog() throws IOException {
+        final Catalog catalog = db.getCatalog();
+
+        assertEquals("int4", db.getNameForOid(Types.OID_INT4));
+        assertEquals(Types.OID_INT4, db.getOidForName("int4"));
+
+        final Catalog.Table table = catalog.getTable("types");
+        assertNotNull(table);
+        assertEquals("types", db.getNameForOid(table.oid));
+        assertEquals("t_text", db.getNameForColumn("types", table.getColumnPosition("t_text")));
+
+        assertNull(catalog.getTable("no_such_table"));
+
+        catalog.refresh();
+        assertEquals(table.oid, catalog.getTable("types").oid);
+    }
+
+    @Test
+    public void testCatalogLookupConnection() throws IOException {
+        final Catalog catalog = db.getCatalog();
+        final long connects = db.connectTimer.getCount();
+
+        final Catalog.Table table = catalog.getTable("types");
+        catalog.refresh();
+
+        // every miss goes through the same connection
+        catalog.loadTypeNames(Arrays.asList(Types.OID_INT4, Types.OID_INT8, Types.OID_TEXT));
+        assertEquals("int8", catalog.getTypeName(Types.OID_INT8));
+        assertEquals("types", catalog.getTable(table.oid).name);
+        assertEquals("int4", catalog.getTypeInfo(Types.OID_INT4).name);
+        assertEquals(1, db.connectTimer.getCount() - connects);
+
+        // and a new one after close
+        catalog.close();
+        catalog.refresh();
+        assertEquals("text", catalog.getTypeName(Types.OID_TEXT));
+        assertEquals(2, db.connectTimer.getCount() - connects);
+
+        catalog.close();
+    }
+
+    @Test
+    public void testFirstQueryOnNewDatabase() throws IOException {
+        // resolving the registry queries the catalog, which must not resolve the registry again
+        final Database fresh = new DatabaseConfig("localhost", 5432)
+                .setUser("zilence")
+                .setDatabase("shadow_pgsql")
+                .get();
+
+        try (Connection con = fresh.connect()) {
+            final List row = (List) con.queryWith(SQL.query("SELECT 1::int4, 'a'::text, 'a=>1'::hstore")
+                    .buildRowsWith(Helpers.ROW_AS_LIST)
+                    .buildResultsWith(Helpers.ONE_ROW)
+                    .create());
+
+            assertEquals(1, row.get(0));
+            assertEquals("a", row.get(1));
+            assertEquals("1", ((Map) row.get(2)).get("a"));
+        }
+    }
+
+    @Test
+    public void testRefreshSchema() throws IOException {
+        pg.simpleStatement("DROP TYPE IF EXISTS test_refresh CASCADE");
+
+        try {
+            db.getOidForName("test_refresh");
+            fail("type should not exist");
+        } catch (IllegalArgumentException e) {
+        }
+
+        pg.simpleStatement("CREATE TYPE test_refresh AS ENUM ('a', 'b')");
+
+        // the miss is cached until refresh
+        assertEquals(-1, db.getCatalog().getTypeOid("test_refresh"));
+
+        db.refreshSchema();
+        assertTrue(db.getOidForName("test_refresh") > 0);
+
+        pg.simpleStatement("DROP TYPE test_refresh");
+    }
+
+    // validation connects while holding the Database lock, once it has connected wait for it to let go
+    private static void awaitSchemaValidation(Database d) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (d.connectTimer.getCount() == 0) {
+            assertTrue("snapshot was not validated", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+        synchronized (d) {
+        }
+    }
+
+    @Test
+    public void testSchemaSnapshot() throws Exception {
+        final java.nio.file.Path file = java.nio.file.Files.createTempFile("shadow-pgsql", ".schema");
+        java.nio.file.Files.delete(file);
+
+        try {
+            final Database first = new DatabaseConfig("localhost", 5432)
+                    .setUser("zilence")
+                    .setDatabase("shadow_pgsql")
+                    .useSchemaSnapshot(file)
+                    .get();
+
+            final Catalog.Table table = first.getCatalog().getTable("types");
+            first.saveSchemaSnapshot();
+            assertTrue(java.nio.file.Files.exists(file));
+            first.getCatalog().close();
+
+            final Database second = new DatabaseConfig("localhost", 5432)
+                    .setUser("zilence")
+                    .setDatabase("shadow_pgsql")
+                    .useSchemaSnapshot(file)
+                    .get();
+
+            // restored before anything was looked up
+            assertEquals("types", second.catalog.peekTableName(table.oid));
+
+            // the only connection is the one validating the snapshot, lookups are served from it
+            awaitSchemaValidation(second);
+            assertEquals(table.oid, second.getCatalog().getTable("types").oid);
+            assertEquals("t_text", second.getNameForColumn("types", table.getColumnPosition("t_text")));
+            assertEquals(1, second.connectTimer.getCount());
+
+            // a snapshot taken for another schema state is dropped once validated
+            second.getCatalog().snapshot("changed").write(file);
+
+            final Database third = new DatabaseConfig("localhost", 5432)
+                    .setUser("zilence")
+                    .setDatabase("shadow_pgsql")
+                    .useSchemaSnapshot(file)
+                    .get();
+
+            assertEquals("types", third.catalog.peekTableName(table.oid));
+            awaitSchemaValidation(third);
+            assertNull(third.catalog.peekTableName(table.oid));
+
+            // and looked up again
+            assertEquals(table.oid, third.getCatalog().getTable("types").oid);
+            assertEquals(2, third.connectTimer.getCount());
+            third.getCatalog().close();
+        } finally {
+            java.nio.file.Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testResolvedTypeHandlers() throws IOException {
+        final TypeRegistry t = TypeRegistry
+                .copyDefault()
+                .registerColumnHandler("types", "t_text", BROKEN_TYPE_HANDLER)
+                .build();
+
+        assertSame(Types.INT4, t.getTypeHandlerForOid(db, Types.OID_INT4));
+        assertSame(Types.HSTORE, t.getTypeHandlerForOid(db, db.getOidForName("hstore")));
+
+        pg.execute(SQL.statement("INSERT INTO types (t_text) VALUES ('x')").create());
+
+        // column handlers are found by table oid and attnum, not by the (aliased) name
+        final SQL aliased = SQL.query("SELECT t_text AS other FROM types")
+                .withTypeRegistry(t)
+                .create();
+        try {
+            pg.query(aliased);
+            fail("should have used the column handler");
+        } catch (Exception e) {
+        }
+    }
+
 }
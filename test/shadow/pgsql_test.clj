@@ -175,3 +175,50 @@
           ;; row with id should not exist and therefore not update
           (is (zero? rows-affected))
           )))))
+
+(deftest test-insert-update-many
+  (with-open [db (test-db)]
+    (sql/execute db "DELETE FROM num_types")
+
+    (let [rows (for [i (range 10)]
+                 {:fint2 i :fint4 (* i 10) :fint8 (when (even? i) i)})]
+      ;; 4 chunks, nulls in fint8
+      (is (= 10 (sql/insert-many db {:table :num-types
+                                     :columns [:fint2 :fint4 :fint8]
+                                     :chunk-size 3}
+                                 rows))))
+
+    (let [ids (sql/query db {:sql "SELECT id FROM num_types ORDER BY fint2"
+                             :row sql/row->one-column})]
+
+      (is (= 10 (sql/update-many db {:table :num-types
+                                     :key-columns [:id]
+                                     :columns [:fint4]}
+                                 (map (fn [id] {:id id :fint4 -1}) ids))))
+
+      (is (= [-1] (distinct (sql/query db {:sql "SELECT fint4 FROM num_types"
+                                            :row sql/row->one-column}))))
+
+      ;; conflicts update, the rest is inserted
+      (is (= 2 (sql/upsert-many db {:table :num-types
+                                    :columns [:id :fint4]
+                                    :conflict [:id]}
+                                [{:id (first ids) :fint4 1}
+                                 {:id (+ 1000000 (last ids)) :fint4 2}])))
+
+      (is (= 11 (sql/query db {:sql "SELECT count(*) FROM num_types"
+                               :row sql/row->one-column
+                               :result sql/result->one-row}))))))
+
+(deftest test-in-params
+  (with-open [db (test-db)]
+    (sql/execute db "DELETE FROM num_types")
+    (sql/insert-many db {:table :num-types :columns [:fint4]} [{:fint4 1} {:fint4 2} {:fint4 3}])
+
+    (let [q {:sql "SELECT fint4 FROM num_types WHERE fint4 IN ($1) ORDER BY fint4"
+             :params [sql/int4-type]
+             :in-params [1]
+             :row sql/row->one-column}]
+      (is (= [1 3] (sql/query db q [[1 3]])))
+      (is (= [2] (sql/query db q [#{2}])))
+      (is (= [] (sql/query db q [[]]))))))